@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.util.Arrays;
+
+/**
+ * The result of {@link IbanBankRouter#route(CharSequence[])}: the indexes of a batch of IBANs, grouped per bank.
+ *
+ * <p>
+ * Buckets are ordered by their {@link IbanBankRouter#bankKey(CharSequence) bank keys}, i.e. by country and then by
+ * bank identifier. The indexes of all buckets are stored back to back in a single array; bucket <code>b</code>
+ * occupies the range from {@link #getStart(int)} to {@link #getEnd(int)}. IBANs that could not be routed are not part
+ * of any bucket and are available through {@link #getRejected()}.
+ * </p>
+ *
+ * <p>
+ * Objects of this class are immutable and thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class BankBuckets {
+
+	private final long[] keys;
+
+	private final int[] starts;
+
+	private final int[] indexes;
+
+	private final int firstBucket;
+
+	private final LongIntMap buckets;
+
+	BankBuckets(final long[] keys, final int[] starts, final int[] indexes) {
+		this.keys = keys;
+		this.starts = starts;
+		this.indexes = indexes;
+		this.firstBucket = keys.length > 0 && keys[0] == IbanBankRouter.INVALID_KEY ? 1 : 0;
+		this.buckets = new LongIntMap(keys.length);
+		for (int b = firstBucket; b < keys.length; b++) {
+			buckets.put(keys[b], b - firstBucket);
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of banks
+	 */
+	public int size() {
+		return keys.length - firstBucket;
+	}
+
+	/**
+	 *
+	 * @param bucket
+	 *            the bucket, <code>0</code> to {@link #size()} exclusive
+	 *
+	 * @return the bank key of the bucket
+	 */
+	public long getKey(int bucket) {
+		return keys[firstBucket + bucket];
+	}
+
+	/**
+	 *
+	 * @param bucket
+	 *            the bucket
+	 *
+	 * @return the country code and bank identifier of the bucket, e.g. <code>DE37040044</code>
+	 */
+	public String getBank(int bucket) {
+		return IbanBankRouter.toString(getKey(bucket));
+	}
+
+	/**
+	 *
+	 * @param bankKey
+	 *            a bank key
+	 *
+	 * @return the bucket of the bank or <code>-1</code> if the batch contains no IBAN of that bank
+	 */
+	public int bucketOf(long bankKey) {
+		return bankKey == IbanBankRouter.INVALID_KEY ? -1 : buckets.get(bankKey);
+	}
+
+	/**
+	 *
+	 * @param bucket
+	 *            the bucket
+	 *
+	 * @return the number of IBANs of the bucket's bank
+	 */
+	public int getCount(int bucket) {
+		return getEnd(bucket) - getStart(bucket);
+	}
+
+	/**
+	 *
+	 * @param bucket
+	 *            the bucket
+	 *
+	 * @return position of the bucket's first index in {@link #getIndexes()}
+	 */
+	public int getStart(int bucket) {
+		return starts[firstBucket + bucket];
+	}
+
+	/**
+	 *
+	 * @param bucket
+	 *            the bucket
+	 *
+	 * @return position after the bucket's last index in {@link #getIndexes()}
+	 */
+	public int getEnd(int bucket) {
+		return starts[firstBucket + bucket + 1];
+	}
+
+	/**
+	 * Provides direct access to the indexes of all buckets. The array must not be modified.
+	 *
+	 * @return the {@link #getRejected() rejected} indexes followed by the indexes of all buckets in bucket order
+	 */
+	public int[] getIndexes() {
+		return indexes;
+	}
+
+	/**
+	 *
+	 * @param bucket
+	 *            the bucket
+	 *
+	 * @return a copy of the bucket's indexes, in ascending order
+	 */
+	public int[] getIndexes(int bucket) {
+		return Arrays.copyOfRange(indexes, getStart(bucket), getEnd(bucket));
+	}
+
+	/**
+	 *
+	 * @return the indexes of all IBANs that could not be routed, in ascending order
+	 */
+	public int[] getRejected() {
+		return firstBucket == 0 ? new int[0] : Arrays.copyOfRange(indexes, starts[0], starts[1]);
+	}
+}
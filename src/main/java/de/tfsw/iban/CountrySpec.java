@@ -0,0 +1,382 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * The IBAN format of a single country as published in an {@link IbanRegistry}, compiled into a per-position
+ * character class table so that BBANs can be matched without regular expressions.
+ *
+ * <p>
+ * The BBAN consists of an optional prefix, the bank identifier, an optional branch identifier and the account
+ * number, in that order. Segment patterns use the same notation as {@link CountryCode}.
+ * </p>
+ *
+ * <p>
+ * Objects of this class are immutable and thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class CountrySpec {
+
+	private static final int COUNTRY_CODE_LENGTH = 2;
+
+	private static final int CHECK_DIGITS_LENGTH = 2;
+
+	private final String country;
+
+	private final CountryCode countryCode;
+
+	private final int bbanLength;
+
+	private final String bbanPrefixPattern;
+
+	private final String bankIdentifierPattern;
+
+	private final String branchIdentifierPattern;
+
+	private final String accountNumberPattern;
+
+	private final int bankIdentifierOffset;
+
+	private final int branchIdentifierOffset;
+
+	private final int accountNumberOffset;
+
+	/** One {@link SegmentPattern} character class bit set per BBAN position. */
+	private final byte[] charClasses;
+
+	/**
+	 * Creates a new country specification.
+	 *
+	 * @param country
+	 *            two upper-case letters, the ISO 3166-1 alpha-2 country code
+	 * @param bbanLength
+	 *            the length of the country's BBAN
+	 * @param bbanPrefixPattern
+	 *            optional BBAN prefix pattern, may be <code>null</code>
+	 * @param bankIdentifierPattern
+	 *            bank identifier pattern
+	 * @param branchIdentifierPattern
+	 *            optional branch identifier pattern, may be <code>null</code>
+	 * @param accountNumberPattern
+	 *            account number pattern
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the country code is malformed, a pattern is not supported or the segments do not add up to the
+	 *             BBAN length
+	 */
+	public CountrySpec(String country, int bbanLength, String bbanPrefixPattern, String bankIdentifierPattern,
+			String branchIdentifierPattern, String accountNumberPattern) {
+		if (country == null || country.length() != COUNTRY_CODE_LENGTH
+				|| SegmentPattern.classOf(country.charAt(0)) != SegmentPattern.UPPER
+				|| SegmentPattern.classOf(country.charAt(1)) != SegmentPattern.UPPER) {
+			throw new IllegalArgumentException("Country code must consist of two upper-case letters: " + country);
+		}
+		if (bankIdentifierPattern == null || accountNumberPattern == null) {
+			throw new IllegalArgumentException("Bank identifier and account number patterns are mandatory: " + country);
+		}
+
+		final byte[] prefix = SegmentPattern.compile(bbanPrefixPattern);
+		final byte[] bank = SegmentPattern.compile(bankIdentifierPattern);
+		final byte[] branch = SegmentPattern.compile(branchIdentifierPattern);
+		final byte[] account = SegmentPattern.compile(accountNumberPattern);
+
+		if (prefix.length + bank.length + branch.length + account.length != bbanLength) {
+			throw new IllegalArgumentException(String.format(
+					"BBAN segments of country %s add up to %d characters, but the BBAN length is %d", country,
+					prefix.length + bank.length + branch.length + account.length, bbanLength));
+		}
+
+		this.country = country;
+		this.countryCode = findCountryCode(country);
+		this.bbanLength = bbanLength;
+		this.bbanPrefixPattern = bbanPrefixPattern;
+		this.bankIdentifierPattern = bankIdentifierPattern;
+		this.branchIdentifierPattern = branchIdentifierPattern;
+		this.accountNumberPattern = accountNumberPattern;
+
+		this.bankIdentifierOffset = prefix.length;
+		this.branchIdentifierOffset = bankIdentifierOffset + bank.length;
+		this.accountNumberOffset = branchIdentifierOffset + branch.length;
+
+		this.charClasses = new byte[bbanLength];
+		System.arraycopy(prefix, 0, charClasses, 0, prefix.length);
+		System.arraycopy(bank, 0, charClasses, bankIdentifierOffset, bank.length);
+		System.arraycopy(branch, 0, charClasses, branchIdentifierOffset, branch.length);
+		System.arraycopy(account, 0, charClasses, accountNumberOffset, account.length);
+	}
+
+	/**
+	 * Creates the built-in specification of the supplied country code.
+	 *
+	 * @param countryCode
+	 *            the country code
+	 *
+	 * @return the specification as defined by the {@link CountryCode} enum
+	 */
+	public static CountrySpec of(CountryCode countryCode) {
+		return new CountrySpec(countryCode.name(), countryCode.getBbanLength(), countryCode.getBbanPrefixPattern(),
+				countryCode.getBankIdentifierPattern(), countryCode.getBranchIdentifierPattern(),
+				countryCode.getAccountNumberPattern());
+	}
+
+	/**
+	 * Checks the supplied BBAN against this specification.
+	 *
+	 * @param bban
+	 *            the BBAN to check, must not contain whitespace
+	 *
+	 * @return <code>true</code> if length and all characters match this country's format
+	 */
+	public boolean matchesBban(CharSequence bban) {
+		return bban != null && bban.length() == bbanLength && matchesBban(bban, 0);
+	}
+
+	/**
+	 * Checks the BBAN starting at the supplied offset against this specification. The length is not checked, the
+	 * caller must make sure that {@link #getBbanLength()} characters are available.
+	 *
+	 * @param chars
+	 *            characters containing the BBAN
+	 * @param offset
+	 *            the index of the first BBAN character
+	 *
+	 * @return <code>true</code> if all characters match this country's format
+	 */
+	public boolean matchesBban(CharSequence chars, int offset) {
+		for (int i = 0; i < bbanLength; i++) {
+			if ((SegmentPattern.classOf(chars.charAt(offset + i)) & charClasses[i]) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the BBAN starting at the supplied offset against this specification. The length is not checked, the
+	 * caller must make sure that {@link #getBbanLength()} characters are available.
+	 *
+	 * @param chars
+	 *            characters containing the BBAN
+	 * @param offset
+	 *            the index of the first BBAN character
+	 *
+	 * @return <code>true</code> if all characters match this country's format
+	 */
+	public boolean matchesBban(char[] chars, int offset) {
+		for (int i = 0; i < bbanLength; i++) {
+			if ((SegmentPattern.classOf(chars[offset + i]) & charClasses[i]) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the BBAN starting at the supplied offset against this specification. The length is not checked, the
+	 * caller must make sure that {@link #getBbanLength()} characters are available.
+	 *
+	 * @param chars
+	 *            ASCII characters containing the BBAN
+	 * @param offset
+	 *            the index of the first BBAN character
+	 *
+	 * @return <code>true</code> if all characters match this country's format
+	 */
+	public boolean matchesBban(byte[] chars, int offset) {
+		for (int i = 0; i < bbanLength; i++) {
+			if ((SegmentPattern.classOf((char) (chars[offset + i] & 0xFF)) & charClasses[i]) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks a single BBAN character.
+	 *
+	 * @param position
+	 *            the position inside the BBAN
+	 * @param c
+	 *            the character
+	 *
+	 * @return <code>true</code> if the character is allowed at the supplied position
+	 */
+	public boolean accepts(int position, char c) {
+		return (SegmentPattern.classOf(c) & charClasses[position]) != 0;
+	}
+
+	/**
+	 *
+	 * @param position
+	 *            the position inside the BBAN
+	 *
+	 * @return the {@link SegmentPattern} character class bits allowed at the supplied position
+	 */
+	int getCharClass(final int position) {
+		return charClasses[position];
+	}
+
+	/**
+	 *
+	 * @return the ISO 3166-1 alpha-2 country code
+	 */
+	public String getCountry() {
+		return country;
+	}
+
+	/**
+	 *
+	 * @return the built-in enum value of this country, <code>null</code> if the country is only known to the registry
+	 */
+	public CountryCode getCountryCode() {
+		return countryCode;
+	}
+
+	/**
+	 *
+	 * @return the length of a BBAN of this country
+	 */
+	public int getBbanLength() {
+		return bbanLength;
+	}
+
+	/**
+	 *
+	 * @return the length of a complete IBAN of this country
+	 */
+	public int getIbanLength() {
+		return COUNTRY_CODE_LENGTH + CHECK_DIGITS_LENGTH + bbanLength;
+	}
+
+	/**
+	 * @return the BBAN prefix pattern, may return <code>null</code>
+	 */
+	public String getBbanPrefixPattern() {
+		return bbanPrefixPattern;
+	}
+
+	/**
+	 *
+	 * @return <code>true</code> if this country's BBANs start with a prefix
+	 */
+	public boolean hasBbanPrefix() {
+		return bbanPrefixPattern != null;
+	}
+
+	/**
+	 *
+	 * @return the bank identifier pattern
+	 */
+	public String getBankIdentifierPattern() {
+		return bankIdentifierPattern;
+	}
+
+	/**
+	 *
+	 * @return the branch identifier pattern, may return <code>null</code>
+	 */
+	public String getBranchIdentifierPattern() {
+		return branchIdentifierPattern;
+	}
+
+	/**
+	 *
+	 * @return <code>true</code> if this country's BBANs contain a branch identifier
+	 */
+	public boolean hasBranchIdentifier() {
+		return branchIdentifierPattern != null;
+	}
+
+	/**
+	 *
+	 * @return the account number pattern
+	 */
+	public String getAccountNumberPattern() {
+		return accountNumberPattern;
+	}
+
+	/**
+	 *
+	 * @return the length of the BBAN prefix, <code>0</code> if there is none
+	 */
+	public int getBbanPrefixLength() {
+		return bankIdentifierOffset;
+	}
+
+	/**
+	 *
+	 * @return the index of the bank identifier inside the BBAN
+	 */
+	public int getBankIdentifierOffset() {
+		return bankIdentifierOffset;
+	}
+
+	/**
+	 *
+	 * @return the length of the bank identifier
+	 */
+	public int getBankIdentifierLength() {
+		return branchIdentifierOffset - bankIdentifierOffset;
+	}
+
+	/**
+	 *
+	 * @return the index of the branch identifier inside the BBAN, equal to the account number offset if there is none
+	 */
+	public int getBranchIdentifierOffset() {
+		return branchIdentifierOffset;
+	}
+
+	/**
+	 *
+	 * @return the length of the branch identifier, <code>0</code> if there is none
+	 */
+	public int getBranchIdentifierLength() {
+		return accountNumberOffset - branchIdentifierOffset;
+	}
+
+	/**
+	 *
+	 * @return the index of the account number inside the BBAN
+	 */
+	public int getAccountNumberOffset() {
+		return accountNumberOffset;
+	}
+
+	/**
+	 *
+	 * @return the length of the account number
+	 */
+	public int getAccountNumberLength() {
+		return bbanLength - accountNumberOffset;
+	}
+
+	@Override
+	public String toString() {
+		return country + "(" + bbanLength + ")";
+	}
+
+	private static CountryCode findCountryCode(final String country) {
+		for (CountryCode cc : CountryCode.values()) {
+			if (cc.name().equals(country)) {
+				return cc;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.util.List;
+
+/**
+ * A structured creditor reference as defined by ISO 11649, e.g. <code>RF18 5390 0754 7034</code>.
+ *
+ * <p>
+ * A creditor reference consists of the prefix <code>RF</code>, two check digits and a reference of 1 to 21 upper
+ * case letters and digits. The check digits are calculated with ISO/IEC 7064 MOD97-10 exactly like those of an IBAN,
+ * with <code>RF</code> in place of the country code, so validation shares its arithmetic with {@link Iban} and
+ * {@link IbanBatchValidator}: {@link #validate(CharSequence[], boolean[])} computes the remainders of many references
+ * at once, and {@link #isValid(CharSequence)} checks a single one without throwing exceptions or creating objects.
+ * </p>
+ *
+ * <p>
+ * Objects of this class are immutable and thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class CreditorReference {
+
+	private static final char PREFIX_FIRST = 'R';
+
+	private static final char PREFIX_SECOND = 'F';
+
+	private static final int HEADER_LENGTH = 4;
+
+	private static final int MAX_REFERENCE_LENGTH = 21;
+
+	private static final int MAX_LENGTH = HEADER_LENGTH + MAX_REFERENCE_LENGTH;
+
+	private final String value;
+
+	private CreditorReference(String value) {
+		super();
+		this.value = value;
+	}
+
+	/**
+	 * Creates a creditor reference object from the supplied string, which must be a complete creditor reference
+	 * including prefix and check digits.
+	 *
+	 * @param creditorReference
+	 *            the creditor reference, may contain whitespace
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the supplied string is not a valid creditor reference
+	 */
+	public CreditorReference(CharSequence creditorReference) {
+		super();
+		final char[] chars = new char[MAX_LENGTH];
+		final int length = flatten(creditorReference, chars);
+		if (!checkStructure(chars, length)) {
+			throw new IllegalArgumentException("Not a valid creditor reference format: " + creditorReference);
+		} else if (Mod97.ibanRemainder(chars, 0, length) != 1) {
+			throw new IllegalArgumentException("Check digit validation for creditor reference [" + creditorReference
+					+ "] failed");
+		}
+		this.value = new String(chars, 0, length);
+	}
+
+	/**
+	 * Creates a creditor reference by calculating the check digits of the supplied reference.
+	 *
+	 * @param reference
+	 *            the reference without prefix and check digits, 1 to 21 upper case letters and digits, may contain
+	 *            whitespace
+	 *
+	 * @return the creditor reference
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the reference is empty, too long or contains characters other than upper case letters and digits
+	 */
+	public static CreditorReference of(CharSequence reference) {
+		final char[] chars = new char[MAX_LENGTH + 1];
+		final int length = reference == null ? -1 : flatten(reference, chars, HEADER_LENGTH);
+		if (length <= HEADER_LENGTH || length > MAX_LENGTH || !checkReference(chars, length)) {
+			throw new IllegalArgumentException("Reference must consist of 1 to 21 upper case letters and digits: "
+					+ reference);
+		}
+
+		final int checkDigits = Mod97.checkDigits(Mod97.update(0L, chars, HEADER_LENGTH, length), PREFIX_FIRST,
+				PREFIX_SECOND);
+		chars[0] = PREFIX_FIRST;
+		chars[1] = PREFIX_SECOND;
+		chars[2] = (char) ('0' + checkDigits / 10);
+		chars[3] = (char) ('0' + checkDigits % 10);
+		return new CreditorReference(new String(chars, 0, length));
+	}
+
+	/**
+	 * Validates a creditor reference without throwing exceptions.
+	 *
+	 * @param creditorReference
+	 *            the creditor reference, may contain whitespace or be <code>null</code>
+	 *
+	 * @return <code>true</code> if the supplied creditor reference is valid
+	 */
+	public static boolean isValid(CharSequence creditorReference) {
+		final char[] chars = new char[MAX_LENGTH];
+		final int length = flatten(creditorReference, chars);
+		return checkStructure(chars, length) && Mod97.ibanRemainder(chars, 0, length) == 1;
+	}
+
+	/**
+	 * Parses a creditor reference without throwing exceptions.
+	 *
+	 * @param creditorReference
+	 *            the creditor reference, may contain whitespace or be <code>null</code>
+	 *
+	 * @return the creditor reference or <code>null</code> if it is invalid
+	 */
+	public static CreditorReference parse(CharSequence creditorReference) {
+		final char[] chars = new char[MAX_LENGTH];
+		final int length = flatten(creditorReference, chars);
+		if (checkStructure(chars, length) && Mod97.ibanRemainder(chars, 0, length) == 1) {
+			return new CreditorReference(new String(chars, 0, length));
+		}
+		return null;
+	}
+
+	/**
+	 * Validates all supplied creditor references, computing the MOD97-10 remainders of many references at once like
+	 * {@link IbanBatchValidator#validate(CharSequence[], boolean[])}.
+	 *
+	 * @param creditorReferences
+	 *            the creditor references, may contain whitespace and <code>null</code> elements
+	 * @param results
+	 *            receives the validation result of each creditor reference at the same index
+	 *
+	 * @return the number of valid creditor references
+	 */
+	public static int validate(CharSequence[] creditorReferences, boolean[] results) {
+		final DigitColumns columns = new DigitColumns(
+				Math.max(1, Math.min(IbanBatchValidator.BLOCK_SIZE, creditorReferences.length)));
+		final char[] flat = new char[MAX_LENGTH];
+
+		int valid = 0;
+		for (int blockStart = 0; blockStart < creditorReferences.length; blockStart += columns.capacity()) {
+			final int blockEnd = Math.min(creditorReferences.length, blockStart + columns.capacity());
+			columns.clear();
+			for (int i = blockStart; i < blockEnd; i++) {
+				final int length = flatten(creditorReferences[i], flat);
+				if (checkStructure(flat, length)) {
+					results[i] = columns.add(flat, 0, length);
+				} else {
+					results[i] = false;
+					columns.add(flat, 0, 0); // placeholder
+				}
+			}
+
+			final long[] remainders = columns.remainders();
+			for (int i = blockStart; i < blockEnd; i++) {
+				results[i] = results[i] && remainders[i - blockStart] == 1;
+				if (results[i]) {
+					valid++;
+				}
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * Validates all supplied creditor references.
+	 *
+	 * @param creditorReferences
+	 *            the creditor references, may contain whitespace and <code>null</code> elements
+	 *
+	 * @return the validation result of each creditor reference at the same index
+	 */
+	public static boolean[] validate(List<? extends CharSequence> creditorReferences) {
+		final CharSequence[] array = creditorReferences.toArray(new CharSequence[creditorReferences.size()]);
+		final boolean[] results = new boolean[array.length];
+		validate(array, results);
+		return results;
+	}
+
+	/**
+	 *
+	 * @return the two check digits
+	 */
+	public String getCheckDigits() {
+		return value.substring(2, HEADER_LENGTH);
+	}
+
+	/**
+	 *
+	 * @return the reference without prefix and check digits
+	 */
+	public String getReference() {
+		return value.substring(HEADER_LENGTH);
+	}
+
+	/**
+	 * @return the machine-readable creditor reference without whitespace
+	 */
+	@Override
+	public String toString() {
+		return value;
+	}
+
+	/**
+	 *
+	 * @return the creditor reference with a blank every four characters
+	 */
+	public String toFormattedString() {
+		final StringBuilder sb = new StringBuilder(value.length() + value.length() / 4);
+		for (int i = 0; i < value.length(); i++) {
+			if (i > 0 && i % 4 == 0) {
+				sb.append(' ');
+			}
+			sb.append(value.charAt(i));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof CreditorReference && value.equals(((CreditorReference) other).value);
+	}
+
+	@Override
+	public int hashCode() {
+		return value.hashCode();
+	}
+
+	private static int flatten(final CharSequence creditorReference, final char[] target) {
+		return creditorReference == null ? -1 : flatten(creditorReference, target, 0);
+	}
+
+	/**
+	 * Copies the supplied characters without whitespace.
+	 *
+	 * @return the index after the last character copied, <code>-1</code> if the target is too small
+	 */
+	private static int flatten(final CharSequence chars, final char[] target, final int offset) {
+		int length = offset;
+		for (int i = 0; i < chars.length(); i++) {
+			final char c = chars.charAt(i);
+			if (!IbanNormalizer.isWhitespace(c)) {
+				if (length == target.length) {
+					return -1;
+				}
+				target[length++] = c;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Checks everything but the check digits' value.
+	 */
+	private static boolean checkStructure(final char[] chars, final int length) {
+		if (length <= HEADER_LENGTH || chars[0] != PREFIX_FIRST || chars[1] != PREFIX_SECOND
+				|| SegmentPattern.classOf(chars[2]) != SegmentPattern.DIGIT
+				|| SegmentPattern.classOf(chars[3]) != SegmentPattern.DIGIT) {
+			return false;
+		}
+		return checkReference(chars, length);
+	}
+
+	/**
+	 * Checks that the reference consists of upper case letters and digits only. Lower case letters are rejected like
+	 * in the prefix, so that equal references have equal strings.
+	 */
+	private static boolean checkReference(final char[] chars, final int length) {
+		for (int i = HEADER_LENGTH; i < length; i++) {
+			final int charClass = SegmentPattern.classOf(chars[i]);
+			if (charClass != SegmentPattern.DIGIT && charClass != SegmentPattern.UPPER) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * Columnar buffer of IBAN digits for computing many MOD97-10 remainders at once.
+ *
+ * <p>
+ * Every IBAN is rearranged (BBAN, country code, check digits), its letters are expanded to two digits each and the
+ * resulting number is right-aligned in {@value #COLUMNS} chunks of {@value #DIGITS_PER_CHUNK} digits. Leading zeros
+ * do not change the remainder, so all IBANs can be processed in lockstep. Chunks are stored column by column, i.e.
+ * chunk <code>c</code> of IBAN <code>i</code> is at <code>c * capacity + i</code>, so that consecutive IBANs occupy
+ * consecutive slots and can be loaded into vector registers directly.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+final class DigitColumns {
+
+	/** 34 characters, at most 32 of them letters, make at most 66 digits. */
+	static final int COLUMNS = 10;
+
+	static final int DIGITS_PER_CHUNK = 7;
+
+	/** <code>10 ^ DIGITS_PER_CHUNK</code>; <code>96 * CHUNK_BASE + CHUNK_BASE</code> still fits into 31 bits. */
+	static final long CHUNK_BASE = 10000000L;
+
+	private static final int MAX_IBAN_LENGTH = 34;
+
+	private final int capacity;
+
+	private final long[] chunks;
+
+	private final long[] remainders;
+
+	private final byte[] digits = new byte[COLUMNS * DIGITS_PER_CHUNK];
+
+	private int size;
+
+	/**
+	 * @param capacity
+	 *            the maximum number of IBANs
+	 */
+	DigitColumns(final int capacity) {
+		this.capacity = capacity;
+		this.chunks = new long[COLUMNS * capacity];
+		this.remainders = new long[capacity];
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Appends a machine-readable IBAN.
+	 *
+	 * @param iban
+	 *            characters of the IBAN
+	 * @param offset
+	 *            index of the first character
+	 * @param length
+	 *            length of the IBAN, between 4 and 34 characters
+	 *
+	 * @return <code>false</code> if the IBAN contains characters other than letters and digits, in which case a
+	 *         placeholder with remainder <code>0</code> has been appended instead
+	 */
+	boolean add(final char[] iban, final int offset, final int length) {
+		int position = digits.length;
+		boolean valid = length >= 4 && length <= MAX_IBAN_LENGTH;
+		for (int n = length - 1; valid && n >= 0; n--) {
+			// rearranged order: BBAN first, then country code and check digits
+			final char c = iban[offset + (n < length - 4 ? n + 4 : n - (length - 4))];
+			if (c >= '0' && c <= '9') {
+				digits[--position] = (byte) (c - '0');
+			} else if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
+				final int value = (c >= 'a' ? c - 'a' : c - 'A') + 10;
+				digits[--position] = (byte) (value % 10);
+				digits[--position] = (byte) (value / 10);
+			} else {
+				valid = false;
+			}
+		}
+
+		if (!valid) {
+			position = digits.length;
+		}
+		for (int i = 0; i < position; i++) {
+			digits[i] = 0;
+		}
+
+		for (int c = 0; c < COLUMNS; c++) {
+			long chunk = 0;
+			for (int d = c * DIGITS_PER_CHUNK; d < (c + 1) * DIGITS_PER_CHUNK; d++) {
+				chunk = chunk * 10 + digits[d];
+			}
+			chunks[c * capacity + size] = chunk;
+		}
+		size++;
+		return valid;
+	}
+
+	/**
+	 * Computes the remainders of all IBANs added so far, using the vectorized kernel if available.
+	 *
+	 * @return the remainders, indexed in the order the IBANs have been added
+	 */
+	long[] remainders() {
+		Mod97Batch.remainders(chunks, capacity, size, remainders);
+		return remainders;
+	}
+
+	/**
+	 * Scalar kernel: computes the remainders of the IBANs <code>from</code> (inclusive) to <code>to</code>
+	 * (exclusive).
+	 */
+	static void scalarRemainders(final long[] chunks, final int stride, final int from, final int to,
+			final long[] remainders) {
+		for (int i = from; i < to; i++) {
+			long r = 0;
+			for (int c = 0; c < COLUMNS; c++) {
+				r = (r * CHUNK_BASE + chunks[c * stride + i]) % 97;
+			}
+			remainders[i] = r;
+		}
+	}
+}
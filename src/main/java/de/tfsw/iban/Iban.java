@@ -15,25 +15,20 @@
  */
 package de.tfsw.iban;
 
-import java.math.BigInteger;
 import java.util.regex.Pattern;
 
 /**
  * An international bank account number as defined by ISO 13616-1:2007.
  * 
  * <p>
- * Objects of this class are immutable and thread-safe.
+ * Objects of this class are immutable and thread-safe. Their natural ordering is by country code, then BBAN, then check
+ * digits, which is consistent with {@link #equals(Object)}. For IBANs with the computed check digits, it is the byte
+ * order of {@link PackedIban packed IBANs}.
  * </p>
  * 
  * @author Thorsten Frank
  */
-public class Iban {
-
-	private static final String DEFAULT_CHECKSUM = "00";
-
-	private static final String WHITESPACE_REGEX = "\\s";
-
-	private static final String EMPTY_STRING = "";
+public class Iban implements Comparable<Iban> {
 
 	private static final String BLANK_STRING = " ";
 
@@ -45,10 +40,6 @@ public class Iban {
 
 	private static final int BBAN_START_INDEX = 4;
 
-	private static final BigInteger NINETY_SEVEN = new BigInteger("97");
-
-	private static final BigInteger NINETY_EIGHT = new BigInteger("98");
-
 	private String ibanString;
 
 	private CountryCode countryCode;
@@ -118,7 +109,7 @@ public class Iban {
 		}
 
 		this.countryCode = countryCode;
-		this.bban = removeWhitespace(bban);
+		this.bban = IbanNormalizer.removeWhitespace(bban);
 		validateBban();
 		this.checksum = calculateChecksum();
 		this.ibanString = this.countryCode.toString() + this.checksum + this.bban;
@@ -146,17 +137,16 @@ public class Iban {
 	 *             if the MOD97-10 checksum calculation fails
 	 */
 	public static String validateIban(final String iban) {
-		final String ibanFlat = removeWhitespace(iban);
+		final String ibanFlat = IbanNormalizer.removeWhitespace(iban);
 		if (ibanFlat == null || false == IBAN_PATTERN.matcher(ibanFlat).matches()) {
 			throw new IbanFormatException("Not a valid IBAN format: " + iban);
 		}
 
-		final StringBuilder sb = new StringBuilder(ibanFlat.substring(BBAN_START_INDEX));
-		sb.append(ibanFlat.subSequence(CCODE_START_INDEX, BBAN_START_INDEX));
-		replaceLettersWithDigitRepresentation(sb);
-
-		BigInteger remainder = new BigInteger(sb.toString()).mod(NINETY_SEVEN);
-		if (!BigInteger.ONE.equals(remainder)) {
+		final int remainder = Mod97.ibanRemainder(ibanFlat, CCODE_START_INDEX, ibanFlat.length());
+		if (remainder == Mod97.INVALID) {
+			throw new BbanValidationException(
+					"Illegal character in BBAN. May only contain digits and letters: " + iban);
+		} else if (remainder != 1) {
 			throw new InvalidChecksumException(iban);
 		}
 		
@@ -247,15 +237,40 @@ public class Iban {
 	}
 
 	/**
+	 * Orders IBANs by the ordinal of their {@link CountryCode}, i.e. alphabetically by country code, then by BBAN.
+	 * Check digits usually follow from country code and BBAN, but <code>00</code>, <code>01</code> and
+	 * <code>99</code> pass the MOD97-10 check in place of <code>97</code>, <code>98</code> and <code>02</code>.
+	 * They break ties, so that only equal IBANs compare as equal.
+	 * 
+	 * @param other
+	 *            the IBAN to compare to
+	 * 
+	 * @return a negative number, zero or a positive number if this IBAN is less than, equal to or greater than the
+	 *         supplied one
 	 * 
+	 * @see IbanSort
+	 */
+	@Override
+	public int compareTo(Iban other) {
+		final int byCountry = countryCode.ordinal() - other.countryCode.ordinal();
+		if (byCountry != 0) {
+			return byCountry;
+		}
+		final int byBban = bban.compareTo(other.bban);
+		return byBban != 0 ? byBban : checksum.compareTo(other.checksum);
+	}
+
+	/**
+	 * Validates the BBAN against the format currently published by the default {@link IbanRegistry}.
 	 */
 	private void validateBban() {
+		final CountrySpec spec = IbanRegistry.getDefault().lookup(countryCode);
 		if (bban == null) {
 			throw new BbanValidationException("BBAN must not be nulL!");
-		} else if (bban.length() != countryCode.getBbanLength()) {
+		} else if (bban.length() != spec.getBbanLength()) {
 			throw new BbanValidationException(String.format("BBAN for country %s must have %d characters, but was %d",
-					countryCode, countryCode.getBbanLength(), bban.length()));
-		} else if (!bban.matches(countryCode.getBbanPattern())) {
+					countryCode, spec.getBbanLength(), bban.length()));
+		} else if (!spec.matchesBban(bban)) {
 			throw new BbanValidationException(String.format(
 					"BBAN [%s] does not match the required pattern for country code %s", bban, countryCode.name()));
 		}
@@ -268,44 +283,10 @@ public class Iban {
 	 * @return the calculated checksum
 	 */
 	private String calculateChecksum() {
-		StringBuilder sb = new StringBuilder(bban);
-		sb.append(countryCode.toString());
-		sb.append(DEFAULT_CHECKSUM);
-
-		replaceLettersWithDigitRepresentation(sb);
-
-		String calculated = NINETY_EIGHT.subtract(new BigInteger(sb.toString()).mod(NINETY_SEVEN)).toString();
-
-		if (calculated.length() < 2) {
-			calculated = "0" + calculated;
-		}
-
-		return calculated;
-	}
-
-	/**
-	 * 
-	 * @param stringBuilder
-	 */
-	private static final void replaceLettersWithDigitRepresentation(final StringBuilder stringBuilder) {
-		for (int i = 0; i < stringBuilder.length(); i++) {
-			final char c = stringBuilder.charAt(i);
-			if (Character.isLetter(c)) {
-				stringBuilder.replace(i, i + 1, Integer.toString(Character.getNumericValue(c)));
-			} else if (!Character.isDigit(c)) {
-				throw new BbanValidationException(
-						"Illegal character in BBAN. May only contain digits and letters: " + c);
-			}
-		}
-	}
-
-	/**
-	 * 
-	 * @param input
-	 * @return
-	 */
-	private static final String removeWhitespace(final String input) {
-		return input == null ? null : input.replaceAll(WHITESPACE_REGEX, EMPTY_STRING);
+		final String country = countryCode.name();
+		final int calculated = Mod97.checkDigits(Mod97.update(0L, bban, 0, bban.length()), country.charAt(0),
+				country.charAt(1));
+		return calculated < 10 ? "0" + calculated : Integer.toString(calculated);
 	}
 
 	/**
@@ -0,0 +1,292 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Partitions large batches of IBANs into buckets per bank, e.g. to assemble outgoing clearing files.
+ *
+ * <p>
+ * The bank of an IBAN is identified by a {@link #bankKey(CharSequence) bank key}, a <code>long</code> combining the
+ * country code and the bank identifier as laid out by the country's {@link CountrySpec} in the default
+ * {@link IbanRegistry}. Bank keys are read straight from the characters of an IBAN without creating any objects.
+ * </p>
+ *
+ * <p>
+ * Routing is a parallel counting sort on the common {@link ForkJoinPool}: each thread computes the bank keys of a
+ * contiguous chunk of the batch and counts them in a primitive-keyed map, the counts are merged into bucket offsets,
+ * and finally each thread writes the indexes of its chunk into a single flat index array. Within each bucket, indexes
+ * remain in ascending order.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanBankRouter {
+
+	/** Bank key of IBANs that cannot be routed. */
+	public static final long INVALID_KEY = -1L;
+
+	/** Bank identifiers longer than this do not fit into a bank key. */
+	static final int MAX_BANK_IDENTIFIER_LENGTH = 8;
+
+	/** Letters and digits, plus one so that leading characters are never zero. */
+	private static final int KEY_RADIX = 37;
+
+	/** <code>37 ^ 8 &lt; 2 ^ 42</code> */
+	private static final int COUNTRY_SHIFT = 42;
+
+	private static final int MIN_CHUNK_SIZE = 1 << 14;
+
+	private IbanBankRouter() {
+		// static helper
+	}
+
+	/**
+	 * Computes the bank key of an IBAN. Bank keys of the same country order like their bank identifiers, and bank keys
+	 * of different countries order like their country codes.
+	 *
+	 * <p>
+	 * Only the structure needed for routing is checked: the country must be known, the length must match and the bank
+	 * identifier must match its pattern. Check digits are not validated.
+	 * </p>
+	 *
+	 * @param iban
+	 *            an IBAN, may contain whitespace
+	 *
+	 * @return the bank key or {@link #INVALID_KEY}
+	 */
+	public static long bankKey(CharSequence iban) {
+		if (iban == null) {
+			return INVALID_KEY;
+		}
+
+		CountrySpec spec = null;
+		char first = 0;
+		char second = 0;
+		int bankStart = 0;
+		int bankEnd = 0;
+		long bank = 0L;
+		int position = 0;
+		for (int i = 0; i < iban.length(); i++) {
+			final char c = iban.charAt(i);
+			if (IbanNormalizer.isWhitespace(c)) {
+				continue;
+			}
+
+			if (position == 0) {
+				first = c;
+			} else if (position == 1) {
+				second = c;
+				spec = IbanRegistry.getDefault().lookup(first, second);
+				if (spec == null || spec.getBankIdentifierLength() > MAX_BANK_IDENTIFIER_LENGTH) {
+					return INVALID_KEY;
+				}
+				bankStart = 4 + spec.getBankIdentifierOffset();
+				bankEnd = bankStart + spec.getBankIdentifierLength();
+			} else if (position >= bankStart && position < bankEnd) {
+				if (!spec.accepts(position - 4, c)) {
+					return INVALID_KEY;
+				}
+				bank = bank * KEY_RADIX + code(c);
+			}
+			position++;
+		}
+
+		if (spec == null || position != spec.getIbanLength()) {
+			return INVALID_KEY;
+		}
+		return (long) IbanRegistry.index(first, second) << COUNTRY_SHIFT | bank;
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN
+	 *
+	 * @return the bank key
+	 *
+	 * @see #bankKey(CharSequence)
+	 */
+	public static long bankKey(Iban iban) {
+		return bankKey(iban.toString());
+	}
+
+	/**
+	 * Converts a bank key back to text.
+	 *
+	 * @param bankKey
+	 *            a valid bank key
+	 *
+	 * @return the country code followed by the bank identifier, e.g. <code>DE37040044</code>
+	 */
+	public static String toString(long bankKey) {
+		final int country = countryIndex(bankKey);
+		long bank = bankKey & ((1L << COUNTRY_SHIFT) - 1);
+
+		final char[] chars = new char[2 + MAX_BANK_IDENTIFIER_LENGTH];
+		int start = chars.length;
+		while (bank > 0) {
+			final int code = (int) (bank % KEY_RADIX);
+			chars[--start] = code <= 10 ? (char) ('0' + code - 1) : (char) ('A' + code - 11);
+			bank /= KEY_RADIX;
+		}
+		chars[--start] = (char) ('A' + country % 26);
+		chars[--start] = (char) ('A' + country / 26);
+		return new String(chars, start, chars.length - start);
+	}
+
+	/**
+	 * @param bankKey
+	 *            a valid bank key
+	 *
+	 * @return the country part of the bank key, see {@link IbanRegistry#index(char, char)}
+	 */
+	static int countryIndex(final long bankKey) {
+		return (int) (bankKey >>> COUNTRY_SHIFT);
+	}
+
+	/**
+	 * Routes IBANs to their banks.
+	 *
+	 * @param ibans
+	 *            the IBANs, may contain whitespace and <code>null</code> elements
+	 *
+	 * @return the indexes of the IBANs, grouped per bank
+	 */
+	public static BankBuckets route(CharSequence[] ibans) {
+		final int parallelism = ForkJoinPool.getCommonPoolParallelism();
+		final int chunkCount = Math.max(1, Math.min(parallelism * 4, ibans.length / MIN_CHUNK_SIZE));
+		final int chunkSize = (ibans.length + chunkCount - 1) / chunkCount;
+		final long[] keys = new long[ibans.length];
+
+		// 1. compute and count bank keys per chunk
+		final List<Callable<LongIntMap>> counting = new ArrayList<>();
+		for (int c = 0; c < chunkCount; c++) {
+			final int from = c * chunkSize;
+			final int to = Math.min(ibans.length, from + chunkSize);
+			counting.add(() -> {
+				final LongIntMap counts = new LongIntMap(1024);
+				for (int i = from; i < to; i++) {
+					keys[i] = bankKey(ibans[i]);
+					counts.increment(keys[i]);
+				}
+				return counts;
+			});
+		}
+		final List<LongIntMap> chunkCounts = invokeAll(counting);
+
+		// 2. merge: sorted bucket keys, offsets of each chunk within each bucket
+		final LongIntMap all = new LongIntMap(1024);
+		for (LongIntMap counts : chunkCounts) {
+			for (long key : counts.keys()) {
+				all.increment(key);
+			}
+		}
+		final long[] bucketKeys = all.keys();
+		Arrays.sort(bucketKeys); // INVALID_KEY first, if present
+
+		final LongIntMap bucketIndexes = new LongIntMap(bucketKeys.length);
+		final int[] bucketStarts = new int[bucketKeys.length + 1];
+		final int[][] cursors = new int[chunkCount][bucketKeys.length];
+		int position = 0;
+		for (int b = 0; b < bucketKeys.length; b++) {
+			bucketIndexes.put(bucketKeys[b], b);
+			bucketStarts[b] = position;
+			for (int c = 0; c < chunkCount; c++) {
+				cursors[c][b] = position;
+				position += Math.max(0, chunkCounts.get(c).get(bucketKeys[b]));
+			}
+		}
+		bucketStarts[bucketKeys.length] = position;
+
+		// 3. scatter indexes
+		final int[] indexes = new int[ibans.length];
+		final List<Callable<Void>> scattering = new ArrayList<>();
+		for (int c = 0; c < chunkCount; c++) {
+			final int from = c * chunkSize;
+			final int to = Math.min(ibans.length, from + chunkSize);
+			final int[] cursor = cursors[c];
+			scattering.add(() -> {
+				for (int i = from; i < to; i++) {
+					indexes[cursor[bucketIndexes.get(keys[i])]++] = i;
+				}
+				return null;
+			});
+		}
+		invokeAll(scattering);
+
+		return new BankBuckets(bucketKeys, bucketStarts, indexes);
+	}
+
+	/**
+	 * @param ibans
+	 *            the IBANs, must not contain <code>null</code> elements
+	 *
+	 * @return the indexes of the IBANs, grouped per bank
+	 *
+	 * @see #route(CharSequence[])
+	 */
+	public static BankBuckets route(Iban[] ibans) {
+		final CharSequence[] strings = new CharSequence[ibans.length];
+		for (int i = 0; i < ibans.length; i++) {
+			strings[i] = ibans[i].toString();
+		}
+		return route(strings);
+	}
+
+	/**
+	 * @param ibans
+	 *            the IBANs, in encounter order
+	 *
+	 * @return the indexes of the IBANs in encounter order, grouped per bank
+	 *
+	 * @see #route(CharSequence[])
+	 */
+	public static BankBuckets route(Stream<? extends CharSequence> ibans) {
+		return route(ibans.toArray(CharSequence[]::new));
+	}
+
+	private static int code(final char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0' + 1;
+		} else if (c >= 'a' && c <= 'z') {
+			return c - 'a' + 11;
+		}
+		return c - 'A' + 11;
+	}
+
+	private static <T> List<T> invokeAll(final List<Callable<T>> tasks) {
+		final List<T> results = new ArrayList<>();
+		try {
+			for (Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while routing IBANs", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Routing IBANs failed", e.getCause());
+		}
+		return results;
+	}
+}
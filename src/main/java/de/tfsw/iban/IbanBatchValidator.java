@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.util.List;
+
+/**
+ * Validates many IBANs at once without throwing exceptions.
+ *
+ * <p>
+ * Validation is as strict as {@link Iban#Iban(String)}: whitespace is ignored, the BBAN must match the format
+ * published by the default {@link IbanRegistry} and the check digits must be correct. Structural checks are done per
+ * IBAN, while the MOD97-10 remainders of a whole block of IBANs are computed at once from a columnar digit buffer. On
+ * Java 21 and later, with <code>--add-modules jdk.incubator.vector</code>, this uses SIMD instructions; otherwise a
+ * scalar loop.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanBatchValidator {
+
+	/** Number of IBANs whose remainders are computed in one go. */
+	static final int BLOCK_SIZE = 1024;
+
+	private static final int MAX_IBAN_LENGTH = 34;
+
+	private IbanBatchValidator() {
+		// static helper
+	}
+
+	/**
+	 * @return <code>true</code> if MOD97-10 remainders are computed using SIMD instructions on this JVM
+	 */
+	public static boolean isVectorized() {
+		return Mod97Batch.isVectorized();
+	}
+
+	/**
+	 * Validates all supplied IBANs.
+	 *
+	 * @param ibans
+	 *            the IBANs, may contain whitespace and <code>null</code> elements
+	 * @param results
+	 *            receives the validation result of each IBAN at the same index
+	 *
+	 * @return the number of valid IBANs
+	 */
+	public static int validate(CharSequence[] ibans, boolean[] results) {
+		return validate(ibans, 0, ibans.length, results);
+	}
+
+	/**
+	 * Validates the IBANs with indexes <code>from</code> (inclusive) to <code>to</code> (exclusive).
+	 *
+	 * @param ibans
+	 *            the IBANs, may contain whitespace and <code>null</code> elements
+	 * @param from
+	 *            index of the first IBAN to validate
+	 * @param to
+	 *            index after the last IBAN to validate
+	 * @param results
+	 *            receives the validation result of each IBAN at the same index
+	 *
+	 * @return the number of valid IBANs
+	 */
+	public static int validate(CharSequence[] ibans, int from, int to, boolean[] results) {
+		final DigitColumns columns = new DigitColumns(Math.max(1, Math.min(BLOCK_SIZE, to - from)));
+		final char[] flat = new char[MAX_IBAN_LENGTH];
+
+		int valid = 0;
+		for (int blockStart = from; blockStart < to; blockStart += columns.capacity()) {
+			final int blockEnd = Math.min(to, blockStart + columns.capacity());
+			columns.clear();
+			for (int i = blockStart; i < blockEnd; i++) {
+				final int length = flatten(ibans[i], flat);
+				if (length > 0 && checkStructure(flat, length)) {
+					results[i] = columns.add(flat, 0, length);
+				} else {
+					results[i] = false;
+					columns.add(flat, 0, 0); // placeholder
+				}
+			}
+
+			final long[] remainders = columns.remainders();
+			for (int i = blockStart; i < blockEnd; i++) {
+				results[i] = results[i] && remainders[i - blockStart] == 1;
+				if (results[i]) {
+					valid++;
+				}
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * Validates all supplied IBANs.
+	 *
+	 * @param ibans
+	 *            the IBANs, may contain whitespace and <code>null</code> elements
+	 *
+	 * @return the validation result of each IBAN at the same index
+	 */
+	public static boolean[] validate(List<? extends CharSequence> ibans) {
+		final CharSequence[] array = ibans.toArray(new CharSequence[ibans.size()]);
+		final boolean[] results = new boolean[array.length];
+		validate(array, results);
+		return results;
+	}
+
+	/**
+	 * Copies the supplied IBAN without whitespace.
+	 *
+	 * @return the length of the IBAN, <code>-1</code> if it is <code>null</code> or too long
+	 */
+	static int flatten(final CharSequence iban, final char[] target) {
+		if (iban == null) {
+			return -1;
+		}
+		int length = 0;
+		for (int i = 0; i < iban.length(); i++) {
+			final char c = iban.charAt(i);
+			if (!IbanNormalizer.isWhitespace(c)) {
+				if (length == target.length) {
+					return -1;
+				}
+				target[length++] = c;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Checks everything but the check digits' value.
+	 */
+	static boolean checkStructure(final char[] iban, final int length) {
+		if (length < 5 || iban[2] < '0' || iban[2] > '9' || iban[3] < '0' || iban[3] > '9') {
+			return false;
+		}
+		final CountrySpec spec = IbanRegistry.getDefault().lookup(iban[0], iban[1]);
+		return spec != null && spec.getIbanLength() == length && spec.matchesBban(iban, 4);
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.io.IOException;
+
+/**
+ * Composes IBANs from separately stored BBAN segments, e.g. bank code, branch code and account number columns of a
+ * core banking system.
+ *
+ * <p>
+ * Every segment is validated on its own against the pattern of the country's current {@link IbanRegistry} format as
+ * soon as it is set. Segments that are shorter than required are left-padded with zeros, provided the country allows
+ * digits in the padded positions; numeric segments can also be set from a <code>long</code>. Once all segments are
+ * set, the check digits are calculated in a single pass over the BBAN.
+ * </p>
+ *
+ * <p>
+ * A builder is reusable: segments stay set until they are replaced or the country is changed, so a bulk export can
+ * set the bank identifier once and then just change the account number. The IBAN is composed in an internal buffer
+ * and can be {@link #writeTo(char[], int) copied} or {@link #appendTo(Appendable) appended} to a target without
+ * creating any objects.
+ * </p>
+ *
+ * <pre>
+ * final IbanBuilder builder = new IbanBuilder(CountryCode.DE).bankIdentifier(37040044L);
+ * for (Account account : accounts) {
+ * 	builder.accountNumber(account.getNumber()).appendTo(writer);
+ * }
+ * </pre>
+ *
+ * <p>
+ * Objects of this class are not thread-safe; use one builder per thread.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanBuilder {
+
+	private static final int MAX_IBAN_LENGTH = 34;
+
+	private static final int BBAN_OFFSET = 4;
+
+	private static final int PREFIX = 0;
+
+	private static final int BANK = 1;
+
+	private static final int BRANCH = 2;
+
+	private static final int ACCOUNT = 3;
+
+	private static final String[] SEGMENT_NAMES = { "BBAN prefix", "bank identifier", "branch identifier",
+			"account number" };
+
+	private final char[] chars = new char[MAX_IBAN_LENGTH];
+
+	private final int[] offsets = new int[4];
+
+	private final int[] lengths = new int[4];
+
+	private CountrySpec spec;
+
+	/** One bit per segment that still needs to be set. */
+	private int missing;
+
+	private boolean checkDigitsValid;
+
+	/**
+	 * Creates a new builder for IBANs of the supplied country.
+	 *
+	 * @param countryCode
+	 *            the country
+	 */
+	public IbanBuilder(CountryCode countryCode) {
+		super();
+		country(countryCode);
+	}
+
+	/**
+	 * Switches to another country, or to the current format of the same country. All segments are cleared.
+	 *
+	 * @param countryCode
+	 *            the country
+	 *
+	 * @return this builder
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the country code is <code>null</code>
+	 */
+	public IbanBuilder country(CountryCode countryCode) {
+		if (countryCode == null) {
+			throw new IllegalArgumentException("Country code must be a valid ISO 3361-1 two-letter ID");
+		}
+
+		this.spec = IbanRegistry.getDefault().lookup(countryCode);
+		offsets[PREFIX] = 0;
+		lengths[PREFIX] = spec.getBbanPrefixLength();
+		offsets[BANK] = spec.getBankIdentifierOffset();
+		lengths[BANK] = spec.getBankIdentifierLength();
+		offsets[BRANCH] = spec.getBranchIdentifierOffset();
+		lengths[BRANCH] = spec.getBranchIdentifierLength();
+		offsets[ACCOUNT] = spec.getAccountNumberOffset();
+		lengths[ACCOUNT] = spec.getAccountNumberLength();
+
+		this.missing = 0;
+		for (int segment = PREFIX; segment <= ACCOUNT; segment++) {
+			if (lengths[segment] > 0) {
+				missing |= 1 << segment;
+			}
+		}
+
+		final String name = countryCode.name();
+		chars[0] = name.charAt(0);
+		chars[1] = name.charAt(1);
+		this.checkDigitsValid = false;
+		return this;
+	}
+
+	/**
+	 * Sets the BBAN prefix.
+	 *
+	 * @param prefix
+	 *            the prefix, may be shorter than required if the country allows zero-padding
+	 *
+	 * @return this builder
+	 *
+	 * @throws BbanValidationException
+	 *             if the prefix does not match the country's format
+	 */
+	public IbanBuilder bbanPrefix(CharSequence prefix) {
+		return set(PREFIX, prefix);
+	}
+
+	/**
+	 * Sets the bank identifier.
+	 *
+	 * @param bankIdentifier
+	 *            the bank identifier, may be shorter than required if the country allows zero-padding
+	 *
+	 * @return this builder
+	 *
+	 * @throws BbanValidationException
+	 *             if the bank identifier does not match the country's format
+	 */
+	public IbanBuilder bankIdentifier(CharSequence bankIdentifier) {
+		return set(BANK, bankIdentifier);
+	}
+
+	/**
+	 * Sets a numeric bank identifier, left-padded with zeros.
+	 *
+	 * @param bankIdentifier
+	 *            the bank identifier
+	 *
+	 * @return this builder
+	 *
+	 * @throws BbanValidationException
+	 *             if the number is negative or too large, or the country's bank identifiers are not numeric
+	 */
+	public IbanBuilder bankIdentifier(long bankIdentifier) {
+		return set(BANK, bankIdentifier);
+	}
+
+	/**
+	 * Sets the branch identifier.
+	 *
+	 * @param branchIdentifier
+	 *            the branch identifier, may be shorter than required if the country allows zero-padding
+	 *
+	 * @return this builder
+	 *
+	 * @throws BbanValidationException
+	 *             if the branch identifier does not match the country's format
+	 */
+	public IbanBuilder branchIdentifier(CharSequence branchIdentifier) {
+		return set(BRANCH, branchIdentifier);
+	}
+
+	/**
+	 * Sets a numeric branch identifier, left-padded with zeros.
+	 *
+	 * @param branchIdentifier
+	 *            the branch identifier
+	 *
+	 * @return this builder
+	 *
+	 * @throws BbanValidationException
+	 *             if the number is negative or too large, or the country's branch identifiers are not numeric
+	 */
+	public IbanBuilder branchIdentifier(long branchIdentifier) {
+		return set(BRANCH, branchIdentifier);
+	}
+
+	/**
+	 * Sets the account number.
+	 *
+	 * @param accountNumber
+	 *            the account number, may be shorter than required if the country allows zero-padding
+	 *
+	 * @return this builder
+	 *
+	 * @throws BbanValidationException
+	 *             if the account number does not match the country's format
+	 */
+	public IbanBuilder accountNumber(CharSequence accountNumber) {
+		return set(ACCOUNT, accountNumber);
+	}
+
+	/**
+	 * Sets a numeric account number, left-padded with zeros.
+	 *
+	 * @param accountNumber
+	 *            the account number
+	 *
+	 * @return this builder
+	 *
+	 * @throws BbanValidationException
+	 *             if the number is negative or too large, or the country's account numbers are not numeric
+	 */
+	public IbanBuilder accountNumber(long accountNumber) {
+		return set(ACCOUNT, accountNumber);
+	}
+
+	/**
+	 *
+	 * @return the length of the IBAN
+	 */
+	public int getLength() {
+		return spec.getIbanLength();
+	}
+
+	/**
+	 * Copies the machine-readable IBAN into the supplied array.
+	 *
+	 * @param target
+	 *            the target array
+	 * @param offset
+	 *            index of the first character to write
+	 *
+	 * @return the number of characters written
+	 *
+	 * @throws IllegalStateException
+	 *             if a segment has not been set
+	 */
+	public int writeTo(char[] target, int offset) {
+		complete();
+		System.arraycopy(chars, 0, target, offset, spec.getIbanLength());
+		return spec.getIbanLength();
+	}
+
+	/**
+	 * Appends the machine-readable IBAN to the supplied target.
+	 *
+	 * @param target
+	 *            e.g. a {@link StringBuilder} or a {@link java.io.Writer}
+	 *
+	 * @throws IOException
+	 *             if the target throws it
+	 * @throws IllegalStateException
+	 *             if a segment has not been set
+	 */
+	public void appendTo(Appendable target) throws IOException {
+		complete();
+		for (int i = 0; i < spec.getIbanLength(); i++) {
+			target.append(chars[i]);
+		}
+	}
+
+	/**
+	 *
+	 * @return the machine-readable IBAN
+	 *
+	 * @throws IllegalStateException
+	 *             if a segment has not been set
+	 */
+	public String build() {
+		complete();
+		return new String(chars, 0, spec.getIbanLength());
+	}
+
+	/**
+	 *
+	 * @return the IBAN as an object
+	 *
+	 * @throws IllegalStateException
+	 *             if a segment has not been set
+	 * @throws UnknownCountryCodeException
+	 *             if the country is not supported by {@link Iban}
+	 */
+	public Iban toIban() {
+		return new Iban(build());
+	}
+
+	private IbanBuilder set(final int segment, final CharSequence value) {
+		if (value == null) {
+			throw new BbanValidationException("The " + SEGMENT_NAMES[segment] + " must not be null");
+		}
+
+		final int offset = offsets[segment];
+		final int length = lengths[segment];
+		final int padding = length - value.length();
+		if (padding < 0) {
+			throw invalid(segment, value);
+		}
+		for (int i = 0; i < length; i++) {
+			final char c = i < padding ? '0' : value.charAt(i - padding);
+			if (!spec.accepts(offset + i, c)) {
+				throw invalid(segment, value);
+			}
+		}
+
+		for (int i = 0; i < length; i++) {
+			chars[BBAN_OFFSET + offset + i] = i < padding ? '0' : value.charAt(i - padding);
+		}
+		return updated(segment);
+	}
+
+	private IbanBuilder set(final int segment, long value) {
+		final int offset = offsets[segment];
+		final int length = lengths[segment];
+		if (value < 0 || length == 0) {
+			throw invalid(segment, Long.toString(value));
+		}
+
+		final long original = value;
+		for (int i = length - 1; i >= 0; i--) {
+			if (!spec.accepts(offset + i, '0')) {
+				throw invalid(segment, Long.toString(original));
+			}
+			value /= 10;
+		}
+		if (value != 0) {
+			throw invalid(segment, Long.toString(original));
+		}
+
+		value = original;
+		for (int i = length - 1; i >= 0; i--) {
+			chars[BBAN_OFFSET + offset + i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return updated(segment);
+	}
+
+	private IbanBuilder updated(final int segment) {
+		missing &= ~(1 << segment);
+		checkDigitsValid = false;
+		return this;
+	}
+
+	private BbanValidationException invalid(final int segment, final CharSequence value) {
+		return new BbanValidationException(String.format("Invalid %s for country %s: [%s]", SEGMENT_NAMES[segment],
+				spec.getCountry(), value));
+	}
+
+	/**
+	 * Makes sure that all segments are set and the check digits are up to date.
+	 */
+	private void complete() {
+		if (missing != 0) {
+			throw new IllegalStateException("The " + SEGMENT_NAMES[Integer.numberOfTrailingZeros(missing)]
+					+ " has not been set");
+		}
+		if (!checkDigitsValid) {
+			final int checkDigits = Mod97.checkDigits(Mod97.update(0L, chars, BBAN_OFFSET, spec.getIbanLength()),
+					chars[0], chars[1]);
+			chars[2] = (char) ('0' + checkDigits / 10);
+			chars[3] = (char) ('0' + checkDigits % 10);
+			checkDigitsValid = true;
+		}
+	}
+}
@@ -0,0 +1,581 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Column-wise storage of many IBANs without one object per IBAN.
+ *
+ * <p>
+ * A column consists of four arrays: the characters of all IBANs back to back as ASCII bytes, without whitespace; the
+ * start offset of each IBAN in that array; the {@link CountryCode#ordinal() ordinal} of each IBAN's country, or
+ * {@link #NO_COUNTRY}; and the validation status of each IBAN. {@link #validate()} checks the whole column at once,
+ * computing MOD97-10 remainders block-wise like {@link IbanBatchValidator}, which uses SIMD instructions where
+ * available. Filtering produces selection vectors, i.e. arrays of row indexes, which can be fed into further filters
+ * or into {@link #countryHistogram(int[], int)}.
+ * </p>
+ *
+ * <p>
+ * Columns can be exported to and imported from a {@link ByteBuffer}, e.g. a memory-mapped file, in a simple binary
+ * format. The individual arrays are also available as read-only buffer views without copying.
+ * </p>
+ *
+ * <p>
+ * The characters of a column are held in a single array, so a column holds at most {@link #MAX_DATA_LENGTH}
+ * characters, i.e. about 97 million IBANs of 22 characters. Larger data sets have to be split into several columns.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe for writing, but may be read concurrently.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanColumn {
+
+	/** Status of IBANs that have not been validated yet. */
+	public static final byte STATUS_UNCHECKED = 0;
+
+	/** Status of valid IBANs. */
+	public static final byte STATUS_VALID = 1;
+
+	/** Status of invalid IBANs. */
+	public static final byte STATUS_INVALID = 2;
+
+	/** Matches any status in {@link #select(CountryCode, int, int[])}. */
+	public static final int ANY_STATUS = -1;
+
+	/** Country of IBANs that do not start with a {@link CountryCode}. */
+	public static final byte NO_COUNTRY = -1;
+
+	/** Maximum number of characters of all IBANs of a column, the largest array most JVMs can allocate. */
+	public static final int MAX_DATA_LENGTH = Integer.MAX_VALUE - 8;
+
+	/** Maximum number of IBANs of a column, limited by the array of offsets. */
+	private static final int MAX_SIZE = MAX_DATA_LENGTH - 1;
+
+	/** Characters reserved per expected IBAN, the length of a German IBAN. */
+	private static final int EXPECTED_IBAN_LENGTH = 22;
+
+	private static final int MAGIC = 0x49424E43; // "IBNC"
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_LENGTH = 16;
+
+	private static final int MAX_IBAN_LENGTH = 34;
+
+	private static final CountryCode[] COUNTRIES = CountryCode.values();
+
+	/** Country ordinals indexed by {@link IbanRegistry#index(char, char)}. */
+	private static final byte[] ORDINALS = new byte[26 * 26];
+
+	static {
+		Arrays.fill(ORDINALS, NO_COUNTRY);
+		for (CountryCode cc : COUNTRIES) {
+			ORDINALS[IbanRegistry.index(cc.name().charAt(0), cc.name().charAt(1))] = (byte) cc.ordinal();
+		}
+	}
+
+	private byte[] data;
+
+	private int dataLength;
+
+	private int[] offsets;
+
+	private byte[] countries;
+
+	private byte[] statuses;
+
+	private int size;
+
+	/**
+	 * Creates an empty column.
+	 *
+	 * @param expectedSize
+	 *            the expected number of IBANs, the column grows as needed
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the expected IBANs of 22 characters each would exceed {@link #MAX_DATA_LENGTH}
+	 */
+	public IbanColumn(int expectedSize) {
+		super();
+		final int capacity = Math.max(16, expectedSize);
+		final long dataCapacity = (long) capacity * EXPECTED_IBAN_LENGTH;
+		if (dataCapacity > MAX_DATA_LENGTH) {
+			throw new IllegalArgumentException(String.format(
+					"A column holds at most %d characters, too few for %d IBANs of %d characters", MAX_DATA_LENGTH,
+					expectedSize, EXPECTED_IBAN_LENGTH));
+		}
+		this.data = new byte[(int) dataCapacity];
+		this.offsets = new int[capacity + 1];
+		this.countries = new byte[capacity];
+		this.statuses = new byte[capacity];
+	}
+
+	private IbanColumn(final byte[] data, final int[] offsets, final byte[] countries, final byte[] statuses,
+			final int size) {
+		this.data = data;
+		this.dataLength = offsets[size];
+		this.offsets = offsets;
+		this.countries = countries;
+		this.statuses = statuses;
+		this.size = size;
+	}
+
+	/**
+	 *
+	 * @return the number of IBANs
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Appends an IBAN without whitespace. The IBAN is not validated.
+	 *
+	 * @param iban
+	 *            the IBAN, may contain whitespace
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the column is full, see {@link #MAX_DATA_LENGTH}
+	 */
+	public void append(CharSequence iban) {
+		ensureRowCapacity();
+		ensureDataCapacity(iban.length());
+		for (int i = 0; i < iban.length(); i++) {
+			final char c = iban.charAt(i);
+			if (!IbanNormalizer.isWhitespace(c)) {
+				data[dataLength++] = (byte) (c < 0x80 ? c : '?');
+			}
+		}
+		endRow();
+	}
+
+	/**
+	 * Appends all supplied IBANs.
+	 *
+	 * @param ibans
+	 *            the IBANs, may contain whitespace
+	 *
+	 * @see #append(CharSequence)
+	 */
+	public void appendAll(Iterable<? extends CharSequence> ibans) {
+		for (CharSequence iban : ibans) {
+			append(iban);
+		}
+	}
+
+	/**
+	 * Appends an IBAN from ASCII characters without whitespace. The IBAN is not validated.
+	 *
+	 * @param source
+	 *            ASCII characters containing the IBAN
+	 * @param offset
+	 *            index of the IBAN's first character
+	 * @param length
+	 *            number of characters, including whitespace
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the column is full, see {@link #MAX_DATA_LENGTH}
+	 */
+	public void append(byte[] source, int offset, int length) {
+		ensureRowCapacity();
+		ensureDataCapacity(length);
+		for (int i = offset; i < offset + length; i++) {
+			if (!IbanNormalizer.isWhitespace((char) (source[i] & 0xFF))) {
+				data[dataLength++] = source[i];
+			}
+		}
+		endRow();
+	}
+
+	/**
+	 * Appends one IBAN per line of ASCII text, e.g. a chunk of a file. Blank lines are skipped.
+	 *
+	 * @param source
+	 *            ASCII text, lines separated by <code>\n</code> or <code>\r\n</code>
+	 * @param offset
+	 *            index of the first character
+	 * @param length
+	 *            number of characters
+	 *
+	 * @return the number of IBANs appended
+	 */
+	public int appendLines(byte[] source, int offset, int length) {
+		final int before = size;
+		int lineStart = offset;
+		for (int i = offset; i <= offset + length; i++) {
+			if (i == offset + length || source[i] == '\n') {
+				if (!isBlank(source, lineStart, i)) {
+					append(source, lineStart, i - lineStart);
+				}
+				lineStart = i + 1;
+			}
+		}
+		return size - before;
+	}
+
+	/**
+	 * Validates all IBANs as strictly as {@link Iban#Iban(String)}: the country must be a {@link CountryCode}, the
+	 * BBAN must match the format published by the default {@link IbanRegistry} and the check digits must be correct.
+	 *
+	 * @return the number of valid IBANs
+	 */
+	public int validate() {
+		final DigitColumns columns = new DigitColumns(IbanBatchValidator.BLOCK_SIZE);
+		final char[] flat = new char[MAX_IBAN_LENGTH];
+
+		int valid = 0;
+		for (int blockStart = 0; blockStart < size; blockStart += columns.capacity()) {
+			final int blockEnd = Math.min(size, blockStart + columns.capacity());
+			columns.clear();
+			for (int i = blockStart; i < blockEnd; i++) {
+				final int length = offsets[i + 1] - offsets[i];
+				boolean candidate = countries[i] != NO_COUNTRY && length <= MAX_IBAN_LENGTH;
+				if (candidate) {
+					for (int n = 0; n < length; n++) {
+						flat[n] = (char) (data[offsets[i] + n] & 0xFF);
+					}
+					candidate = IbanBatchValidator.checkStructure(flat, length);
+				}
+				if (candidate) {
+					candidate = columns.add(flat, 0, length);
+				} else {
+					columns.add(flat, 0, 0); // placeholder
+				}
+				statuses[i] = candidate ? STATUS_VALID : STATUS_INVALID;
+			}
+
+			final long[] remainders = columns.remainders();
+			for (int i = blockStart; i < blockEnd; i++) {
+				if (statuses[i] == STATUS_VALID && remainders[i - blockStart] != 1) {
+					statuses[i] = STATUS_INVALID;
+				}
+				if (statuses[i] == STATUS_VALID) {
+					valid++;
+				}
+			}
+		}
+		return valid;
+	}
+
+	/**
+	 * Selects the rows matching a country and a status.
+	 *
+	 * @param country
+	 *            the country, <code>null</code> for any country
+	 * @param status
+	 *            one of the <code>STATUS_</code> constants or {@link #ANY_STATUS}
+	 * @param selection
+	 *            receives the matching row indexes in ascending order, must have room for {@link #size()} indexes
+	 *
+	 * @return the number of selected rows
+	 */
+	public int select(CountryCode country, int status, int[] selection) {
+		final int ordinal = country == null ? -2 : country.ordinal();
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			// branch-free append: the index is always written, but only counted if it matches
+			selection[count] = i;
+			count += matches(i, ordinal, status) ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * Narrows a previous selection down to the rows matching a country and a status. Input and output may be the same
+	 * array.
+	 *
+	 * @param country
+	 *            the country, <code>null</code> for any country
+	 * @param status
+	 *            one of the <code>STATUS_</code> constants or {@link #ANY_STATUS}
+	 * @param input
+	 *            row indexes to consider
+	 * @param inputCount
+	 *            number of row indexes in <code>input</code>
+	 * @param selection
+	 *            receives the matching row indexes, must have room for <code>inputCount</code> indexes
+	 *
+	 * @return the number of selected rows
+	 */
+	public int select(CountryCode country, int status, int[] input, int inputCount, int[] selection) {
+		final int ordinal = country == null ? -2 : country.ordinal();
+		int count = 0;
+		for (int n = 0; n < inputCount; n++) {
+			final int i = input[n];
+			selection[count] = i;
+			count += matches(i, ordinal, status) ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 *
+	 * @return the number of IBANs per country, indexed by {@link CountryCode#ordinal()}
+	 */
+	public int[] countryHistogram() {
+		final int[] histogram = new int[COUNTRIES.length];
+		for (int i = 0; i < size; i++) {
+			if (countries[i] != NO_COUNTRY) {
+				histogram[countries[i]]++;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * @param selection
+	 *            row indexes
+	 * @param count
+	 *            number of row indexes in <code>selection</code>
+	 *
+	 * @return the number of selected IBANs per country, indexed by {@link CountryCode#ordinal()}
+	 */
+	public int[] countryHistogram(int[] selection, int count) {
+		final int[] histogram = new int[COUNTRIES.length];
+		for (int n = 0; n < count; n++) {
+			final byte country = countries[selection[n]];
+			if (country != NO_COUNTRY) {
+				histogram[country]++;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 *
+	 * @param row
+	 *            the row index
+	 *
+	 * @return the country of the row, <code>null</code> if it does not start with a {@link CountryCode}
+	 */
+	public CountryCode getCountryCode(int row) {
+		checkRow(row);
+		return countries[row] == NO_COUNTRY ? null : COUNTRIES[countries[row]];
+	}
+
+	/**
+	 *
+	 * @param row
+	 *            the row index
+	 *
+	 * @return the status of the row, one of the <code>STATUS_</code> constants
+	 */
+	public byte getStatus(int row) {
+		checkRow(row);
+		return statuses[row];
+	}
+
+	/**
+	 * Points a cursor at an IBAN of this column without creating any objects.
+	 *
+	 * @param row
+	 *            the row index
+	 * @param cursor
+	 *            the cursor
+	 *
+	 * @return <code>true</code> if the IBAN is valid
+	 */
+	public boolean load(int row, IbanCursor cursor) {
+		checkRow(row);
+		return cursor.reset(data, offsets[row], offsets[row + 1] - offsets[row]);
+	}
+
+	/**
+	 *
+	 * @param row
+	 *            the row index
+	 *
+	 * @return the IBAN of the row without whitespace
+	 */
+	public String toString(int row) {
+		checkRow(row);
+		return new String(data, offsets[row], offsets[row + 1] - offsets[row], StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 *
+	 * @return read-only view of the characters of all IBANs, without copying
+	 */
+	public ByteBuffer getData() {
+		return ByteBuffer.wrap(data, 0, dataLength).asReadOnlyBuffer();
+	}
+
+	/**
+	 *
+	 * @return read-only view of the {@link #size()} + 1 start offsets, the last one being the length of
+	 *         {@link #getData()}, without copying
+	 */
+	public IntBuffer getOffsets() {
+		return IntBuffer.wrap(offsets, 0, size + 1).asReadOnlyBuffer();
+	}
+
+	/**
+	 *
+	 * @return read-only view of the country ordinals, without copying
+	 */
+	public ByteBuffer getCountries() {
+		return ByteBuffer.wrap(countries, 0, size).asReadOnlyBuffer();
+	}
+
+	/**
+	 *
+	 * @return read-only view of the statuses, without copying
+	 */
+	public ByteBuffer getStatuses() {
+		return ByteBuffer.wrap(statuses, 0, size).asReadOnlyBuffer();
+	}
+
+	/**
+	 *
+	 * @return the number of bytes written by {@link #writeTo(ByteBuffer)}
+	 */
+	public int getSerializedLength() {
+		return HEADER_LENGTH + (size + 1) * 4 + 2 * size + dataLength;
+	}
+
+	/**
+	 * Exports this column at the buffer's position, which is advanced accordingly. Each array is transferred with a
+	 * single bulk copy.
+	 *
+	 * @param buffer
+	 *            the target, must have {@link #getSerializedLength()} bytes remaining
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		final ByteBuffer out = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+		out.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(dataLength);
+		out.asIntBuffer().put(offsets, 0, size + 1);
+		out.position(out.position() + (size + 1) * 4);
+		out.put(countries, 0, size).put(statuses, 0, size).put(data, 0, dataLength);
+		buffer.position(buffer.position() + out.position());
+	}
+
+	/**
+	 * Imports a column written by {@link #writeTo(ByteBuffer)} from the buffer's position, which is advanced
+	 * accordingly.
+	 *
+	 * @param buffer
+	 *            the source
+	 *
+	 * @return the column
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the buffer does not contain an exported column, or the column is truncated or corrupt
+	 */
+	public static IbanColumn readFrom(ByteBuffer buffer) {
+		final ByteBuffer in = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+		if (in.remaining() < HEADER_LENGTH || in.getInt() != MAGIC || in.getInt() != VERSION) {
+			throw new IllegalArgumentException("Not an IBAN column");
+		}
+		final int size = in.getInt();
+		final int dataLength = in.getInt();
+		if (size < 0 || dataLength < 0) {
+			throw new IllegalArgumentException("Corrupt IBAN column: negative size");
+		} else if (in.remaining() < (size + 1L) * 4 + 2L * size + dataLength) {
+			throw new IllegalArgumentException("Truncated IBAN column");
+		}
+
+		final int[] offsets = new int[size + 1];
+		in.asIntBuffer().get(offsets);
+		in.position(in.position() + offsets.length * 4);
+		if (offsets[0] != 0 || offsets[size] != dataLength) {
+			throw new IllegalArgumentException("Corrupt IBAN column: offsets do not match data length");
+		}
+		for (int i = 0; i < size; i++) {
+			if (offsets[i + 1] < offsets[i]) {
+				throw new IllegalArgumentException("Corrupt IBAN column: offsets decrease at row " + i);
+			}
+		}
+
+		final byte[] countries = new byte[size];
+		final byte[] statuses = new byte[size];
+		final byte[] data = new byte[dataLength];
+		in.get(countries).get(statuses).get(data);
+		for (int i = 0; i < size; i++) {
+			if (countries[i] != NO_COUNTRY && (countries[i] < 0 || countries[i] >= COUNTRIES.length)) {
+				throw new IllegalArgumentException("Corrupt IBAN column: unknown country at row " + i);
+			} else if (statuses[i] != STATUS_UNCHECKED && statuses[i] != STATUS_VALID
+					&& statuses[i] != STATUS_INVALID) {
+				throw new IllegalArgumentException("Corrupt IBAN column: unknown status at row " + i);
+			}
+		}
+		buffer.position(buffer.position() + in.position());
+		return new IbanColumn(data, offsets, countries, statuses, size);
+	}
+
+	private boolean matches(final int row, final int ordinal, final int status) {
+		return (ordinal == -2 || countries[row] == ordinal) && (status == ANY_STATUS || statuses[row] == status);
+	}
+
+	/**
+	 * Completes the row whose characters have just been appended.
+	 */
+	private void endRow() {
+		final int start = offsets[size];
+		final int length = dataLength - start;
+		countries[size] = length < 2 ? NO_COUNTRY : countryOrdinal(data[start], data[start + 1]);
+		statuses[size] = STATUS_UNCHECKED;
+		offsets[++size] = dataLength;
+	}
+
+	private static byte countryOrdinal(final byte first, final byte second) {
+		final int index = IbanRegistry.index((char) (first & 0xFF), (char) (second & 0xFF));
+		return index < 0 ? NO_COUNTRY : ORDINALS[index];
+	}
+
+	private void ensureRowCapacity() {
+		if (size == countries.length) {
+			if (size == MAX_SIZE) {
+				throw new IllegalArgumentException("A column holds at most " + MAX_SIZE + " IBANs");
+			}
+			final int capacity = (int) Math.min(countries.length * 2L, MAX_SIZE);
+			offsets = Arrays.copyOf(offsets, capacity + 1);
+			countries = Arrays.copyOf(countries, capacity);
+			statuses = Arrays.copyOf(statuses, capacity);
+		}
+	}
+
+	private void ensureDataCapacity(final int additional) {
+		final long required = (long) dataLength + additional;
+		if (required > MAX_DATA_LENGTH) {
+			throw new IllegalArgumentException("A column holds at most " + MAX_DATA_LENGTH + " characters");
+		} else if (required > data.length) {
+			data = Arrays.copyOf(data, (int) Math.min(Math.max(data.length * 2L, required), MAX_DATA_LENGTH));
+		}
+	}
+
+	private void checkRow(final int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + ", size " + size);
+		}
+	}
+
+	private static boolean isBlank(final byte[] source, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			if (!IbanNormalizer.isWhitespace((char) (source[i] & 0xFF))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,772 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Converts files of domestic account records, e.g. from a legacy core banking system, to IBANs.
+ *
+ * <p>
+ * The input is a delimited text file with one record per line. Columns are mapped to the BBAN segments of
+ * {@link CountryCode}: bank identifier and account number, plus the BBAN prefix and branch identifier for countries
+ * that have them. The country is either fixed or taken from another column. Every record is composed through an
+ * {@link IbanBuilder}, so numeric segments are zero-padded and the check digits are calculated without
+ * {@link java.math.BigInteger}. Fields are trimmed; quoting is not supported. Blank lines are skipped.
+ * </p>
+ *
+ * <p>
+ * Every converted record is written to the output file as the original line followed by the delimiter and the
+ * machine-readable IBAN. Records that cannot be converted are written to the reject file, followed by the delimiter
+ * and the reason. Both files keep the order of the input.
+ * </p>
+ *
+ * <p>
+ * Chunks of lines are converted in parallel by a pool of worker threads and written in order by the calling thread.
+ * At most <code>threads + 1</code> chunks are in memory at any time. After every chunk, the output and reject files
+ * are forced to disk and a checkpoint is saved. If a conversion fails or the process dies, calling
+ * {@link #convert(File, File, File, File)} again with the same files resumes after the last checkpoint: the output
+ * files are truncated to their checkpointed lengths and reading continues at the checkpointed input position. The
+ * checkpoint is deleted once the conversion has completed. A running conversion can be stopped by interrupting the
+ * calling thread.
+ * </p>
+ *
+ * <p>
+ * Objects of this class are immutable and thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanConverter {
+
+	/** Checkpoint file magic: "IBNC". */
+	private static final int MAGIC = 0x49424E43;
+
+	private static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int NO_COLUMN = -1;
+
+	private final char delimiter;
+
+	private final CountryCode country;
+
+	private final int countryColumn;
+
+	private final int prefixColumn;
+
+	private final int bankColumn;
+
+	private final int branchColumn;
+
+	private final int accountColumn;
+
+	private final int headerLines;
+
+	private final int chunkSize;
+
+	private final int threads;
+
+	private final Charset charset;
+
+	private IbanConverter(Builder builder) {
+		super();
+		this.delimiter = builder.delimiter;
+		this.country = builder.country;
+		this.countryColumn = builder.countryColumn;
+		this.prefixColumn = builder.prefixColumn;
+		this.bankColumn = builder.bankColumn;
+		this.branchColumn = builder.branchColumn;
+		this.accountColumn = builder.accountColumn;
+		this.headerLines = builder.headerLines;
+		this.chunkSize = builder.chunkSize;
+		this.threads = builder.threads;
+		this.charset = builder.charset;
+	}
+
+	/**
+	 * Creates a new builder.
+	 *
+	 * @param bankColumn
+	 *            zero-based index of the bank identifier column
+	 * @param accountColumn
+	 *            zero-based index of the account number column
+	 *
+	 * @return a new builder
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a column index is negative
+	 */
+	public static Builder builder(int bankColumn, int accountColumn) {
+		return new Builder(bankColumn, accountColumn);
+	}
+
+	/**
+	 * Converts a file, or resumes an earlier conversion of the same file.
+	 *
+	 * @param input
+	 *            the domestic account records
+	 * @param output
+	 *            receives the converted records, overwritten unless resuming
+	 * @param rejects
+	 *            receives the records that could not be converted, overwritten unless resuming
+	 * @param checkpoint
+	 *            the checkpoint file, resumed from if it exists; <code>null</code> to convert without checkpoints
+	 *
+	 * @return statistics of the complete conversion, including the part done before resuming
+	 *
+	 * @throws IOException
+	 *             if reading or writing fails, or the checkpoint does not match the files
+	 */
+	public Result convert(File input, File output, File rejects, File checkpoint) throws IOException {
+		final Progress progress = checkpoint != null && checkpoint.exists() ? readCheckpoint(checkpoint, input)
+				: new Progress();
+		final boolean resumed = progress.lines > 0;
+
+		final RandomAccessFile out = open(output, progress.outputLength);
+		try {
+			final RandomAccessFile rej = open(rejects, progress.rejectLength);
+			try {
+				final LineReader lines = new LineReader(input, progress.inputOffset, progress.lines, charset);
+				try {
+					convert(lines, out, rej, progress, checkpoint);
+				} finally {
+					lines.close();
+				}
+			} finally {
+				rej.close();
+			}
+		} finally {
+			out.close();
+		}
+
+		if (checkpoint != null) {
+			Files.deleteIfExists(checkpoint.toPath());
+		}
+		return new Result(progress.lines, progress.converted, progress.rejected, resumed);
+	}
+
+	/**
+	 * Converts the remaining lines in chunks and appends them to the output files in order.
+	 */
+	private void convert(final LineReader lines, final RandomAccessFile out, final RandomAccessFile rej,
+			final Progress progress, final File checkpoint) throws IOException {
+		final ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "iban-converter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+			while (lines.getLineNumber() < headerLines && lines.next() != null) {
+				// skip header lines, unless done before the checkpoint
+			}
+
+			boolean more = true;
+			while (more) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new InterruptedIOException("IBAN conversion interrupted");
+				}
+				final List<String> chunk = new ArrayList<String>(chunkSize);
+				String line;
+				while (chunk.size() < chunkSize && (line = lines.next()) != null) {
+					if (line.trim().length() > 0) {
+						chunk.add(line);
+					}
+				}
+				more = chunk.size() == chunkSize;
+
+				if (!chunk.isEmpty()) {
+					pending.add(pool.submit(new ChunkTask(chunk, lines.getOffset(), lines.getLineNumber())));
+				}
+				while (!pending.isEmpty() && (pending.size() > threads || !more)) {
+					write(get(pending.poll()), out, rej, progress, checkpoint);
+				}
+			}
+			progress.lines = lines.getLineNumber(); // including trailing header or blank lines
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Appends a converted chunk to the output files and saves a checkpoint.
+	 */
+	private void write(final Chunk chunk, final RandomAccessFile out, final RandomAccessFile rej,
+			final Progress progress, final File checkpoint) throws IOException {
+		out.write(chunk.output.toByteArray());
+		rej.write(chunk.rejects.toByteArray());
+		progress.inputOffset = chunk.inputOffset;
+		progress.lines = chunk.lineNumber;
+		progress.converted += chunk.converted;
+		progress.rejected += chunk.rejected;
+		progress.outputLength = out.getFilePointer();
+		progress.rejectLength = rej.getFilePointer();
+
+		if (checkpoint != null) {
+			out.getChannel().force(false);
+			rej.getChannel().force(false);
+			writeCheckpoint(checkpoint, progress);
+		}
+	}
+
+	private static RandomAccessFile open(final File file, final long length) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() < length) {
+				throw new IOException("File is shorter than recorded in the checkpoint: " + file);
+			}
+			raf.setLength(length);
+			raf.seek(length);
+			return raf;
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	private static Chunk get(final Future<Chunk> chunk) throws IOException {
+		try {
+			return chunk.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a chunk");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Converting a chunk failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Writes the checkpoint to a temporary file first, then replaces the previous one, so that a crash leaves either
+	 * the old or the new checkpoint behind.
+	 */
+	private static void writeCheckpoint(final File checkpoint, final Progress progress) throws IOException {
+		final File temp = new File(checkpoint.getPath() + ".tmp");
+		final FileOutputStream fos = new FileOutputStream(temp);
+		try {
+			final DataOutputStream data = new DataOutputStream(fos);
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeLong(progress.inputOffset);
+			data.writeLong(progress.lines);
+			data.writeLong(progress.converted);
+			data.writeLong(progress.rejected);
+			data.writeLong(progress.outputLength);
+			data.writeLong(progress.rejectLength);
+			data.flush();
+			fos.getChannel().force(false);
+		} finally {
+			fos.close();
+		}
+
+		try {
+			Files.move(temp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static Progress readCheckpoint(final File checkpoint, final File input) throws IOException {
+		final DataInputStream data = new DataInputStream(new FileInputStream(checkpoint));
+		try {
+			if (data.readInt() != MAGIC) {
+				throw new IOException("Not an IBAN conversion checkpoint: " + checkpoint);
+			}
+			final int version = data.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported IBAN conversion checkpoint version " + version + ": " + checkpoint);
+			}
+
+			final Progress progress = new Progress();
+			progress.inputOffset = data.readLong();
+			progress.lines = data.readLong();
+			progress.converted = data.readLong();
+			progress.rejected = data.readLong();
+			progress.outputLength = data.readLong();
+			progress.rejectLength = data.readLong();
+			if (progress.inputOffset > input.length()) {
+				throw new IOException("Checkpoint " + checkpoint + " does not belong to input file " + input);
+			}
+			return progress;
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * Converts a single record.
+	 *
+	 * @param builders
+	 *            the builders used by the calling task so far
+	 * @param fields
+	 *            receives the record's fields
+	 *
+	 * @return the IBAN
+	 *
+	 * @throws RuntimeException
+	 *             with a message that describes why the record cannot be converted
+	 */
+	private String convert(final String line, final Map<CountryCode, IbanBuilder> builders, final List<String> fields) {
+		fields.clear();
+		int start = 0;
+		for (int i = 0; i <= line.length(); i++) {
+			if (i == line.length() || line.charAt(i) == delimiter) {
+				fields.add(line.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+
+		final CountryCode cc = country != null ? country : CountryCode.fromString(field(fields, countryColumn));
+		IbanBuilder builder = builders.get(cc);
+		if (builder == null) {
+			builder = new IbanBuilder(cc);
+			builders.put(cc, builder);
+		} else {
+			builder.country(cc);
+		}
+
+		if (prefixColumn != NO_COLUMN && lengthOf(cc, 0) > 0) {
+			builder.bbanPrefix(field(fields, prefixColumn));
+		}
+		builder.bankIdentifier(field(fields, bankColumn));
+		if (branchColumn != NO_COLUMN && lengthOf(cc, 1) > 0) {
+			builder.branchIdentifier(field(fields, branchColumn));
+		}
+		builder.accountNumber(field(fields, accountColumn));
+		return builder.build();
+	}
+
+	/**
+	 * @return the length of the BBAN prefix (<code>0</code>) or branch identifier (<code>1</code>) of a country
+	 */
+	private static int lengthOf(final CountryCode cc, final int segment) {
+		final CountrySpec spec = IbanRegistry.getDefault().lookup(cc);
+		return segment == 0 ? spec.getBbanPrefixLength() : spec.getBranchIdentifierLength();
+	}
+
+	private static String field(final List<String> fields, final int column) {
+		if (column >= fields.size()) {
+			throw new IllegalArgumentException("Missing column " + (column + 1));
+		} else if (fields.get(column).length() == 0) {
+			throw new IllegalArgumentException("Empty column " + (column + 1));
+		}
+		return fields.get(column);
+	}
+
+	/**
+	 * Converts one chunk of lines on a worker thread.
+	 */
+	private final class ChunkTask implements Callable<Chunk> {
+
+		private final List<String> lines;
+
+		private final long inputOffset;
+
+		private final long lineNumber;
+
+		ChunkTask(final List<String> lines, final long inputOffset, final long lineNumber) {
+			this.lines = lines;
+			this.inputOffset = inputOffset;
+			this.lineNumber = lineNumber;
+		}
+
+		public Chunk call() throws IOException {
+			final Chunk chunk = new Chunk(inputOffset, lineNumber);
+			final Map<CountryCode, IbanBuilder> builders = new EnumMap<CountryCode, IbanBuilder>(CountryCode.class);
+			final List<String> fields = new ArrayList<String>();
+			final StringBuilder converted = new StringBuilder();
+			final StringBuilder rejected = new StringBuilder();
+			for (String line : lines) {
+				try {
+					final String iban = convert(line, builders, fields);
+					converted.append(line).append(delimiter).append(iban).append('\n');
+					chunk.converted++;
+				} catch (RuntimeException e) {
+					rejected.append(line).append(delimiter).append(e.getMessage()).append('\n');
+					chunk.rejected++;
+				}
+			}
+			chunk.output.write(converted.toString().getBytes(charset));
+			chunk.rejects.write(rejected.toString().getBytes(charset));
+			return chunk;
+		}
+	}
+
+	/**
+	 * The encoded output of a converted chunk.
+	 */
+	private static final class Chunk {
+
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		private final ByteArrayOutputStream rejects = new ByteArrayOutputStream();
+
+		private final long inputOffset;
+
+		private final long lineNumber;
+
+		private long converted;
+
+		private long rejected;
+
+		Chunk(final long inputOffset, final long lineNumber) {
+			this.inputOffset = inputOffset;
+			this.lineNumber = lineNumber;
+		}
+	}
+
+	/**
+	 * What has been written so far, as saved in a checkpoint.
+	 */
+	private static final class Progress {
+
+		private long inputOffset;
+
+		private long lines;
+
+		private long converted;
+
+		private long rejected;
+
+		private long outputLength;
+
+		private long rejectLength;
+
+		Progress() {
+			super();
+		}
+	}
+
+	/**
+	 * Reads lines while keeping track of their byte offsets, which a {@link java.io.BufferedReader} does not.
+	 * Lines end with <code>\n</code>, an optional preceding <code>\r</code> is dropped.
+	 */
+	private static final class LineReader {
+
+		private final InputStream in;
+
+		private final Charset charset;
+
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		private long offset;
+
+		private long lineNumber;
+
+		LineReader(final File file, final long offset, final long lineNumber, final Charset charset)
+				throws IOException {
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				raf.seek(offset);
+			} catch (IOException e) {
+				raf.close();
+				throw e;
+			}
+			this.in = new BufferedInputStream(Channels.newInputStream(raf.getChannel()), BUFFER_SIZE);
+			this.offset = offset;
+			this.lineNumber = lineNumber;
+			this.charset = charset;
+		}
+
+		/**
+		 * @return the next line or <code>null</code> at the end of the file
+		 */
+		String next() throws IOException {
+			line.reset();
+			int b;
+			while ((b = in.read()) >= 0) {
+				offset++;
+				if (b == '\n') {
+					break;
+				}
+				line.write(b);
+			}
+			if (b < 0 && line.size() == 0) {
+				return null;
+			}
+
+			lineNumber++;
+			final String decoded = new String(line.toByteArray(), charset);
+			return decoded.endsWith("\r") ? decoded.substring(0, decoded.length() - 1) : decoded;
+		}
+
+		/**
+		 * @return the byte offset after the last line read
+		 */
+		long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return the number of lines read, including those before the offset the reader has been created at
+		 */
+		long getLineNumber() {
+			return lineNumber;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Configures an {@link IbanConverter}.
+	 */
+	public static final class Builder {
+
+		private final int bankColumn;
+
+		private final int accountColumn;
+
+		private char delimiter = ';';
+
+		private CountryCode country;
+
+		private int countryColumn = NO_COLUMN;
+
+		private int prefixColumn = NO_COLUMN;
+
+		private int branchColumn = NO_COLUMN;
+
+		private int headerLines;
+
+		private int chunkSize = 10000;
+
+		private int threads = Runtime.getRuntime().availableProcessors();
+
+		private Charset charset = Charset.forName("UTF-8");
+
+		private Builder(final int bankColumn, final int accountColumn) {
+			this.bankColumn = column(bankColumn);
+			this.accountColumn = column(accountColumn);
+		}
+
+		/**
+		 * @param delimiter
+		 *            the column delimiter, <code>;</code> by default
+		 *
+		 * @return this builder
+		 */
+		public Builder delimiter(char delimiter) {
+			this.delimiter = delimiter;
+			return this;
+		}
+
+		/**
+		 * @param country
+		 *            the country of all records
+		 *
+		 * @return this builder
+		 */
+		public Builder country(CountryCode country) {
+			this.country = country;
+			this.countryColumn = NO_COLUMN;
+			return this;
+		}
+
+		/**
+		 * @param countryColumn
+		 *            zero-based index of the column containing each record's ISO 3166-1 alpha-2 country code
+		 *
+		 * @return this builder
+		 */
+		public Builder countryColumn(int countryColumn) {
+			this.countryColumn = column(countryColumn);
+			this.country = null;
+			return this;
+		}
+
+		/**
+		 * @param prefixColumn
+		 *            zero-based index of the BBAN prefix column, used for countries whose BBANs have a prefix
+		 *
+		 * @return this builder
+		 */
+		public Builder prefixColumn(int prefixColumn) {
+			this.prefixColumn = column(prefixColumn);
+			return this;
+		}
+
+		/**
+		 * @param branchColumn
+		 *            zero-based index of the branch identifier column, used for countries whose BBANs have a branch
+		 *            identifier
+		 *
+		 * @return this builder
+		 */
+		public Builder branchColumn(int branchColumn) {
+			this.branchColumn = column(branchColumn);
+			return this;
+		}
+
+		/**
+		 * @param headerLines
+		 *            number of lines to skip at the start of the input
+		 *
+		 * @return this builder
+		 */
+		public Builder headerLines(int headerLines) {
+			if (headerLines < 0) {
+				throw new IllegalArgumentException("Number of header lines must not be negative: " + headerLines);
+			}
+			this.headerLines = headerLines;
+			return this;
+		}
+
+		/**
+		 * @param chunkSize
+		 *            number of lines converted by a worker at once and written between two checkpoints, 10,000 by
+		 *            default
+		 *
+		 * @return this builder
+		 */
+		public Builder chunkSize(int chunkSize) {
+			if (chunkSize < 1) {
+				throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+			}
+			this.chunkSize = chunkSize;
+			return this;
+		}
+
+		/**
+		 * @param threads
+		 *            number of worker threads, one per processor by default
+		 *
+		 * @return this builder
+		 */
+		public Builder threads(int threads) {
+			if (threads < 1) {
+				throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+			}
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 * @param charset
+		 *            encoding of input and output files, UTF-8 by default
+		 *
+		 * @return this builder
+		 */
+		public Builder charset(Charset charset) {
+			this.charset = charset;
+			return this;
+		}
+
+		/**
+		 * @return the converter
+		 *
+		 * @throws IllegalStateException
+		 *             if neither a country nor a country column has been configured
+		 */
+		public IbanConverter build() {
+			if (country == null && countryColumn == NO_COLUMN) {
+				throw new IllegalStateException("Either a country or a country column is required");
+			}
+			return new IbanConverter(this);
+		}
+
+		private static int column(final int column) {
+			if (column < 0) {
+				throw new IllegalArgumentException("Column index must not be negative: " + column);
+			}
+			return column;
+		}
+	}
+
+	/**
+	 * Outcome of {@link IbanConverter#convert(File, File, File, File)}.
+	 */
+	public static final class Result {
+
+		private final long lines;
+
+		private final long converted;
+
+		private final long rejected;
+
+		private final boolean resumed;
+
+		private Result(final long lines, final long converted, final long rejected, final boolean resumed) {
+			this.lines = lines;
+			this.converted = converted;
+			this.rejected = rejected;
+			this.resumed = resumed;
+		}
+
+		/**
+		 *
+		 * @return the number of input lines read, including header and blank lines
+		 */
+		public long getLines() {
+			return lines;
+		}
+
+		/**
+		 *
+		 * @return the number of records converted to IBANs
+		 */
+		public long getConverted() {
+			return converted;
+		}
+
+		/**
+		 *
+		 * @return the number of records written to the reject file
+		 */
+		public long getRejected() {
+			return rejected;
+		}
+
+		/**
+		 *
+		 * @return <code>true</code> if the conversion has been resumed from a checkpoint
+		 */
+		public boolean isResumed() {
+			return resumed;
+		}
+	}
+}
@@ -0,0 +1,422 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * A reusable, mutable view of a single IBAN for loops over large numbers of records.
+ *
+ * <p>
+ * A cursor is {@link #reset(CharSequence) reset} to the next IBAN instead of creating a new {@link Iban} for every
+ * record. It copies the IBAN's characters without whitespace into an internal buffer and validates them in place, as
+ * strictly as {@link Iban#Iban(String)} but without throwing exceptions. Country code, check digits and BBAN segments
+ * are then available as offsets into the cursor, which is itself a {@link CharSequence} of the machine-readable IBAN,
+ * or as {@link CharSequence} views. Views are owned by the cursor and change with every reset; neither resetting nor
+ * accessing segments creates any objects.
+ * </p>
+ *
+ * <pre>
+ * final IbanCursor cursor = new IbanCursor();
+ * for (String line : lines) {
+ * 	if (cursor.reset(line) &amp;&amp; "DE".contentEquals(cursor.country())) {
+ * 		count(cursor.bankIdentifier());
+ * 	}
+ * }
+ * </pre>
+ *
+ * <p>
+ * Objects of this class are not thread-safe; use one cursor per thread.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanCursor implements CharSequence {
+
+	private static final int MAX_IBAN_LENGTH = 34;
+
+	private static final int CHECK_DIGITS_OFFSET = 2;
+
+	private static final int BBAN_OFFSET = 4;
+
+	private final char[] chars = new char[MAX_IBAN_LENGTH];
+
+	private final Segment country = new Segment();
+
+	private final Segment checkDigits = new Segment();
+
+	private final Segment bban = new Segment();
+
+	private final Segment bankIdentifier = new Segment();
+
+	private final Segment branchIdentifier = new Segment();
+
+	private final Segment accountNumber = new Segment();
+
+	private int length;
+
+	private CountrySpec spec;
+
+	private boolean valid;
+
+	/**
+	 * Creates a new cursor which does not point at an IBAN yet.
+	 */
+	public IbanCursor() {
+		super();
+	}
+
+	/**
+	 * Points this cursor at a new IBAN.
+	 *
+	 * @param iban
+	 *            the IBAN, may contain whitespace or be <code>null</code>
+	 *
+	 * @return <code>true</code> if the IBAN is valid
+	 */
+	public boolean reset(CharSequence iban) {
+		length = 0;
+		if (iban == null) {
+			return invalid();
+		}
+		for (int i = 0; i < iban.length(); i++) {
+			if (!append(iban.charAt(i))) {
+				return invalid();
+			}
+		}
+		return validate();
+	}
+
+	/**
+	 * Points this cursor at a new IBAN.
+	 *
+	 * @param source
+	 *            characters containing the IBAN
+	 * @param offset
+	 *            index of the IBAN's first character
+	 * @param count
+	 *            number of characters of the IBAN, including whitespace
+	 *
+	 * @return <code>true</code> if the IBAN is valid
+	 */
+	public boolean reset(char[] source, int offset, int count) {
+		length = 0;
+		for (int i = offset; i < offset + count; i++) {
+			if (!append(source[i])) {
+				return invalid();
+			}
+		}
+		return validate();
+	}
+
+	/**
+	 * Points this cursor at a new IBAN.
+	 *
+	 * @param source
+	 *            ASCII characters containing the IBAN
+	 * @param offset
+	 *            index of the IBAN's first character
+	 * @param count
+	 *            number of characters of the IBAN, including whitespace
+	 *
+	 * @return <code>true</code> if the IBAN is valid
+	 */
+	public boolean reset(byte[] source, int offset, int count) {
+		length = 0;
+		for (int i = offset; i < offset + count; i++) {
+			if (!append((char) (source[i] & 0xFF))) {
+				return invalid();
+			}
+		}
+		return validate();
+	}
+
+	/**
+	 *
+	 * @return <code>true</code> if this cursor points at a valid IBAN
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 *
+	 * @return the format of the current IBAN's country
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public CountrySpec getCountrySpec() {
+		checkValid();
+		return spec;
+	}
+
+	/**
+	 *
+	 * @return the country of the current IBAN, <code>null</code> if the country is only known to the registry
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public CountryCode getCountryCode() {
+		checkValid();
+		return spec.getCountryCode();
+	}
+
+	/**
+	 *
+	 * @return the country code of the current IBAN, a view valid until the next reset
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public CharSequence country() {
+		checkValid();
+		return country;
+	}
+
+	/**
+	 *
+	 * @return the check digits of the current IBAN, a view valid until the next reset
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public CharSequence checkDigits() {
+		checkValid();
+		return checkDigits;
+	}
+
+	/**
+	 *
+	 * @return the BBAN of the current IBAN, a view valid until the next reset
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public CharSequence bban() {
+		checkValid();
+		return bban;
+	}
+
+	/**
+	 *
+	 * @return the bank identifier of the current IBAN, a view valid until the next reset
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public CharSequence bankIdentifier() {
+		checkValid();
+		return bankIdentifier;
+	}
+
+	/**
+	 *
+	 * @return the branch identifier of the current IBAN, empty if the country has none; a view valid until the next
+	 *         reset
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public CharSequence branchIdentifier() {
+		checkValid();
+		return branchIdentifier;
+	}
+
+	/**
+	 *
+	 * @return the account number of the current IBAN, a view valid until the next reset
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public CharSequence accountNumber() {
+		checkValid();
+		return accountNumber;
+	}
+
+	/**
+	 *
+	 * @return the numeric value of the current IBAN's check digits
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public int getCheckDigits() {
+		checkValid();
+		return (chars[CHECK_DIGITS_OFFSET] - '0') * 10 + chars[CHECK_DIGITS_OFFSET + 1] - '0';
+	}
+
+	/**
+	 *
+	 * @return the index of the bank identifier inside this cursor
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public int getBankIdentifierOffset() {
+		checkValid();
+		return bankIdentifier.offset;
+	}
+
+	/**
+	 *
+	 * @return the index of the branch identifier inside this cursor, equal to the account number offset if there is
+	 *         none
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public int getBranchIdentifierOffset() {
+		checkValid();
+		return branchIdentifier.offset;
+	}
+
+	/**
+	 *
+	 * @return the index of the account number inside this cursor
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 */
+	public int getAccountNumberOffset() {
+		checkValid();
+		return accountNumber.offset;
+	}
+
+	/**
+	 * Creates an immutable {@link Iban} of the current IBAN. This is the only method of this class that creates an
+	 * {@link Iban}; apart from it, only {@link #toString()} and {@link #subSequence(int, int)} create objects.
+	 *
+	 * @return the IBAN
+	 *
+	 * @throws IllegalStateException
+	 *             if the current IBAN is not valid
+	 * @throws UnknownCountryCodeException
+	 *             if the country is only known to the registry, but not to {@link CountryCode}
+	 */
+	public Iban toIban() {
+		checkValid();
+		return new Iban(toString());
+	}
+
+	/**
+	 * @return the length of the current IBAN without whitespace, even if it is invalid
+	 */
+	@Override
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @return a character of the current IBAN without whitespace, even if it is invalid
+	 */
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+		}
+		return chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().substring(start, end);
+	}
+
+	/**
+	 * @return the current IBAN without whitespace, even if it is invalid
+	 */
+	@Override
+	public String toString() {
+		return new String(chars, 0, length);
+	}
+
+	private boolean append(final char c) {
+		if (IbanNormalizer.isWhitespace(c)) {
+			return true;
+		} else if (length == MAX_IBAN_LENGTH) {
+			return false;
+		}
+		chars[length++] = c;
+		return true;
+	}
+
+	private boolean validate() {
+		if (!IbanBatchValidator.checkStructure(chars, length) || Mod97.ibanRemainder(chars, 0, length) != 1) {
+			return invalid();
+		}
+
+		spec = IbanRegistry.getDefault().lookup(chars[0], chars[1]);
+		country.set(0, CHECK_DIGITS_OFFSET);
+		checkDigits.set(CHECK_DIGITS_OFFSET, BBAN_OFFSET - CHECK_DIGITS_OFFSET);
+		bban.set(BBAN_OFFSET, spec.getBbanLength());
+		bankIdentifier.set(BBAN_OFFSET + spec.getBankIdentifierOffset(), spec.getBankIdentifierLength());
+		branchIdentifier.set(BBAN_OFFSET + spec.getBranchIdentifierOffset(), spec.getBranchIdentifierLength());
+		accountNumber.set(BBAN_OFFSET + spec.getAccountNumberOffset(), spec.getAccountNumberLength());
+		valid = true;
+		return true;
+	}
+
+	private boolean invalid() {
+		spec = null;
+		valid = false;
+		return false;
+	}
+
+	private void checkValid() {
+		if (!valid) {
+			throw new IllegalStateException("Cursor does not point at a valid IBAN: " + toString());
+		}
+	}
+
+	/**
+	 * A range of the cursor's characters.
+	 */
+	private final class Segment implements CharSequence {
+
+		private int offset;
+
+		private int length;
+
+		void set(final int offset, final int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+			}
+			return chars[offset + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return new String(chars, offset, length);
+		}
+	}
+}
@@ -0,0 +1,416 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts and deduplicates IBAN files that do not fit into memory.
+ *
+ * <p>
+ * The input is read line by line, every line is validated and {@link PackedIban packed} into a run buffer. Full run
+ * buffers are radix-sorted, deduplicated and spilled to a temporary file by a pool of worker threads while reading
+ * continues. Finally, the runs are merged into a single sorted file of distinct packed IBANs, which can then be
+ * compared to other such files using {@link SortedIbanFiles}. At most {@value #MAX_FAN_IN} runs are merged at once;
+ * more runs are first merged in groups into intermediate runs. Temporary files are deleted even if sorting fails.
+ * </p>
+ *
+ * <p>
+ * Memory use is bounded by <code>(threads + 1) * recordsPerRun * </code>{@value PackedIban#RECORD_LENGTH} bytes for
+ * the run buffers, plus a 64 KB read buffer per merged run during the merge.
+ * </p>
+ *
+ * <p>
+ * Objects of this class are immutable and thread-safe, {@link #sort(Reader, Writer)} may be called concurrently.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanExternalSorter {
+
+	private static final int RECORD_LENGTH = PackedIban.RECORD_LENGTH;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Maximum number of runs merged at once, bounding open files and read buffers. */
+	static final int MAX_FAN_IN = 128;
+
+	private final File tempDirectory;
+
+	private final int recordsPerRun;
+
+	private final int threads;
+
+	/**
+	 * Creates a new sorter.
+	 *
+	 * @param tempDirectory
+	 *            directory for runs and results, <code>null</code> for the system's default temporary directory
+	 * @param recordsPerRun
+	 *            number of IBANs sorted in memory at once
+	 * @param threads
+	 *            number of threads sorting runs
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the number of threads or records is not positive or a run buffer would exceed 2 GB
+	 */
+	public IbanExternalSorter(File tempDirectory, int recordsPerRun, int threads) {
+		super();
+		if (recordsPerRun < 1 || recordsPerRun > Integer.MAX_VALUE / RECORD_LENGTH) {
+			throw new IllegalArgumentException("Invalid number of records per run: " + recordsPerRun);
+		} else if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+		}
+		this.tempDirectory = tempDirectory;
+		this.recordsPerRun = recordsPerRun;
+		this.threads = threads;
+	}
+
+	/**
+	 * Sorts and deduplicates IBANs.
+	 *
+	 * @param input
+	 *            one IBAN per line, may contain whitespace; will not be closed
+	 * @param rejects
+	 *            receives every invalid line, may be <code>null</code>; will not be closed
+	 *
+	 * @return the sorted file of distinct packed IBANs and some statistics
+	 *
+	 * @throws IOException
+	 *             if reading the input or writing temporary files fails
+	 */
+	public Result sort(Reader input, Writer rejects) throws IOException {
+		final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(threads + 1);
+		final ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "iban-external-sorter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		final List<Future<File>> runs = new ArrayList<Future<File>>();
+		final List<File> runFiles = new ArrayList<File>();
+		try {
+			final BufferedReader lines = new BufferedReader(input, BUFFER_SIZE);
+			int allocated = 0;
+			byte[] buffer = null;
+			int count = 0;
+			long packed = 0;
+			long rejected = 0;
+
+			String line;
+			while ((line = lines.readLine()) != null) {
+				if (buffer == null) {
+					buffer = buffers.poll();
+					if (buffer == null && allocated <= threads) {
+						buffer = new byte[recordsPerRun * RECORD_LENGTH];
+						allocated++;
+					} else if (buffer == null) {
+						buffer = take(buffers);
+					}
+				}
+
+				if (PackedIban.pack(line, buffer, count * RECORD_LENGTH)) {
+					packed++;
+					if (++count == recordsPerRun) {
+						runs.add(pool.submit(new RunTask(buffer, count, buffers)));
+						buffer = null;
+						count = 0;
+					}
+				} else {
+					rejected++;
+					if (rejects != null) {
+						rejects.write(line);
+						rejects.write('\n');
+					}
+				}
+			}
+			if (count > 0) {
+				runs.add(pool.submit(new RunTask(buffer, count, buffers)));
+			}
+
+			for (Future<File> run : runs) {
+				runFiles.add(get(run));
+			}
+
+			final File result = File.createTempFile("iban-sorted", ".bin", tempDirectory);
+			boolean merged = false;
+			try {
+				final long records = mergeAll(runFiles, result);
+				merged = true;
+				return new Result(result, records, packed - records, rejected);
+			} finally {
+				if (!merged) {
+					result.delete();
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+			awaitTermination(pool); // runs still being written would otherwise be left behind
+			for (Future<File> run : runs) {
+				if (run.isDone() && !run.isCancelled()) {
+					try {
+						run.get().delete();
+					} catch (Exception e) {
+						// failed runs have no file
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges sorted, distinct runs into a single sorted, distinct file, in several passes of at most
+	 * {@value #MAX_FAN_IN} runs each if necessary. Intermediate runs are deleted, the supplied ones are not.
+	 *
+	 * @return the number of records written
+	 */
+	private long mergeAll(final List<File> runs, final File target) throws IOException {
+		final List<File> intermediates = new ArrayList<File>();
+		try {
+			List<File> pending = runs;
+			while (pending.size() > MAX_FAN_IN) {
+				final List<File> next = new ArrayList<File>();
+				for (int from = 0; from < pending.size(); from += MAX_FAN_IN) {
+					final List<File> group = pending.subList(from, Math.min(from + MAX_FAN_IN, pending.size()));
+					final File merged = File.createTempFile("iban-run", ".bin", tempDirectory);
+					intermediates.add(merged);
+					merge(group, merged);
+					next.add(merged);
+					if (pending != runs) {
+						for (File run : group) {
+							run.delete(); // intermediate run no longer needed
+						}
+					}
+				}
+				pending = next;
+			}
+			return merge(pending, target);
+		} finally {
+			for (File intermediate : intermediates) {
+				intermediate.delete();
+			}
+		}
+	}
+
+	/**
+	 * Merges sorted, distinct runs into a single sorted, distinct file.
+	 *
+	 * @return the number of records written
+	 */
+	private static long merge(final List<File> runs, final File target) throws IOException {
+		final PriorityQueue<RecordReader> queue = new PriorityQueue<RecordReader>(Math.max(1, runs.size()),
+				new Comparator<RecordReader>() {
+					public int compare(RecordReader a, RecordReader b) {
+						return PackedIban.compare(a.record(), 0, b.record(), 0);
+					}
+				});
+
+		final List<RecordReader> readers = new ArrayList<RecordReader>();
+		final OutputStream out = new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE);
+		try {
+			for (File run : runs) {
+				final RecordReader reader = new RecordReader(run);
+				readers.add(reader);
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+
+			final byte[] last = new byte[RECORD_LENGTH];
+			long written = 0;
+			while (!queue.isEmpty()) {
+				final RecordReader reader = queue.poll();
+				final byte[] record = reader.record();
+				if (written == 0 || PackedIban.compare(record, 0, last, 0) != 0) {
+					out.write(record);
+					System.arraycopy(record, 0, last, 0, RECORD_LENGTH);
+					written++;
+				}
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+			return written;
+		} finally {
+			for (RecordReader reader : readers) {
+				reader.close();
+			}
+			out.close();
+		}
+	}
+
+	/**
+	 * Waits for running tasks to finish after {@link ExecutorService#shutdownNow()}, preserving the interrupt status.
+	 */
+	private static void awaitTermination(final ExecutorService pool) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (pool.awaitTermination(1, TimeUnit.MINUTES)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static byte[] take(final BlockingQueue<byte[]> buffers) throws IOException {
+		try {
+			return buffers.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a free run buffer");
+		}
+	}
+
+	private static File get(final Future<File> run) throws IOException {
+		try {
+			return run.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a run");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("Sorting a run failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Sorts, deduplicates and spills a single run, then hands its buffer back for reuse.
+	 */
+	private final class RunTask implements Callable<File> {
+
+		private final byte[] buffer;
+
+		private final int count;
+
+		private final BlockingQueue<byte[]> buffers;
+
+		RunTask(final byte[] buffer, final int count, final BlockingQueue<byte[]> buffers) {
+			this.buffer = buffer;
+			this.count = count;
+			this.buffers = buffers;
+		}
+
+		public File call() throws IOException {
+			try {
+				new RecordSort(RECORD_LENGTH).sort(buffer, count);
+				final int distinct = RecordSort.deduplicate(buffer, count, RECORD_LENGTH);
+
+				final File run = File.createTempFile("iban-run", ".bin", tempDirectory);
+				boolean written = false;
+				try {
+					final OutputStream out = new FileOutputStream(run);
+					try {
+						out.write(buffer, 0, distinct * RECORD_LENGTH);
+					} finally {
+						out.close();
+					}
+					written = true;
+					return run;
+				} finally {
+					if (!written) {
+						run.delete();
+					}
+				}
+			} finally {
+				buffers.offer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Outcome of {@link IbanExternalSorter#sort(Reader, Writer)}.
+	 */
+	public static final class Result {
+
+		private final File file;
+
+		private final long records;
+
+		private final long duplicates;
+
+		private final long rejected;
+
+		private Result(final File file, final long records, final long duplicates, final long rejected) {
+			this.file = file;
+			this.records = records;
+			this.duplicates = duplicates;
+			this.rejected = rejected;
+		}
+
+		/**
+		 *
+		 * @return the sorted file of distinct packed IBANs, to be deleted by the caller
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 *
+		 * @return the number of distinct IBANs
+		 */
+		public long getRecords() {
+			return records;
+		}
+
+		/**
+		 *
+		 * @return the number of valid IBANs that have been dropped as duplicates
+		 */
+		public long getDuplicates() {
+			return duplicates;
+		}
+
+		/**
+		 *
+		 * @return the number of invalid lines
+		 */
+		public long getRejected() {
+			return rejected;
+		}
+	}
+}
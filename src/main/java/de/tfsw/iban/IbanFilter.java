@@ -0,0 +1,335 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A compact probabilistic set of IBANs, used to rule out IBANs that are definitely not part of an expensive-to-query
+ * list before actually querying it.
+ *
+ * <p>
+ * This is a blocked Bloom filter: every IBAN is mapped to a single block of 512 bits, i.e. one cache line, in which
+ * all of its bits are set. A lookup therefore touches one cache line only. IBANs are hashed through
+ * {@link IbanHash}, so formatting and letter case do not matter. <code>false</code> answers of
+ * {@link #mightContain(CharSequence)} are always correct, <code>true</code> answers are wrong with roughly the
+ * configured false positive rate. At a rate of 0.1%, ten million IBANs take up about 20 MB.
+ * </p>
+ *
+ * <p>
+ * Filters are created using a {@link Builder} and can be written to a file with {@link #writeTo(OutputStream)}. Such
+ * files are memory-mapped by {@link #read(File)} rather than copied to the heap.
+ * </p>
+ *
+ * <p>
+ * Objects of this class are immutable and thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanFilter {
+
+	/** File header magic: "IBNF". */
+	private static final int MAGIC = 0x49424E46;
+
+	private static final int VERSION = 1;
+
+	/** Magic, version, blocks, hashes (int each) and entries (long). */
+	private static final int HEADER_LENGTH = 24;
+
+	private static final int WORDS_PER_BLOCK = 8;
+
+	private static final int BLOCK_MASK = WORDS_PER_BLOCK * Long.SIZE - 1;
+
+	private static final int MAX_HASHES = 16;
+
+	private final LongBuffer words;
+
+	private final int blocks;
+
+	private final int hashes;
+
+	private final long entries;
+
+	private IbanFilter(LongBuffer words, int blocks, int hashes, long entries) {
+		super();
+		this.words = words;
+		this.blocks = blocks;
+		this.hashes = hashes;
+		this.entries = entries;
+	}
+
+	/**
+	 * Creates a new builder for a filter sized for the supplied number of entries.
+	 *
+	 * @param expectedEntries
+	 *            the number of IBANs the filter will contain
+	 * @param falsePositiveRate
+	 *            the desired rate of false positives, e.g. <code>0.001</code>
+	 *
+	 * @return a new builder
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the number of entries is negative or the rate is not between <code>0</code> and <code>1</code>
+	 *             (exclusive), or if the filter would exceed 2 GB
+	 */
+	public static Builder builder(long expectedEntries, double falsePositiveRate) {
+		return new Builder(expectedEntries, falsePositiveRate);
+	}
+
+	/**
+	 * Memory-maps a filter file written by {@link #writeTo(OutputStream)}.
+	 *
+	 * @param file
+	 *            the filter file
+	 *
+	 * @return the filter
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read or is not a filter file
+	 */
+	public static IbanFilter read(File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+				throw new IOException("Not an IBAN filter file: " + file);
+			} else if (buffer.getInt(4) != VERSION) {
+				throw new IOException("Unsupported IBAN filter version " + buffer.getInt(4) + ": " + file);
+			}
+
+			final int blocks = buffer.getInt(8);
+			final int hashes = buffer.getInt(12);
+			final long entries = buffer.getLong(16);
+			if ((long) blocks * WORDS_PER_BLOCK * 8 != buffer.remaining() - HEADER_LENGTH) {
+				throw new IOException("Truncated IBAN filter file: " + file);
+			}
+
+			buffer.position(HEADER_LENGTH);
+			return new IbanFilter(buffer.slice().asLongBuffer(), blocks, hashes, entries);
+		} finally {
+			in.close(); // the mapping stays valid
+		}
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN
+	 *
+	 * @return <code>false</code> if the IBAN is definitely not contained, <code>true</code> if it probably is
+	 */
+	public boolean mightContain(Iban iban) {
+		return mightContainFingerprint(IbanHash.fingerprint(iban));
+	}
+
+	/**
+	 * @param iban
+	 *            an IBAN, may contain blanks
+	 *
+	 * @return <code>false</code> if the IBAN is definitely not contained, <code>true</code> if it probably is
+	 */
+	public boolean mightContain(CharSequence iban) {
+		return mightContainFingerprint(IbanHash.fingerprint(iban));
+	}
+
+	/**
+	 * @param fingerprint
+	 *            a fingerprint as computed by {@link IbanHash}
+	 *
+	 * @return <code>false</code> if the IBAN is definitely not contained, <code>true</code> if it probably is
+	 */
+	public boolean mightContainFingerprint(long fingerprint) {
+		final int base = blockOf(fingerprint, blocks) * WORDS_PER_BLOCK;
+		final long h = IbanHash.mix(fingerprint);
+		final int step = (int) (h >>> 32) | 1;
+		int bit = (int) h;
+		for (int i = 0; i < hashes; i++) {
+			if ((words.get(base + ((bit & BLOCK_MASK) >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+			bit += step;
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return the number of IBANs added to this filter
+	 */
+	public long getEntries() {
+		return entries;
+	}
+
+	/**
+	 *
+	 * @return the size of this filter's bit set in bytes
+	 */
+	public long getSizeInBytes() {
+		return (long) blocks * WORDS_PER_BLOCK * 8;
+	}
+
+	/**
+	 * Writes this filter in a format that can be memory-mapped by {@link #read(File)}.
+	 *
+	 * @param out
+	 *            target stream, will not be closed
+	 *
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(blocks);
+		data.writeInt(hashes);
+		data.writeLong(entries);
+		for (int i = 0; i < blocks * WORDS_PER_BLOCK; i++) {
+			data.writeLong(words.get(i));
+		}
+		data.flush();
+	}
+
+	/**
+	 * Writes this filter to a file, see {@link #writeTo(OutputStream)}.
+	 *
+	 * @param file
+	 *            the target file, will be overwritten
+	 *
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void writeTo(File file) throws IOException {
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Maps a fingerprint to a block using its upper bits, independent of the bits used inside the block.
+	 */
+	private static int blockOf(final long fingerprint, final int blocks) {
+		return (int) (((fingerprint >>> 32) * blocks) >>> 32);
+	}
+
+	/**
+	 * Collects IBANs for a new {@link IbanFilter}. Builders are not thread-safe.
+	 */
+	public static final class Builder {
+
+		private final long[] words;
+
+		private final int blocks;
+
+		private final int hashes;
+
+		private long entries;
+
+		private Builder(final long expectedEntries, final double falsePositiveRate) {
+			if (expectedEntries < 0) {
+				throw new IllegalArgumentException("Expected entries must not be negative: " + expectedEntries);
+			} else if (!(falsePositiveRate > 0.0d && falsePositiveRate < 1.0d)) {
+				throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+			}
+
+			// standard Bloom filter sizing, plus some headroom for the uneven load of blocks
+			final double bitsPerEntry = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+			final double bits = Math.max(1L, expectedEntries) * bitsPerEntry * 1.1d;
+			final long blockCount = (long) Math.ceil(bits / (WORDS_PER_BLOCK * Long.SIZE));
+			if (blockCount * WORDS_PER_BLOCK > Integer.MAX_VALUE / 8) {
+				throw new IllegalArgumentException("IBAN filter would exceed 2 GB: " + expectedEntries);
+			}
+
+			this.blocks = (int) blockCount;
+			this.hashes = (int) Math.max(1L, Math.min(MAX_HASHES, Math.round(bitsPerEntry * Math.log(2))));
+			this.words = new long[blocks * WORDS_PER_BLOCK];
+		}
+
+		/**
+		 * @param iban
+		 *            the IBAN to add
+		 *
+		 * @return this builder
+		 */
+		public Builder add(Iban iban) {
+			return addFingerprint(IbanHash.fingerprint(iban));
+		}
+
+		/**
+		 * @param iban
+		 *            the IBAN to add, may contain blanks
+		 *
+		 * @return this builder
+		 */
+		public Builder add(CharSequence iban) {
+			return addFingerprint(IbanHash.fingerprint(iban));
+		}
+
+		/**
+		 * @param ibans
+		 *            the IBANs to add, may contain blanks
+		 *
+		 * @return this builder
+		 */
+		public Builder addAll(Iterable<? extends CharSequence> ibans) {
+			for (CharSequence iban : ibans) {
+				addFingerprint(IbanHash.fingerprint(iban));
+			}
+			return this;
+		}
+
+		/**
+		 * @param fingerprint
+		 *            a fingerprint as computed by {@link IbanHash}
+		 *
+		 * @return this builder
+		 */
+		public Builder addFingerprint(long fingerprint) {
+			final int base = blockOf(fingerprint, blocks) * WORDS_PER_BLOCK;
+			final long h = IbanHash.mix(fingerprint);
+			final int step = (int) (h >>> 32) | 1;
+			int bit = (int) h;
+			for (int i = 0; i < hashes; i++) {
+				words[base + ((bit & BLOCK_MASK) >>> 6)] |= 1L << bit;
+				bit += step;
+			}
+			entries++;
+			return this;
+		}
+
+		/**
+		 * Creates the filter. The builder must not be used afterwards.
+		 *
+		 * @return the filter containing all IBANs added so far
+		 */
+		public IbanFilter build() {
+			return new IbanFilter(LongBuffer.wrap(words), blocks, hashes, entries);
+		}
+	}
+}
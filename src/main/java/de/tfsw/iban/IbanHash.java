@@ -0,0 +1,199 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * Stable, well-mixed 64-bit fingerprints of IBANs.
+ *
+ * <p>
+ * The fingerprint is computed directly from the characters of an IBAN without creating any objects. Only ASCII
+ * letters and digits are taken into account and lower-case letters are folded to upper-case, so the machine-readable
+ * and the formatted representation of the same IBAN share the same fingerprint. Eight characters at a time are folded
+ * into one 64-bit word and mixed using the MurmurHash3 round and finalization functions.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link Iban#hashCode()}, the fingerprint is part of this library's contract: it does not depend on the JVM
+ * and will not change between releases, so it can be used for persistent sharding.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanHash {
+
+	private static final long SEED = 0x9E3779B97F4A7C15L;
+
+	private static final long C1 = 0x87C37B91114253D5L;
+
+	private static final long C2 = 0x4CF5AD432745937FL;
+
+	private IbanHash() {
+		// static helper
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN
+	 *
+	 * @return the fingerprint of the supplied IBAN's machine-readable representation
+	 */
+	public static long fingerprint(final Iban iban) {
+		return fingerprint(iban.toString());
+	}
+
+	/**
+	 * @param iban
+	 *            an IBAN, may contain blanks and lower-case letters
+	 *
+	 * @return the fingerprint of the supplied IBAN
+	 */
+	public static long fingerprint(final CharSequence iban) {
+		return fingerprint(iban, 0, iban.length());
+	}
+
+	/**
+	 * @param chars
+	 *            characters containing an IBAN
+	 * @param offset
+	 *            index of the first character
+	 * @param length
+	 *            number of characters
+	 *
+	 * @return the fingerprint of the supplied IBAN
+	 */
+	public static long fingerprint(final CharSequence chars, final int offset, final int length) {
+		long hash = SEED;
+		long word = 0L;
+		int inWord = 0;
+		int count = 0;
+		for (int i = offset; i < offset + length; i++) {
+			final int c = normalize(chars.charAt(i));
+			if (c != 0) {
+				word = (word << 8) | c;
+				count++;
+				if (++inWord == 8) {
+					hash = round(hash, word);
+					word = 0L;
+					inWord = 0;
+				}
+			}
+		}
+		return finish(hash, word, inWord, count);
+	}
+
+	/**
+	 * @param chars
+	 *            characters containing an IBAN
+	 * @param offset
+	 *            index of the first character
+	 * @param length
+	 *            number of characters
+	 *
+	 * @return the fingerprint of the supplied IBAN
+	 */
+	public static long fingerprint(final char[] chars, final int offset, final int length) {
+		long hash = SEED;
+		long word = 0L;
+		int inWord = 0;
+		int count = 0;
+		for (int i = offset; i < offset + length; i++) {
+			final int c = normalize(chars[i]);
+			if (c != 0) {
+				word = (word << 8) | c;
+				count++;
+				if (++inWord == 8) {
+					hash = round(hash, word);
+					word = 0L;
+					inWord = 0;
+				}
+			}
+		}
+		return finish(hash, word, inWord, count);
+	}
+
+	/**
+	 * @param bytes
+	 *            ASCII characters containing an IBAN
+	 * @param offset
+	 *            index of the first character
+	 * @param length
+	 *            number of characters
+	 *
+	 * @return the fingerprint of the supplied IBAN
+	 */
+	public static long fingerprint(final byte[] bytes, final int offset, final int length) {
+		long hash = SEED;
+		long word = 0L;
+		int inWord = 0;
+		int count = 0;
+		for (int i = offset; i < offset + length; i++) {
+			final int c = normalize((char) (bytes[i] & 0xFF));
+			if (c != 0) {
+				word = (word << 8) | c;
+				count++;
+				if (++inWord == 8) {
+					hash = round(hash, word);
+					word = 0L;
+					inWord = 0;
+				}
+			}
+		}
+		return finish(hash, word, inWord, count);
+	}
+
+	/**
+	 * MurmurHash3 64-bit finalization mix, useful to derive further independent hash values from a fingerprint.
+	 *
+	 * @param h
+	 *            any value
+	 *
+	 * @return the mixed value
+	 */
+	public static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * @return the upper-case ASCII value of a letter or digit, <code>0</code> for any other character
+	 */
+	private static int normalize(final char c) {
+		if ((c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z')) {
+			return c;
+		} else if (c >= 'a' && c <= 'z') {
+			return c - ('a' - 'A');
+		}
+		return 0;
+	}
+
+	private static long round(final long hash, long word) {
+		word *= C1;
+		word = Long.rotateLeft(word, 31);
+		word *= C2;
+		return Long.rotateLeft(hash ^ word, 27) * 5 + 0x52DCE729L;
+	}
+
+	private static long finish(long hash, final long word, final int inWord, final int count) {
+		if (inWord > 0) {
+			hash = round(hash, word);
+		}
+		return mix(hash ^ count);
+	}
+}
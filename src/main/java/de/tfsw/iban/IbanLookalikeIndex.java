@@ -0,0 +1,350 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds stored IBANs that look like a given IBAN, i.e. differ from it in at most a few characters, e.g. to detect
+ * beneficiary accounts that imitate a trusted one.
+ *
+ * <p>
+ * Only IBANs of the same country and the same length are compared, so the distance between two IBANs is the number of
+ * BBAN positions at which they differ (Hamming distance), which is also their edit distance for substitution errors.
+ * Check digits are not compared since they follow from country code and BBAN.
+ * </p>
+ *
+ * <p>
+ * The index uses multi-index hashing: for a maximum distance of <code>k</code>, the BBAN positions are dealt
+ * round-robin into <code>k + 1</code> blocks. Two BBANs that differ in at most <code>k</code> positions agree on at
+ * least one block, so a search only needs to look up the <code>k + 1</code> blocks of the query and verify the few
+ * IBANs sharing one of them. Interleaving the positions mixes bank identifier and account number in every block, which
+ * keeps the number of candidates small even for large banks.
+ * </p>
+ *
+ * <p>
+ * IBANs are stored as {@link PackedIban} records, and the block postings as sorted <code>long</code>s of block hash and
+ * record number, both in direct buffers outside the Java heap. An index is immutable once built and can be searched
+ * concurrently.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanLookalikeIndex {
+
+	/** Largest supported maximum distance. */
+	public static final int MAX_DISTANCE = 4;
+
+	private static final int RECORD_LENGTH = PackedIban.RECORD_LENGTH;
+
+	private static final int WORDS = RECORD_LENGTH / 8;
+
+	private static final int COUNTRY_LENGTH = 2;
+
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	private final int maxDistance;
+
+	private final int size;
+
+	private final ByteBuffer records;
+
+	private final LongBuffer postings;
+
+	/** Number of low bits of a posting holding the record number. */
+	private final int recordBits;
+
+	private IbanLookalikeIndex(final int maxDistance, final int size, final ByteBuffer records,
+			final LongBuffer postings, final int recordBits) {
+		this.maxDistance = maxDistance;
+		this.size = size;
+		this.records = records;
+		this.postings = postings;
+		this.recordBits = recordBits;
+	}
+
+	/**
+	 * Starts building a new index.
+	 *
+	 * @param maxDistance
+	 *            the largest distance that will be searched for, between 1 and {@value #MAX_DISTANCE}; larger values
+	 *            make the index bigger and searches slower
+	 *
+	 * @return a builder
+	 */
+	public static Builder builder(int maxDistance) {
+		return new Builder(maxDistance);
+	}
+
+	/**
+	 * Finds all stored IBANs within the supplied distance of an IBAN.
+	 *
+	 * @param iban
+	 *            the IBAN to search for
+	 * @param distance
+	 *            the maximum number of differing BBAN characters, at most {@link #getMaxDistance()}
+	 *
+	 * @return the machine-readable IBANs found, including the supplied IBAN itself if it is stored
+	 */
+	public List<String> search(Iban iban, int distance) {
+		return search(iban.toString(), distance);
+	}
+
+	/**
+	 * Finds all stored IBANs within the supplied distance of an IBAN.
+	 *
+	 * @param iban
+	 *            the IBAN to search for, may contain whitespace
+	 * @param distance
+	 *            the maximum number of differing BBAN characters, at most {@link #getMaxDistance()}
+	 *
+	 * @return the machine-readable IBANs found, including the supplied IBAN itself if it is stored; empty if the
+	 *         supplied IBAN is invalid
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the distance is negative or exceeds the maximum distance of this index
+	 */
+	public List<String> search(CharSequence iban, int distance) {
+		if (distance < 0 || distance > maxDistance) {
+			throw new IllegalArgumentException(String.format("Distance must be between 0 and %d: %d", maxDistance,
+					distance));
+		}
+
+		final List<String> result = new ArrayList<String>();
+		final byte[] query = new byte[RECORD_LENGTH];
+		if (!PackedIban.pack(iban, query, 0)) {
+			return result;
+		}
+
+		final int bbanLength = PackedIban.getBbanLength(query, 0);
+		final long[] queryWords = new long[WORDS];
+		for (int w = 0; w < WORDS; w++) {
+			queryWords[w] = PackedIban.getWord(query, 0, w);
+		}
+
+		final byte[] candidate = new byte[RECORD_LENGTH];
+		final int blocks = maxDistance + 1;
+		for (int block = 0; block < blocks; block++) {
+			final long first = blockHash(query, 0, bbanLength, block, blocks) & (-1L << recordBits);
+			final long last = first | ~(-1L << recordBits);
+			for (int p = lowerBound(first); p < postings.limit() && postings.get(p) <= last; p++) {
+				final int record = (int) (postings.get(p) & ~(-1L << recordBits));
+				if (distance(record, queryWords, bbanLength) <= distance
+						&& firstMatchingBlock(record, query, bbanLength, blocks) == block) {
+					for (int i = 0; i < RECORD_LENGTH; i++) {
+						candidate[i] = records.get(record * RECORD_LENGTH + i);
+					}
+					result.add(PackedIban.unpack(candidate, 0));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return the number of distinct IBANs in this index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return the largest distance that can be searched for
+	 */
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 *
+	 * @return the off-heap memory used by this index
+	 */
+	public long getSizeInBytes() {
+		return (long) records.capacity() + postings.capacity() * 8L;
+	}
+
+	/**
+	 * Counts the differing bytes of a stored record and the query, <code>Integer.MAX_VALUE</code> if the record is of
+	 * another country or length.
+	 */
+	private int distance(final int record, final long[] queryWords, final int bbanLength) {
+		final int offset = record * RECORD_LENGTH;
+		final int end = offset + COUNTRY_LENGTH + bbanLength;
+		if (records.getShort(offset) != (short) (queryWords[0] >>> 48) || records.get(end - 1) == 0
+				|| (bbanLength < PackedIban.MAX_BBAN_LENGTH && records.get(end) != 0)) {
+			return Integer.MAX_VALUE; // other country or length
+		}
+		int distance = 0;
+		for (int w = 0; w < WORDS; w++) {
+			final long x = records.getLong(offset + w * 8) ^ queryWords[w];
+			// sets the high bit of every non-zero byte
+			distance += Long.bitCount((((x & LOW_BITS) + LOW_BITS) | x) & ~LOW_BITS);
+		}
+		return distance;
+	}
+
+	/**
+	 * Determines which block a candidate is reported for, so that candidates agreeing on several blocks are only
+	 * reported once.
+	 */
+	private int firstMatchingBlock(final int record, final byte[] query, final int bbanLength, final int blocks) {
+		final int offset = record * RECORD_LENGTH + COUNTRY_LENGTH;
+		for (int block = 0; block < blocks; block++) {
+			boolean matches = true;
+			for (int i = block; matches && i < bbanLength; i += blocks) {
+				matches = records.get(offset + i) == query[COUNTRY_LENGTH + i];
+			}
+			if (matches) {
+				return block;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the index of the first posting not less than the supplied value
+	 */
+	private int lowerBound(final long value) {
+		int low = 0;
+		int high = postings.limit();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (postings.get(middle) < value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Hashes country, BBAN length, block number and the characters of the block.
+	 */
+	static long blockHash(final byte[] record, final int offset, final int bbanLength, final int block,
+			final int blocks) {
+		long h = ((record[offset] * 31L + record[offset + 1]) * 31L + bbanLength) * 31L + block;
+		for (int i = block; i < bbanLength; i += blocks) {
+			h = h * 37 + record[offset + COUNTRY_LENGTH + i];
+		}
+		return IbanHash.mix(h);
+	}
+
+	/**
+	 * Collects IBANs and builds an {@link IbanLookalikeIndex}. Builders are not thread-safe.
+	 */
+	public static final class Builder {
+
+		private final int maxDistance;
+
+		private byte[] records = new byte[1024 * RECORD_LENGTH];
+
+		private int count;
+
+		private Builder(final int maxDistance) {
+			if (maxDistance < 1 || maxDistance > MAX_DISTANCE) {
+				throw new IllegalArgumentException(String.format("Maximum distance must be between 1 and %d: %d",
+						MAX_DISTANCE, maxDistance));
+			}
+			this.maxDistance = maxDistance;
+		}
+
+		/**
+		 * @param iban
+		 *            the IBAN to add
+		 *
+		 * @return this builder
+		 */
+		public Builder add(Iban iban) {
+			ensureCapacity();
+			PackedIban.pack(iban, records, count * RECORD_LENGTH);
+			count++;
+			return this;
+		}
+
+		/**
+		 * @param iban
+		 *            the IBAN to add, may contain whitespace; invalid IBANs are ignored
+		 *
+		 * @return this builder
+		 */
+		public Builder add(CharSequence iban) {
+			ensureCapacity();
+			if (PackedIban.pack(iban, records, count * RECORD_LENGTH)) {
+				count++;
+			}
+			return this;
+		}
+
+		/**
+		 * @param ibans
+		 *            the IBANs to add, may contain whitespace; invalid IBANs are ignored
+		 *
+		 * @return this builder
+		 */
+		public Builder addAll(Iterable<? extends CharSequence> ibans) {
+			for (CharSequence iban : ibans) {
+				add(iban);
+			}
+			return this;
+		}
+
+		/**
+		 * Builds the index. Duplicates are stored only once.
+		 *
+		 * @return the index
+		 */
+		public IbanLookalikeIndex build() {
+			IbanSort.sortPacked(records, count);
+			final int size = RecordSort.deduplicate(records, count, RECORD_LENGTH);
+
+			final ByteBuffer storedRecords = ByteBuffer.allocateDirect(Math.max(1, size) * RECORD_LENGTH);
+			storedRecords.put(records, 0, size * RECORD_LENGTH);
+			storedRecords.clear();
+
+			final int blocks = maxDistance + 1;
+			final int recordBits = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(size));
+			final long[] entries = new long[size * blocks];
+			for (int record = 0; record < size; record++) {
+				final int offset = record * RECORD_LENGTH;
+				final int bbanLength = PackedIban.getBbanLength(records, offset);
+				for (int block = 0; block < blocks; block++) {
+					entries[record * blocks + block] = blockHash(records, offset, bbanLength, block, blocks)
+							& (-1L << recordBits) | record;
+				}
+			}
+			Arrays.parallelSort(entries);
+
+			final LongBuffer postings = ByteBuffer.allocateDirect(Math.max(1, entries.length) * 8).asLongBuffer();
+			postings.put(entries);
+			postings.flip();
+
+			return new IbanLookalikeIndex(maxDistance, size, storedRecords, postings, recordBits);
+		}
+
+		private void ensureCapacity() {
+			if ((count + 1) * RECORD_LENGTH > records.length) {
+				records = Arrays.copyOf(records, records.length * 2);
+			}
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * Cleans up IBANs entered by humans or delivered by lenient channels, e.g.
+ * <code>iban: de89-3704-0044.0532.0130.00</code>, in a single pass.
+ *
+ * <p>
+ * Normalization skips whitespace including non-breaking spaces as well as configurable separator characters (dashes
+ * and dots by default), converts lower-case letters to upper-case and drops a leading <code>IBAN</code> or
+ * <code>IBAN:</code> prefix. Any other character, or more characters than the longest IBAN has, rejects the input
+ * right away. Normalization does not validate country, length or check digits; {@link #isValid(CharSequence)} and
+ * {@link #toIban(CharSequence)} do so on the normalized form without copying it again.
+ * </p>
+ *
+ * <pre>
+ * final IbanNormalizer normalizer = IbanNormalizer.builder().separators("-./").build();
+ * final Iban iban = normalizer.toIban("IBAN: de89/3704/0044/0532/0130/00");
+ * </pre>
+ *
+ * <p>
+ * Objects of this class are immutable and thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanNormalizer {
+
+	/** Skips whitespace, dashes and dots, converts to upper-case and drops an <code>IBAN:</code> prefix. */
+	public static final IbanNormalizer LENIENT = builder().build();
+
+	private static final int MAX_IBAN_LENGTH = 34;
+
+	private static final String PREFIX = "IBAN";
+
+	private final String separators;
+
+	private final boolean upperCase;
+
+	private final boolean stripPrefix;
+
+	private IbanNormalizer(Builder builder) {
+		super();
+		this.separators = builder.separators;
+		this.upperCase = builder.upperCase;
+		this.stripPrefix = builder.stripPrefix;
+	}
+
+	/**
+	 * Creates a new builder with the settings of {@link #LENIENT}.
+	 *
+	 * @return a new builder
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Normalizes an IBAN.
+	 *
+	 * @param input
+	 *            the IBAN as entered
+	 *
+	 * @return the normalized IBAN, the input itself if it was normalized already
+	 *
+	 * @throws IbanFormatException
+	 *             if the input is <code>null</code>, too long or contains illegal characters
+	 */
+	public String normalize(CharSequence input) {
+		if (input == null) {
+			throw new IbanFormatException("IBAN must not be null");
+		}
+		final char[] chars = new char[MAX_IBAN_LENGTH];
+		final int length = normalize(input, chars, 0, true);
+		return unchanged(input, chars, length) ? (String) input : new String(chars, 0, length);
+	}
+
+	/**
+	 * Normalizes an IBAN into the supplied array without throwing exceptions.
+	 *
+	 * @param input
+	 *            the IBAN as entered, may be <code>null</code>
+	 * @param target
+	 *            receives the normalized IBAN
+	 * @param offset
+	 *            index of the first character to write
+	 *
+	 * @return the length of the normalized IBAN or <code>-1</code> if the input is <code>null</code>, too long or
+	 *         contains illegal characters
+	 */
+	public int normalize(CharSequence input, char[] target, int offset) {
+		return input == null ? -1 : normalize(input, target, offset, false);
+	}
+
+	/**
+	 * Validates an IBAN as strictly as {@link Iban#Iban(String)}, after normalizing it.
+	 *
+	 * @param input
+	 *            the IBAN as entered, may be <code>null</code>
+	 *
+	 * @return <code>true</code> if the normalized IBAN is valid
+	 */
+	public boolean isValid(CharSequence input) {
+		final char[] chars = new char[MAX_IBAN_LENGTH];
+		final int length = normalize(input, chars, 0);
+		return length > 0 && IbanBatchValidator.checkStructure(chars, length)
+				&& Mod97.ibanRemainder(chars, 0, length) == 1;
+	}
+
+	/**
+	 * Normalizes and parses an IBAN.
+	 *
+	 * @param input
+	 *            the IBAN as entered
+	 *
+	 * @return the IBAN
+	 *
+	 * @throws IbanFormatException
+	 *             if the input is <code>null</code>, too long or contains illegal characters, or if the normalized
+	 *             IBAN's basic format is invalid
+	 * @see Iban#Iban(String)
+	 */
+	public Iban toIban(CharSequence input) {
+		return new Iban(normalize(input));
+	}
+
+	/**
+	 * Removes the whitespace characters of the regular expression class <code>\s</code>, i.e.
+	 * <code>[ \t\n\x0B\f\r]</code>, without a regular expression.
+	 *
+	 * @return the input itself if it contains no whitespace, <code>null</code> for <code>null</code> input
+	 */
+	static String removeWhitespace(final String input) {
+		if (input == null) {
+			return null;
+		}
+		StringBuilder sb = null;
+		for (int i = 0; i < input.length(); i++) {
+			final char c = input.charAt(i);
+			if (isWhitespace(c)) {
+				if (sb == null) {
+					sb = new StringBuilder(input.length()).append(input, 0, i);
+				}
+			} else if (sb != null) {
+				sb.append(c);
+			}
+		}
+		return sb == null ? input : sb.toString();
+	}
+
+	/**
+	 * @return <code>true</code> for the whitespace characters removed by {@link #removeWhitespace(String)}, shared by
+	 *         all parsers that must accept the same input as {@link Iban#Iban(String)}
+	 */
+	static boolean isWhitespace(final char c) {
+		return c == ' ' || (c >= '\t' && c <= '\r');
+	}
+
+	/**
+	 * @return <code>true</code> if the input is a string that has been normalized already
+	 */
+	private static boolean unchanged(final CharSequence input, final char[] chars, final int length) {
+		if (!(input instanceof String) || input.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (input.charAt(i) != chars[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int normalize(final CharSequence input, final char[] target, final int offset, final boolean strict) {
+		int start = 0;
+		if (stripPrefix) {
+			start = prefixEnd(input);
+		}
+
+		int length = 0;
+		for (int i = start; i < input.length(); i++) {
+			char c = input.charAt(i);
+			if (isSeparator(c)) {
+				continue;
+			} else if (upperCase && c >= 'a' && c <= 'z') {
+				c -= 'a' - 'A';
+			} else if (SegmentPattern.classOf(c) == 0) {
+				if (strict) {
+					throw new IbanFormatException(String.format("Illegal character '%s' at position %d of IBAN: %s", c,
+							i + 1, input));
+				}
+				return -1;
+			}
+
+			if (length == MAX_IBAN_LENGTH || offset + length == target.length) {
+				if (strict) {
+					throw new IbanFormatException("IBAN too long: " + input);
+				}
+				return -1;
+			}
+			target[offset + length++] = c;
+		}
+		return length;
+	}
+
+	/**
+	 * @return the index after an <code>IBAN</code> or <code>IBAN:</code> prefix and any separators following it,
+	 *         <code>0</code> if there is no prefix
+	 */
+	private int prefixEnd(final CharSequence input) {
+		int i = 0;
+		while (i < input.length() && isSeparator(input.charAt(i))) {
+			i++;
+		}
+		if (i + PREFIX.length() > input.length()) {
+			return 0;
+		}
+		for (int n = 0; n < PREFIX.length(); n++) {
+			if (Character.toUpperCase(input.charAt(i + n)) != PREFIX.charAt(n)) {
+				return 0;
+			}
+		}
+		i += PREFIX.length();
+		if (i < input.length() && input.charAt(i) == ':') {
+			i++;
+		}
+		return i;
+	}
+
+	private boolean isSeparator(final char c) {
+		return Character.isWhitespace(c) || Character.isSpaceChar(c) || separators.indexOf(c) >= 0;
+	}
+
+	/**
+	 * Configures an {@link IbanNormalizer}.
+	 */
+	public static final class Builder {
+
+		private String separators = "-.";
+
+		private boolean upperCase = true;
+
+		private boolean stripPrefix = true;
+
+		private Builder() {
+			super();
+		}
+
+		/**
+		 * @param separators
+		 *            characters to skip in addition to whitespace, <code>-.</code> by default
+		 *
+		 * @return this builder
+		 *
+		 * @throws IllegalArgumentException
+		 *             if a separator is a letter or digit
+		 */
+		public Builder separators(String separators) {
+			for (int i = 0; i < separators.length(); i++) {
+				if (SegmentPattern.classOf(separators.charAt(i)) != 0) {
+					throw new IllegalArgumentException("Letters and digits cannot be separators: " + separators);
+				}
+			}
+			this.separators = separators;
+			return this;
+		}
+
+		/**
+		 * @param upperCase
+		 *            <code>true</code> to convert lower-case letters to upper-case, the default
+		 *
+		 * @return this builder
+		 */
+		public Builder upperCase(boolean upperCase) {
+			this.upperCase = upperCase;
+			return this;
+		}
+
+		/**
+		 * @param stripPrefix
+		 *            <code>true</code> to drop a leading <code>IBAN</code> or <code>IBAN:</code>, the default
+		 *
+		 * @return this builder
+		 */
+		public Builder stripPrefix(boolean stripPrefix) {
+			this.stripPrefix = stripPrefix;
+			return this;
+		}
+
+		/**
+		 * @return the normalizer
+		 */
+		public IbanNormalizer build() {
+			return new IbanNormalizer(this);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * Maps IBANs to a fixed number of shards using jump consistent hashing (Lamping and Veach, 2014) on top of the
+ * {@link IbanHash#fingerprint(CharSequence) IBAN fingerprint}.
+ *
+ * <p>
+ * Keys are spread evenly across all shards, and when the number of shards grows from <i>n</i> to <i>n + 1</i> only
+ * about <i>1 / (n + 1)</i> of all IBANs move, all of them to the new shard. Shards can only be added or removed at
+ * the end of the range.
+ * </p>
+ *
+ * <p>
+ * Objects of this class are immutable and thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanPartitioner {
+
+	private final int shards;
+
+	/**
+	 * Creates a new partitioner.
+	 *
+	 * @param shards
+	 *            the number of shards, at least <code>1</code>
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the number of shards is less than <code>1</code>
+	 */
+	public IbanPartitioner(int shards) {
+		super();
+		if (shards < 1) {
+			throw new IllegalArgumentException("Number of shards must be positive: " + shards);
+		}
+		this.shards = shards;
+	}
+
+	/**
+	 *
+	 * @return the number of shards
+	 */
+	public int getShards() {
+		return shards;
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN
+	 *
+	 * @return the shard of the supplied IBAN, between <code>0</code> (inclusive) and {@link #getShards()} (exclusive)
+	 */
+	public int shardOf(Iban iban) {
+		return jumpConsistentHash(IbanHash.fingerprint(iban), shards);
+	}
+
+	/**
+	 * @param iban
+	 *            an IBAN, may contain blanks
+	 *
+	 * @return the shard of the supplied IBAN, between <code>0</code> (inclusive) and {@link #getShards()} (exclusive)
+	 */
+	public int shardOf(CharSequence iban) {
+		return jumpConsistentHash(IbanHash.fingerprint(iban), shards);
+	}
+
+	/**
+	 * @param fingerprint
+	 *            a fingerprint as computed by {@link IbanHash}
+	 *
+	 * @return the shard of the supplied fingerprint, between <code>0</code> (inclusive) and {@link #getShards()}
+	 *         (exclusive)
+	 */
+	public int shardOfFingerprint(long fingerprint) {
+		return jumpConsistentHash(fingerprint, shards);
+	}
+
+	/**
+	 * Jump consistent hash.
+	 *
+	 * @param key
+	 *            a well-mixed 64-bit key
+	 * @param buckets
+	 *            the number of buckets, at least <code>1</code>
+	 *
+	 * @return the bucket of the supplied key, between <code>0</code> (inclusive) and <code>buckets</code> (exclusive)
+	 */
+	public static int jumpConsistentHash(long key, int buckets) {
+		long bucket = -1L;
+		long jump = 0L;
+		while (jump < buckets) {
+			bucket = jump;
+			key = key * 2862933555777941757L + 1L;
+			jump = (long) ((bucket + 1L) * ((double) (1L << 31) / (double) ((key >>> 33) + 1L)));
+		}
+		return (int) bucket;
+	}
+
+	@Override
+	public String toString() {
+		return "IbanPartitioner(" + shards + ")";
+	}
+}
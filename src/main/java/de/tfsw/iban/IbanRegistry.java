@@ -0,0 +1,407 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Country-specific IBAN formats that can be replaced at runtime.
+ *
+ * <p>
+ * A registry starts out with the built-in formats of {@link CountryCode}. Registry files can add new countries or
+ * override built-in ones, e.g. when the length of a country's BBAN changes. Every change compiles a complete new
+ * lookup table which is then published with a single atomic swap, so concurrent lookups never block and never see a
+ * partially updated table.
+ * </p>
+ *
+ * <p>
+ * Registry files are plain text, one country per line. Blank lines and lines starting with <code>#</code> are
+ * ignored. Each line consists of whitespace-separated columns, mirroring the constructors of {@link CountryCode}:
+ * </p>
+ *
+ * <pre>
+ * # country length [[prefix] bank branch] account
+ * DE 18 \d{8} \d{10}
+ * GB 18 [A-Z]{4} \d{6} \d{8}
+ * IT 23 [A-Z] \d{5} \d{5} \w{12}
+ * </pre>
+ *
+ * <p>
+ * Optional segments may be given as <code>-</code>. Countries that are not part of the file keep their built-in
+ * format.
+ * </p>
+ *
+ * <p>
+ * {@link Iban} validates BBANs against the {@link #getDefault() default registry}. Countries that are only known to
+ * the registry have no {@link CountryCode} and can therefore not be used to create {@link Iban} objects, but they can
+ * be validated through {@link #lookup(String)} and {@link CountrySpec#matchesBban(CharSequence)}.
+ * </p>
+ *
+ * <p>
+ * Objects of this class are thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanRegistry {
+
+	private static final IbanRegistry DEFAULT = new IbanRegistry();
+
+	private static final int LETTERS = 26;
+
+	private static final String ABSENT_SEGMENT = "-";
+
+	private static final String REGISTRY_ENCODING = "UTF-8";
+
+	/** Country specs indexed by {@link #index(char, char)}, replaced as a whole on every change. */
+	private final AtomicReference<CountrySpec[]> specs;
+
+	private final Object reloadLock = new Object();
+
+	private File source;
+
+	private long sourceLastModified;
+
+	private ScheduledExecutorService watcher;
+
+	private volatile Exception lastReloadFailure;
+
+	/**
+	 * Creates a new registry containing the built-in formats of all {@link CountryCode}s.
+	 */
+	public IbanRegistry() {
+		super();
+		this.specs = new AtomicReference<CountrySpec[]>(builtIns());
+	}
+
+	/**
+	 *
+	 * @return the registry used by {@link Iban} for BBAN validation
+	 */
+	public static IbanRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Looks up the format of a country.
+	 *
+	 * @param country
+	 *            ISO 3166-1 alpha-2 country code
+	 *
+	 * @return the country's format or <code>null</code> if the country is unknown
+	 */
+	public CountrySpec lookup(String country) {
+		if (country == null || country.length() != 2) {
+			return null;
+		}
+		return lookup(country, 0);
+	}
+
+	/**
+	 * Looks up the format of a country without creating any objects.
+	 *
+	 * @param chars
+	 *            characters containing a country code, e.g. a complete IBAN
+	 * @param offset
+	 *            index of the country code's first letter
+	 *
+	 * @return the country's format or <code>null</code> if the country is unknown
+	 */
+	public CountrySpec lookup(CharSequence chars, int offset) {
+		return lookup(chars.charAt(offset), chars.charAt(offset + 1));
+	}
+
+	/**
+	 * Looks up the format of a country without creating any objects.
+	 *
+	 * @param first
+	 *            first letter of the country code
+	 * @param second
+	 *            second letter of the country code
+	 *
+	 * @return the country's format or <code>null</code> if the country is unknown
+	 */
+	public CountrySpec lookup(char first, char second) {
+		final int index = index(first, second);
+		return index < 0 ? null : specs.get()[index];
+	}
+
+	/**
+	 * Looks up the currently registered format of a built-in country.
+	 *
+	 * @param countryCode
+	 *            the country code
+	 *
+	 * @return the country's format, never <code>null</code>
+	 */
+	public CountrySpec lookup(CountryCode countryCode) {
+		final String name = countryCode.name();
+		return specs.get()[index(name.charAt(0), name.charAt(1))];
+	}
+
+	/**
+	 *
+	 * @return all formats currently known to this registry, in alphabetical order of their country codes
+	 */
+	public List<CountrySpec> getCountries() {
+		final List<CountrySpec> countries = new ArrayList<CountrySpec>();
+		for (CountrySpec spec : specs.get()) {
+			if (spec != null) {
+				countries.add(spec);
+			}
+		}
+		return countries;
+	}
+
+	/**
+	 * Adds or replaces a single country format.
+	 *
+	 * @param spec
+	 *            the country's new format
+	 */
+	public void register(CountrySpec spec) {
+		final String country = spec.getCountry();
+		final int index = index(country.charAt(0), country.charAt(1));
+		while (true) {
+			final CountrySpec[] current = specs.get();
+			final CountrySpec[] updated = current.clone();
+			updated[index] = spec;
+			if (specs.compareAndSet(current, updated)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Replaces all formats by the built-in ones of {@link CountryCode}.
+	 */
+	public void reset() {
+		specs.set(builtIns());
+	}
+
+	/**
+	 * Reads a registry file and publishes its formats on top of the built-in ones. Formats registered or loaded
+	 * earlier are discarded. If the file is malformed, the current formats remain unchanged.
+	 *
+	 * @param reader
+	 *            source of the registry file, will not be closed
+	 *
+	 * @throws IOException
+	 *             if the source cannot be read
+	 * @throws IbanRegistryException
+	 *             if the file contains malformed country specifications
+	 */
+	public void load(Reader reader) throws IOException {
+		final CountrySpec[] updated = builtIns();
+		final BufferedReader lines = new BufferedReader(reader);
+
+		int lineNumber = 0;
+		String line;
+		while ((line = lines.readLine()) != null) {
+			lineNumber++;
+			final String trimmed = line.trim();
+			if (trimmed.length() == 0 || trimmed.charAt(0) == '#') {
+				continue;
+			}
+
+			final CountrySpec spec = parse(trimmed, lineNumber);
+			final String country = spec.getCountry();
+			updated[index(country.charAt(0), country.charAt(1))] = spec;
+		}
+
+		specs.set(updated);
+	}
+
+	/**
+	 * Reads a registry file, see {@link #load(Reader)}. The file is remembered for {@link #reloadIfModified()}.
+	 *
+	 * @param file
+	 *            the registry file, expected to be UTF-8 encoded
+	 *
+	 * @throws IbanRegistryException
+	 *             if the file cannot be read or is malformed
+	 */
+	public void load(File file) {
+		synchronized (reloadLock) {
+			final long lastModified = file.lastModified();
+			loadFile(file);
+			this.source = file;
+			this.sourceLastModified = lastModified;
+		}
+	}
+
+	/**
+	 * Reloads the registry file last passed to {@link #load(File)} if it has been modified since.
+	 *
+	 * @return <code>true</code> if the file has been reloaded
+	 *
+	 * @throws IbanRegistryException
+	 *             if the file cannot be read or is malformed, in which case the current formats remain in place
+	 */
+	public boolean reloadIfModified() {
+		synchronized (reloadLock) {
+			if (source == null) {
+				return false;
+			}
+
+			final long lastModified = source.lastModified();
+			if (lastModified == sourceLastModified) {
+				return false;
+			}
+
+			loadFile(source);
+			this.sourceLastModified = lastModified;
+			return true;
+		}
+	}
+
+	/**
+	 * Loads the supplied registry file and keeps checking it for modifications on a background daemon thread. Any
+	 * previous watch is stopped. Failed reloads keep the current formats in place and can be inspected through
+	 * {@link #getLastReloadFailure()}.
+	 *
+	 * @param file
+	 *            the registry file
+	 * @param period
+	 *            time between two modification checks
+	 * @param unit
+	 *            unit of the period
+	 *
+	 * @throws IbanRegistryException
+	 *             if the initial load fails
+	 */
+	public void watch(File file, long period, TimeUnit unit) {
+		synchronized (reloadLock) {
+			stopWatching();
+			load(file);
+
+			watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "iban-registry-watcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			watcher.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						if (reloadIfModified()) {
+							lastReloadFailure = null;
+						}
+					} catch (RuntimeException e) {
+						lastReloadFailure = e;
+					}
+				}
+			}, period, period, unit);
+		}
+	}
+
+	/**
+	 * Stops watching the registry file. The formats loaded last remain in place.
+	 */
+	public void stopWatching() {
+		synchronized (reloadLock) {
+			if (watcher != null) {
+				watcher.shutdownNow();
+				watcher = null;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the reason of the last failed background reload, <code>null</code> if the last reload succeeded
+	 */
+	public Exception getLastReloadFailure() {
+		return lastReloadFailure;
+	}
+
+	/**
+	 * Maps a country code to its slot in the lookup table.
+	 *
+	 * @return the slot or <code>-1</code> if the characters are not two upper-case letters
+	 */
+	static int index(final char first, final char second) {
+		if (first < 'A' || first > 'Z' || second < 'A' || second > 'Z') {
+			return -1;
+		}
+		return (first - 'A') * LETTERS + (second - 'A');
+	}
+
+	private void loadFile(final File file) {
+		try {
+			final Reader reader = new InputStreamReader(new FileInputStream(file), REGISTRY_ENCODING);
+			try {
+				load(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new IbanRegistryException("Cannot read IBAN registry file " + file, e);
+		}
+	}
+
+	private static CountrySpec parse(final String line, final int lineNumber) {
+		final String[] columns = line.split("\\s+");
+		if (columns.length < 4 || columns.length > 6) {
+			throw new IbanRegistryException(String.format("Line %d: expected 4 to 6 columns, found %d", lineNumber,
+					columns.length));
+		}
+
+		final int bbanLength;
+		try {
+			bbanLength = Integer.parseInt(columns[1]);
+		} catch (NumberFormatException e) {
+			throw new IbanRegistryException(String.format("Line %d: invalid BBAN length %s", lineNumber, columns[1]));
+		}
+
+		final String prefix = columns.length == 6 ? segment(columns[2]) : null;
+		final String bank = segment(columns[columns.length == 6 ? 3 : 2]);
+		final String branch = columns.length == 4 ? null : segment(columns[columns.length - 2]);
+		final String account = segment(columns[columns.length - 1]);
+
+		try {
+			return new CountrySpec(columns[0], bbanLength, prefix, bank, branch, account);
+		} catch (IllegalArgumentException e) {
+			throw new IbanRegistryException(String.format("Line %d: %s", lineNumber, e.getMessage()), e);
+		}
+	}
+
+	private static String segment(final String column) {
+		return ABSENT_SEGMENT.equals(column) ? null : column;
+	}
+
+	private static CountrySpec[] builtIns() {
+		final CountrySpec[] table = new CountrySpec[LETTERS * LETTERS];
+		for (CountryCode cc : CountryCode.values()) {
+			final String name = cc.name();
+			table[index(name.charAt(0), name.charAt(1))] = CountrySpec.of(cc);
+		}
+		return table;
+	}
+}
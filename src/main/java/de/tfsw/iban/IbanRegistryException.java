@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * Indicates that an IBAN registry file could not be read or contains malformed country specifications.
+ * 
+ * @author Thorsten Frank
+ */
+public class IbanRegistryException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new registry exception.
+	 * 
+	 * @param message human-readable exception message
+	 */
+	public IbanRegistryException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Creates a new registry exception.
+	 * 
+	 * @param message human-readable exception message
+	 * @param cause the underlying problem
+	 */
+	public IbanRegistryException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
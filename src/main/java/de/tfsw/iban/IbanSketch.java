@@ -0,0 +1,248 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct IBANs in fixed memory.
+ *
+ * <p>
+ * IBANs are hashed with {@link IbanHash#fingerprint(CharSequence)}, so formatting does not matter and no objects are
+ * created. A sketch of precision <code>p</code> uses <code>2 ^ p</code> one-byte registers and has a standard error of
+ * about <code>1.04 / sqrt(2 ^ p)</code>, e.g. 0.8% at the default precision of 14 (16 KB). Sketches of equal precision
+ * can be merged, the result being the same as if all IBANs had been added to a single sketch, so each worker thread or
+ * node can fill its own sketch.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ *
+ * @see IbanSketchFamily
+ */
+public final class IbanSketch {
+
+	/** Precision used by {@link #IbanSketch()}. */
+	public static final int DEFAULT_PRECISION = 14;
+
+	static final int MIN_PRECISION = 4;
+
+	static final int MAX_PRECISION = 18;
+
+	private static final int MAGIC = 0x49424E48;
+
+	private static final int VERSION = 1;
+
+	private final int precision;
+
+	private final byte[] registers;
+
+	/**
+	 * Creates an empty sketch of the {@link #DEFAULT_PRECISION default precision}.
+	 */
+	public IbanSketch() {
+		this(DEFAULT_PRECISION);
+	}
+
+	/**
+	 * Creates an empty sketch.
+	 *
+	 * @param precision
+	 *            number of index bits, between 4 and 18
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the precision is out of range
+	 */
+	public IbanSketch(int precision) {
+		super();
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+			throw new IllegalArgumentException(String.format("Precision must be between %d and %d: %d",
+					MIN_PRECISION, MAX_PRECISION, precision));
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN to count
+	 */
+	public void add(Iban iban) {
+		addFingerprint(IbanHash.fingerprint(iban));
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN to count, may contain whitespace
+	 */
+	public void add(CharSequence iban) {
+		addFingerprint(IbanHash.fingerprint(iban));
+	}
+
+	/**
+	 * @param fingerprint
+	 *            the {@link IbanHash fingerprint} of the IBAN to count
+	 */
+	public void addFingerprint(long fingerprint) {
+		final int index = (int) (fingerprint >>> (Long.SIZE - precision));
+		// the marker bit limits the rank to 64 - precision + 1
+		final int rank = Long.numberOfLeadingZeros(fingerprint << precision | 1L << (precision - 1)) + 1;
+		if (rank > registers[index]) {
+			registers[index] = (byte) rank;
+		}
+	}
+
+	/**
+	 *
+	 * @return the estimated number of distinct IBANs added
+	 */
+	public long estimate() {
+		final int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += Double.longBitsToDouble((1023L - register) << 52); // 2 ^ -register
+			if (register == 0) {
+				zeros++;
+			}
+		}
+
+		final double estimate = alpha(m) * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			return Math.round(m * Math.log((double) m / zeros)); // linear counting for small cardinalities
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Adds all IBANs counted by another sketch to this one.
+	 *
+	 * @param other
+	 *            a sketch of the same precision, remains unchanged
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the precisions differ
+	 */
+	public void merge(IbanSketch other) {
+		if (other.precision != precision) {
+			throw new IllegalArgumentException(String.format("Cannot merge sketches of precision %d and %d",
+					precision, other.precision));
+		}
+		for (int i = 0; i < registers.length; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of index bits
+	 */
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 *
+	 * @return the size of this sketch's registers
+	 */
+	public int getSizeInBytes() {
+		return registers.length;
+	}
+
+	/**
+	 * Writes this sketch in a binary format that can be read by {@link #read(InputStream)}.
+	 *
+	 * @param out
+	 *            target stream, will not be closed
+	 *
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		writeRegisters(data);
+		data.flush();
+	}
+
+	/**
+	 * Reads a sketch written by {@link #writeTo(OutputStream)}.
+	 *
+	 * @param in
+	 *            source stream, will not be closed
+	 *
+	 * @return the sketch
+	 *
+	 * @throws IOException
+	 *             if reading fails or the stream does not contain a sketch
+	 */
+	public static IbanSketch read(InputStream in) throws IOException {
+		final DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not an IBAN sketch");
+		}
+		final int version = data.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported IBAN sketch version " + version);
+		}
+		return readRegisters(data);
+	}
+
+	/**
+	 * Writes precision and registers, shared with {@link IbanSketchFamily}.
+	 */
+	void writeRegisters(final DataOutputStream data) throws IOException {
+		data.writeByte(precision);
+		data.write(registers);
+	}
+
+	/**
+	 * @see #writeRegisters(DataOutputStream)
+	 */
+	static IbanSketch readRegisters(final DataInputStream data) throws IOException {
+		final int precision = data.readUnsignedByte();
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+			throw new IOException("Invalid IBAN sketch precision " + precision);
+		}
+		final IbanSketch sketch = new IbanSketch(precision);
+		data.readFully(sketch.registers);
+		return sketch;
+	}
+
+	private static double alpha(final int m) {
+		switch (m) {
+		case 16:
+			return 0.673;
+		case 32:
+			return 0.697;
+		case 64:
+			return 0.709;
+		default:
+			return 0.7213 / (1 + 1.079 / m);
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A group of {@link IbanSketch}es counting distinct IBANs per country or per bank.
+ *
+ * <p>
+ * Every IBAN is assigned to a group by its {@link IbanBankRouter#bankKey(CharSequence) bank key}: groups are either
+ * countries or banks, i.e. country code plus bank identifier. IBANs whose bank key cannot be determined are not
+ * counted. Each group has its own sketch of fixed size, created on first use, so memory depends on the number of
+ * groups but not on the number of IBANs.
+ * </p>
+ *
+ * <p>
+ * Groups are identified by <code>long</code> keys: for {@link Grouping#BANK} the bank key itself, for
+ * {@link Grouping#COUNTRY} a number derived from the country code. {@link #getKeys()} lists the keys of all groups,
+ * {@link #getLabel(long)} converts a key to text.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe; have each thread fill its own family and {@link #merge(IbanSketchFamily) merge} them.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanSketchFamily {
+
+	/**
+	 * How IBANs are grouped.
+	 */
+	public enum Grouping {
+
+		/** One sketch per country. */
+		COUNTRY,
+
+		/** One sketch per bank. */
+		BANK
+	}
+
+	private static final int MAGIC = 0x49424E53;
+
+	private static final int VERSION = 1;
+
+	private static final int LETTERS = 26;
+
+	private final Grouping grouping;
+
+	private final int precision;
+
+	/** Sketch index by key. */
+	private final LongIntMap indexes = new LongIntMap(64);
+
+	private final List<IbanSketch> sketches = new ArrayList<IbanSketch>();
+
+	/**
+	 * Creates an empty family.
+	 *
+	 * @param grouping
+	 *            how to group IBANs
+	 * @param precision
+	 *            precision of each group's sketch, see {@link IbanSketch#IbanSketch(int)}
+	 */
+	public IbanSketchFamily(Grouping grouping, int precision) {
+		super();
+		if (precision < IbanSketch.MIN_PRECISION || precision > IbanSketch.MAX_PRECISION) {
+			throw new IllegalArgumentException(String.format("Precision must be between %d and %d: %d",
+					IbanSketch.MIN_PRECISION, IbanSketch.MAX_PRECISION, precision));
+		}
+		this.grouping = grouping;
+		this.precision = precision;
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN to count
+	 *
+	 * @return <code>false</code> if the IBAN cannot be assigned to a group
+	 */
+	public boolean add(Iban iban) {
+		return add(iban.toString());
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN to count, may contain whitespace
+	 *
+	 * @return <code>false</code> if the IBAN cannot be assigned to a group
+	 */
+	public boolean add(CharSequence iban) {
+		final long bankKey = IbanBankRouter.bankKey(iban);
+		if (bankKey == IbanBankRouter.INVALID_KEY) {
+			return false;
+		}
+		sketch(keyOf(bankKey)).addFingerprint(IbanHash.fingerprint(iban));
+		return true;
+	}
+
+	/**
+	 * Adds all IBANs counted by another family to this one.
+	 *
+	 * @param other
+	 *            a family of the same grouping and precision, remains unchanged
+	 *
+	 * @throws IllegalArgumentException
+	 *             if grouping or precision differ
+	 */
+	public void merge(IbanSketchFamily other) {
+		if (other.grouping != grouping || other.precision != precision) {
+			throw new IllegalArgumentException("Cannot merge sketch families of different grouping or precision");
+		}
+		for (long key : other.indexes.keys()) {
+			sketch(key).merge(other.sketches.get(other.indexes.get(key)));
+		}
+	}
+
+	/**
+	 *
+	 * @return how IBANs are grouped
+	 */
+	public Grouping getGrouping() {
+		return grouping;
+	}
+
+	/**
+	 *
+	 * @return the keys of all groups that have been counted, in ascending order
+	 */
+	public long[] getKeys() {
+		final long[] keys = indexes.keys();
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/**
+	 *
+	 * @param key
+	 *            a group key
+	 *
+	 * @return the sketch of the group, <code>null</code> if no IBAN of the group has been counted
+	 */
+	public IbanSketch getSketch(long key) {
+		final int index = indexes.get(key);
+		return index == LongIntMap.MISSING ? null : sketches.get(index);
+	}
+
+	/**
+	 *
+	 * @param key
+	 *            a group key
+	 *
+	 * @return the estimated number of distinct IBANs of the group
+	 */
+	public long estimate(long key) {
+		final IbanSketch sketch = getSketch(key);
+		return sketch == null ? 0 : sketch.estimate();
+	}
+
+	/**
+	 *
+	 * @param countryCode
+	 *            a country
+	 *
+	 * @return the estimated number of distinct IBANs of the country
+	 *
+	 * @throws IllegalStateException
+	 *             if IBANs are not grouped by country
+	 */
+	public long estimate(CountryCode countryCode) {
+		if (grouping != Grouping.COUNTRY) {
+			throw new IllegalStateException("IBANs are grouped by " + grouping);
+		}
+		return estimate(IbanRegistry.index(countryCode.name().charAt(0), countryCode.name().charAt(1)));
+	}
+
+	/**
+	 *
+	 * @param iban
+	 *            any IBAN of the group
+	 *
+	 * @return the key of the IBAN's group, {@link IbanBankRouter#INVALID_KEY} if it cannot be grouped
+	 */
+	public long keyOf(CharSequence iban) {
+		final long bankKey = IbanBankRouter.bankKey(iban);
+		return bankKey == IbanBankRouter.INVALID_KEY ? bankKey : keyOf(bankKey);
+	}
+
+	/**
+	 *
+	 * @param key
+	 *            a group key
+	 *
+	 * @return the country code or, for banks, country code and bank identifier, e.g. <code>DE37040044</code>
+	 */
+	public String getLabel(long key) {
+		if (grouping == Grouping.BANK) {
+			return IbanBankRouter.toString(key);
+		}
+		return new String(new char[] { (char) ('A' + key / LETTERS), (char) ('A' + key % LETTERS) });
+	}
+
+	/**
+	 * Writes all sketches in a binary format that can be read by {@link #read(InputStream)}.
+	 *
+	 * @param out
+	 *            target stream, will not be closed
+	 *
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeByte(grouping.ordinal());
+		data.writeByte(precision);
+		final long[] keys = getKeys();
+		data.writeInt(keys.length);
+		for (long key : keys) {
+			data.writeLong(key);
+			getSketch(key).writeRegisters(data);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Reads a family written by {@link #writeTo(OutputStream)}.
+	 *
+	 * @param in
+	 *            source stream, will not be closed
+	 *
+	 * @return the family
+	 *
+	 * @throws IOException
+	 *             if reading fails or the stream does not contain a sketch family
+	 */
+	public static IbanSketchFamily read(InputStream in) throws IOException {
+		final DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not an IBAN sketch family");
+		}
+		final int version = data.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported IBAN sketch family version " + version);
+		}
+		final int grouping = data.readUnsignedByte();
+		final int precision = data.readUnsignedByte();
+		if (grouping >= Grouping.values().length || precision < IbanSketch.MIN_PRECISION
+				|| precision > IbanSketch.MAX_PRECISION) {
+			throw new IOException("Corrupt IBAN sketch family header");
+		}
+
+		final IbanSketchFamily family = new IbanSketchFamily(Grouping.values()[grouping], precision);
+		final int count = data.readInt();
+		for (int i = 0; i < count; i++) {
+			final long key = data.readLong();
+			final IbanSketch sketch = IbanSketch.readRegisters(data);
+			if (sketch.getPrecision() != precision) {
+				throw new IOException("Corrupt IBAN sketch family: mixed precisions");
+			}
+			family.indexes.put(key, family.sketches.size());
+			family.sketches.add(sketch);
+		}
+		return family;
+	}
+
+	private long keyOf(final long bankKey) {
+		return grouping == Grouping.BANK ? bankKey : IbanBankRouter.countryIndex(bankKey);
+	}
+
+	private IbanSketch sketch(final long key) {
+		int index = indexes.get(key);
+		if (index == LongIntMap.MISSING) {
+			index = sketches.size();
+			sketches.add(new IbanSketch(precision));
+			indexes.put(key, index);
+		}
+		return sketches.get(index);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel MSD radix sort of large IBAN batches in their natural order, i.e. by country code, then BBAN, then check
+ * digits.
+ *
+ * <p>
+ * IBANs are sorted as {@link PackedIban packed records}, one byte position at a time, without ever comparing strings.
+ * Large buckets are distributed by one byte and their sub-buckets sorted concurrently in the common
+ * {@link ForkJoinPool}; buckets below {@value #PARALLEL_THRESHOLD} records are finished sequentially. Since IBANs of
+ * the same country share their first bytes, even batches dominated by a single country split up after a few bytes.
+ * </p>
+ *
+ * <p>
+ * Sorting {@link Iban} objects needs {@value #KEYED_RECORD_LENGTH} bytes of temporary memory per IBAN. The sort is
+ * stable.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanSort {
+
+	/** Buckets smaller than this are sorted by a single thread. */
+	static final int PARALLEL_THRESHOLD = 1 << 14;
+
+	/**
+	 * A packed IBAN followed by its check digits, which packed IBANs do not store but which break ties between IBANs
+	 * with check digit aliases, and its big-endian index in the original array.
+	 */
+	private static final int KEYED_RECORD_LENGTH = PackedIban.RECORD_LENGTH + 1 + 4;
+
+	private static final int INDEX_OFFSET = PackedIban.RECORD_LENGTH + 1;
+
+	private IbanSort() {
+		// static helper
+	}
+
+	/**
+	 * Sorts the supplied IBANs.
+	 *
+	 * @param ibans
+	 *            the IBANs, must not contain <code>null</code> elements
+	 */
+	public static void sort(Iban[] ibans) {
+		sort(ibans, 0, ibans.length);
+	}
+
+	/**
+	 * Sorts the IBANs with indexes <code>from</code> (inclusive) to <code>to</code> (exclusive).
+	 *
+	 * @param ibans
+	 *            the IBANs, must not contain <code>null</code> elements in the range to be sorted
+	 * @param from
+	 *            index of the first IBAN to sort
+	 * @param to
+	 *            index after the last IBAN to sort
+	 */
+	public static void sort(Iban[] ibans, int from, int to) {
+		final int count = to - from;
+		if ((long) count * KEYED_RECORD_LENGTH > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many IBANs to sort at once: " + count);
+		}
+
+		final byte[] records = new byte[count * KEYED_RECORD_LENGTH];
+		for (int i = 0; i < count; i++) {
+			final int offset = i * KEYED_RECORD_LENGTH;
+			final Iban iban = ibans[from + i];
+			PackedIban.pack(iban, records, offset);
+			records[offset + PackedIban.RECORD_LENGTH] = (byte) Integer.parseInt(iban.getChecksum());
+			records[offset + INDEX_OFFSET] = (byte) (i >>> 24);
+			records[offset + INDEX_OFFSET + 1] = (byte) (i >>> 16);
+			records[offset + INDEX_OFFSET + 2] = (byte) (i >>> 8);
+			records[offset + INDEX_OFFSET + 3] = (byte) i;
+		}
+
+		sort(records, count, KEYED_RECORD_LENGTH);
+
+		final Iban[] sorted = new Iban[count];
+		for (int i = 0; i < count; i++) {
+			final int offset = i * KEYED_RECORD_LENGTH + INDEX_OFFSET;
+			final int index = (records[offset] & 0xFF) << 24 | (records[offset + 1] & 0xFF) << 16
+					| (records[offset + 2] & 0xFF) << 8 | (records[offset + 3] & 0xFF);
+			sorted[i] = ibans[from + index];
+		}
+		System.arraycopy(sorted, 0, ibans, from, count);
+	}
+
+	/**
+	 * Sorts packed IBANs in place.
+	 *
+	 * @param records
+	 *            {@link PackedIban packed IBANs}, back to back
+	 * @param count
+	 *            the number of records to sort, starting at index <code>0</code>
+	 */
+	public static void sortPacked(byte[] records, int count) {
+		sort(records, count, PackedIban.RECORD_LENGTH);
+	}
+
+	private static void sort(final byte[] records, final int count, final int recordLength) {
+		if (count < PARALLEL_THRESHOLD) {
+			new RecordSort(recordLength).sort(records, count);
+		} else {
+			ForkJoinPool.commonPool().invoke(new RadixTask(records, 0, count, 0, recordLength));
+		}
+	}
+
+	/**
+	 * Distributes a large bucket by one byte and sorts the resulting buckets concurrently.
+	 */
+	private static final class RadixTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] records;
+
+		private final int from;
+
+		private final int to;
+
+		private final int depth;
+
+		private final int recordLength;
+
+		RadixTask(final byte[] records, final int from, final int to, final int depth, final int recordLength) {
+			this.records = records;
+			this.from = from;
+			this.to = to;
+			this.depth = depth;
+			this.recordLength = recordLength;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from < PARALLEL_THRESHOLD) {
+				new RecordSort(recordLength).sort(records, from, to, depth);
+				return;
+			}
+
+			final int[] end = new int[RecordSort.RADIX];
+			RecordSort.distribute(records, from, to, depth, recordLength, end, new int[RecordSort.RADIX],
+					new byte[recordLength]);
+			if (depth + 1 == recordLength) {
+				return;
+			}
+
+			final List<RadixTask> buckets = new ArrayList<>();
+			int start = from;
+			for (int b = 0; b < RecordSort.RADIX; b++) {
+				if (end[b] - start > 1) {
+					buckets.add(new RadixTask(records, start, end[b], depth + 1, recordLength));
+				}
+				start = end[b];
+			}
+			invokeAll(buckets);
+		}
+	}
+}
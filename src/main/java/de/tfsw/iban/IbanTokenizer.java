@@ -0,0 +1,292 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Replaces IBANs by deterministic, structurally valid tokens, e.g. when copying production data into test
+ * environments.
+ *
+ * <p>
+ * A token has the same country, length and BBAN format as the original IBAN and correct MOD97-10 check digits. Each
+ * BBAN segment (national prefix, bank identifier, branch identifier, account number) is tokenized on its own,
+ * character by character within the character class its pattern allows at that position: digits stay digits, letters
+ * stay letters. Accounts of the same bank therefore keep sharing one bank token, and joins on IBANs, banks or branches
+ * still work on tokenized data.
+ * </p>
+ *
+ * <p>
+ * Tokenization is keyed and reversible: two passes over each segment, forward and backward, shift every character by
+ * a SipHash-2-4 keystream that depends on the key, the country, the segment and all characters processed before it.
+ * Every token character thus depends on every character of its segment, and distinct IBANs always get distinct tokens.
+ * This is a pseudonymization scheme for test data, not a standardized format-preserving encryption such as FF1.
+ * </p>
+ *
+ * <p>
+ * Objects of this class are immutable and thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanTokenizer {
+
+	/** Minimum key length in bytes. */
+	public static final int KEY_LENGTH = 16;
+
+	private static final int MAX_IBAN_LENGTH = 34;
+
+	private static final int BBAN_START = 4;
+
+	private static final int SEGMENTS = 4;
+
+	private static final int CHUNK_SIZE = 4096;
+
+	private final long k0;
+
+	private final long k1;
+
+	/**
+	 * Creates a new tokenizer.
+	 *
+	 * @param key
+	 *            the secret key, at least {@value #KEY_LENGTH} bytes; only the first 16 bytes are used
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the key is too short
+	 */
+	public IbanTokenizer(byte[] key) {
+		super();
+		if (key == null || key.length < KEY_LENGTH) {
+			throw new IllegalArgumentException("Key must have at least " + KEY_LENGTH + " bytes");
+		}
+		this.k0 = littleEndian(key, 0);
+		this.k1 = littleEndian(key, 8);
+	}
+
+	/**
+	 * Tokenizes an IBAN.
+	 *
+	 * @param iban
+	 *            a valid IBAN, may contain whitespace
+	 *
+	 * @return the machine-readable token
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the IBAN is invalid
+	 */
+	public String tokenize(CharSequence iban) {
+		final String token = transform(iban, new char[MAX_IBAN_LENGTH], true);
+		if (token == null) {
+			throw new IllegalArgumentException("Invalid IBAN: " + iban);
+		}
+		return token;
+	}
+
+	/**
+	 * Tokenizes an IBAN.
+	 *
+	 * @param iban
+	 *            the IBAN
+	 *
+	 * @return the token
+	 */
+	public Iban tokenize(Iban iban) {
+		return new Iban(tokenize(iban.toString()));
+	}
+
+	/**
+	 * Restores the IBAN a token has been created from.
+	 *
+	 * @param token
+	 *            a token created with the same key
+	 *
+	 * @return the machine-readable IBAN
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the token is not a valid IBAN
+	 */
+	public String detokenize(CharSequence token) {
+		final String iban = transform(token, new char[MAX_IBAN_LENGTH], false);
+		if (iban == null) {
+			throw new IllegalArgumentException("Invalid token: " + token);
+		}
+		return iban;
+	}
+
+	/**
+	 * Tokenizes many IBANs in parallel on the common {@link java.util.concurrent.ForkJoinPool}.
+	 *
+	 * @param ibans
+	 *            the IBANs, may contain whitespace and <code>null</code> elements
+	 * @param tokens
+	 *            receives the token of each IBAN at the same index, <code>null</code> for invalid IBANs
+	 *
+	 * @return the number of IBANs tokenized
+	 */
+	public int tokenizeAll(CharSequence[] ibans, String[] tokens) {
+		final int chunks = (ibans.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		return IntStream.range(0, chunks).parallel().map(chunk -> {
+			final char[] buffer = new char[MAX_IBAN_LENGTH];
+			int tokenized = 0;
+			for (int i = chunk * CHUNK_SIZE; i < Math.min(ibans.length, (chunk + 1) * CHUNK_SIZE); i++) {
+				tokens[i] = transform(ibans[i], buffer, true);
+				if (tokens[i] != null) {
+					tokenized++;
+				}
+			}
+			return tokenized;
+		}).sum();
+	}
+
+	/**
+	 * Tokenizes many IBANs in parallel.
+	 *
+	 * @param ibans
+	 *            the IBANs, may contain whitespace and <code>null</code> elements
+	 *
+	 * @return the token of each IBAN at the same index, <code>null</code> for invalid IBANs
+	 *
+	 * @see #tokenizeAll(CharSequence[], String[])
+	 */
+	public List<String> tokenizeAll(List<? extends CharSequence> ibans) {
+		final CharSequence[] array = ibans.toArray(new CharSequence[ibans.size()]);
+		final String[] tokens = new String[array.length];
+		tokenizeAll(array, tokens);
+		return Arrays.asList(tokens);
+	}
+
+	/**
+	 * Tokenizes or restores a valid IBAN.
+	 *
+	 * @return the result or <code>null</code> if the IBAN is invalid
+	 */
+	private String transform(final CharSequence iban, final char[] chars, final boolean forward) {
+		final int length = IbanBatchValidator.flatten(iban, chars);
+		if (length < 0 || !IbanBatchValidator.checkStructure(chars, length)
+				|| Mod97.ibanRemainder(chars, 0, length) != 1) {
+			return null;
+		}
+
+		final CountrySpec spec = IbanRegistry.getDefault().lookup(chars[0], chars[1]);
+		final long country = chars[0] << 16 | chars[1];
+		final int[] offsets = { spec.getBbanPrefixLength() > 0 ? 0 : -1, spec.getBankIdentifierOffset(),
+				spec.getBranchIdentifierLength() > 0 ? spec.getBranchIdentifierOffset() : -1,
+				spec.getAccountNumberOffset() };
+		final int[] lengths = { spec.getBbanPrefixLength(), spec.getBankIdentifierLength(),
+				spec.getBranchIdentifierLength(), spec.getAccountNumberLength() };
+		for (int segment = 0; segment < SEGMENTS; segment++) {
+			if (offsets[segment] >= 0) {
+				final long tweak = country << 32 | segment << 8;
+				if (forward) {
+					shift(chars, spec, offsets[segment], lengths[segment], tweak, true, true);
+					shift(chars, spec, offsets[segment], lengths[segment], tweak | 1, false, true);
+				} else {
+					shift(chars, spec, offsets[segment], lengths[segment], tweak | 1, false, false);
+					shift(chars, spec, offsets[segment], lengths[segment], tweak, true, false);
+				}
+			}
+		}
+
+		final long acc = Mod97.update(0L, chars, BBAN_START, length);
+		final int checkDigits = Mod97.checkDigits(acc, chars[0], chars[1]);
+		chars[2] = (char) ('0' + checkDigits / 10);
+		chars[3] = (char) ('0' + checkDigits % 10);
+		return new String(chars, 0, length);
+	}
+
+	/**
+	 * One pass over a segment: each character is shifted within its class by a keystream value, which is chained
+	 * through the characters before the shift, so that the pass can be undone in the same direction.
+	 *
+	 * @param ascending
+	 *            direction of the pass
+	 * @param encrypt
+	 *            <code>true</code> to apply, <code>false</code> to undo the pass
+	 */
+	private void shift(final char[] chars, final CountrySpec spec, final int offset, final int length, final long tweak,
+			final boolean ascending, final boolean encrypt) {
+		long state = SipHash.hash(k0, k1, tweak, length);
+		for (int n = 0; n < length; n++) {
+			final int position = ascending ? offset + n : offset + length - 1 - n;
+			final int charClass = spec.getCharClass(position);
+			final int radix = radix(charClass);
+			final int index = indexOf(chars[BBAN_START + position], charClass);
+			final int delta = (int) Long.remainderUnsigned(state, radix);
+
+			final int plain = encrypt ? index : Math.floorMod(index - delta, radix);
+			chars[BBAN_START + position] = charAt(encrypt ? (index + delta) % radix : plain, charClass);
+			state = SipHash.hash(k0, k1, state, plain);
+		}
+	}
+
+	/**
+	 * @return the number of characters of a character class
+	 */
+	private static int radix(final int charClass) {
+		return ((charClass & SegmentPattern.DIGIT) != 0 ? 10 : 0) + ((charClass & SegmentPattern.UPPER) != 0 ? 26 : 0)
+				+ ((charClass & SegmentPattern.LOWER) != 0 ? 26 : 0);
+	}
+
+	/**
+	 * @return the index of a character within its class: digits, then upper-case, then lower-case letters
+	 */
+	private static int indexOf(final char c, final int charClass) {
+		int base = 0;
+		if ((charClass & SegmentPattern.DIGIT) != 0) {
+			if (c <= '9') {
+				return c - '0';
+			}
+			base += 10;
+		}
+		if ((charClass & SegmentPattern.UPPER) != 0) {
+			if (c <= 'Z') {
+				return base + c - 'A';
+			}
+			base += 26;
+		}
+		return base + c - 'a';
+	}
+
+	/**
+	 * @see #indexOf(char, int)
+	 */
+	private static char charAt(int index, final int charClass) {
+		if ((charClass & SegmentPattern.DIGIT) != 0) {
+			if (index < 10) {
+				return (char) ('0' + index);
+			}
+			index -= 10;
+		}
+		if ((charClass & SegmentPattern.UPPER) != 0) {
+			if (index < 26) {
+				return (char) ('A' + index);
+			}
+			index -= 26;
+		}
+		return (char) ('a' + index);
+	}
+
+	private static long littleEndian(final byte[] bytes, final int offset) {
+		long value = 0L;
+		for (int i = 7; i >= 0; i--) {
+			value = value << 8 | (bytes[offset + i] & 0xFF);
+		}
+		return value;
+	}
+}
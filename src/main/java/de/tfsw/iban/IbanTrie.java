@@ -0,0 +1,971 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * A compressed radix trie mapping IBANs to values, answering prefix queries by country, bank and branch.
+ *
+ * <p>
+ * Keys are derived from IBANs by dropping the check digits and reordering the BBAN segments of the country's
+ * {@link CountrySpec} to country code, bank identifier, branch identifier, national prefix and account number. Every
+ * question of the form "all accounts at bank X" or "any account under branch Y" is thus a key prefix, aligned to the
+ * segment boundaries defined by {@link CountryCode}. Letters are folded to upper case, so each key character is one
+ * of 36 symbols.
+ * </p>
+ *
+ * <p>
+ * In the spirit of an adaptive radix tree, inner nodes store the path shared by all their keys only once and come in
+ * two layouts: nodes with up to 16 children keep a sorted array of exactly as many symbols and children as needed,
+ * larger nodes index their children directly by symbol. Each node knows the number of IBANs below it, so prefix counts
+ * take a single descent. Leaves only keep the part of the key below their parent, packed into a <code>long</code> if
+ * short enough. One million German IBANs of 2,000 banks retain about 68 bytes per IBAN on a 64 bit JVM with
+ * compressed references, a {@link java.util.TreeMap} of their strings about 104 bytes (measured with
+ * <code>de.tfsw.ibanlib.stress.TrieFootprint</code> of the test sources).
+ * </p>
+ *
+ * <p>
+ * Nodes are immutable: every change copies the path from the root to the changed leaf and then publishes the new
+ * root. Any number of threads may therefore read while one thread writes, and each read sees a consistent snapshot.
+ * Writes are serialized.
+ * </p>
+ *
+ * @param <V>
+ *            type of the values
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanTrie<V> {
+
+	/**
+	 * The segments an IBAN shares with others in a prefix query.
+	 */
+	public enum Level {
+
+		/** Same country. */
+		COUNTRY,
+
+		/** Same country and bank identifier. */
+		BANK,
+
+		/** Same country, bank and branch identifier. */
+		BRANCH
+	}
+
+	private static final int MAX_IBAN_LENGTH = 34;
+
+	private static final int COUNTRY_LENGTH = 2;
+
+	/** Letters and digits. */
+	private static final int SYMBOLS = 36;
+
+	/** Ends every key, so that no key is a prefix of another one even if a country's BBAN length changes. */
+	private static final byte TERMINATOR = SYMBOLS;
+
+	private static final int MAX_SMALL_NODE_SIZE = 16;
+
+	private static final byte[] NO_SYMBOLS = new byte[0];
+
+	private final Object writeLock = new Object();
+
+	private volatile Node root;
+
+	/** Value replaced or removed by the last write. */
+	private Object previous;
+
+	/**
+	 * Creates an empty trie.
+	 */
+	public IbanTrie() {
+		super();
+	}
+
+	/**
+	 *
+	 * @return the number of IBANs
+	 */
+	public int size() {
+		final Node node = root;
+		return node == null ? 0 : node.size();
+	}
+
+	/**
+	 * Adds or replaces an IBAN.
+	 *
+	 * @param iban
+	 *            the IBAN, may contain whitespace
+	 * @param value
+	 *            the value
+	 *
+	 * @return the previous value of the IBAN, <code>null</code> if there was none
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the IBAN is invalid
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(CharSequence iban, V value) {
+		final Leaf leaf = Leaf.of(iban, value);
+		if (leaf == null) {
+			throw new IllegalArgumentException("Invalid IBAN: " + iban);
+		}
+		synchronized (writeLock) {
+			previous = null;
+			root = insert(root, leaf, 0);
+			return (V) previous;
+		}
+	}
+
+	/**
+	 * Adds or replaces an IBAN.
+	 *
+	 * @param iban
+	 *            the IBAN
+	 * @param value
+	 *            the value
+	 *
+	 * @return the previous value of the IBAN, <code>null</code> if there was none
+	 */
+	public V put(Iban iban, V value) {
+		return put(iban.toString(), value);
+	}
+
+	/**
+	 * Removes an IBAN.
+	 *
+	 * @param iban
+	 *            the IBAN, may contain whitespace
+	 *
+	 * @return the value of the IBAN, <code>null</code> if it was not contained
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(CharSequence iban) {
+		final byte[] key = new byte[MAX_IBAN_LENGTH];
+		final int length = key(iban, key, null);
+		if (length < 0) {
+			return null;
+		}
+		synchronized (writeLock) {
+			previous = null;
+			root = delete(root, key, length, 0);
+			return (V) previous;
+		}
+	}
+
+	/**
+	 *
+	 * @param iban
+	 *            the IBAN, may contain whitespace
+	 *
+	 * @return the value of the IBAN, <code>null</code> if it is not contained
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(CharSequence iban) {
+		final byte[] key = new byte[MAX_IBAN_LENGTH];
+		final int length = key(iban, key, null);
+		if (length < 0) {
+			return null;
+		}
+		final int[] start = new int[1];
+		final Node node = find(root, key, length, start);
+		return node instanceof Leaf && start[0] + ((Leaf) node).length == length ? (V) ((Leaf) node).value : null;
+	}
+
+	/**
+	 *
+	 * @param iban
+	 *            the IBAN, may contain whitespace
+	 *
+	 * @return <code>true</code> if the IBAN is contained
+	 */
+	public boolean contains(CharSequence iban) {
+		final byte[] key = new byte[MAX_IBAN_LENGTH];
+		final int length = key(iban, key, null);
+		if (length < 0) {
+			return false;
+		}
+		final int[] start = new int[1];
+		final Node node = find(root, key, length, start);
+		return node instanceof Leaf && start[0] + ((Leaf) node).length == length;
+	}
+
+	/**
+	 * Counts the IBANs of a country, bank or branch.
+	 *
+	 * @param country
+	 *            the country code
+	 * @param bankIdentifier
+	 *            the bank identifier, <code>null</code> to count the whole country
+	 * @param branchIdentifier
+	 *            the branch identifier, <code>null</code> to count the whole bank
+	 *
+	 * @return the number of IBANs
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the country is unknown or an identifier does not have the length defined for the country
+	 */
+	public int count(String country, CharSequence bankIdentifier, CharSequence branchIdentifier) {
+		final byte[] prefix = prefix(country, bankIdentifier, branchIdentifier);
+		final Node node = find(root, prefix, prefix.length, null);
+		return node == null ? 0 : node.size();
+	}
+
+	/**
+	 * Counts the IBANs sharing country, bank or branch with the supplied one.
+	 *
+	 * @param iban
+	 *            any IBAN, need not be contained
+	 * @param level
+	 *            the segments to share
+	 *
+	 * @return the number of IBANs, including the supplied one if contained
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the IBAN is invalid
+	 */
+	public int count(CharSequence iban, Level level) {
+		final byte[] prefix = prefix(iban, level);
+		final Node node = find(root, prefix, prefix.length, null);
+		return node == null ? 0 : node.size();
+	}
+
+	/**
+	 * Visits the IBANs of a country, bank or branch in key order, i.e. ordered by bank, branch and account.
+	 *
+	 * @param country
+	 *            the country code
+	 * @param bankIdentifier
+	 *            the bank identifier, <code>null</code> to visit the whole country
+	 * @param branchIdentifier
+	 *            the branch identifier, <code>null</code> to visit the whole bank
+	 * @param action
+	 *            receives each machine-readable IBAN and its value
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the country is unknown or an identifier does not have the length defined for the country
+	 */
+	public void forEach(String country, CharSequence bankIdentifier, CharSequence branchIdentifier,
+			BiConsumer<String, ? super V> action) {
+		final byte[] prefix = prefix(country, bankIdentifier, branchIdentifier);
+		visit(prefix, action);
+	}
+
+	/**
+	 * Visits the IBANs sharing country, bank or branch with the supplied one, in key order.
+	 *
+	 * @param iban
+	 *            any IBAN, need not be contained
+	 * @param level
+	 *            the segments to share
+	 * @param action
+	 *            receives each machine-readable IBAN and its value
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the IBAN is invalid
+	 */
+	public void forEach(CharSequence iban, Level level, BiConsumer<String, ? super V> action) {
+		final byte[] prefix = prefix(iban, level);
+		visit(prefix, action);
+	}
+
+	/**
+	 * Visits all IBANs, ordered by country, bank, branch and account.
+	 *
+	 * @param action
+	 *            receives each machine-readable IBAN and its value
+	 */
+	public void forEach(BiConsumer<String, ? super V> action) {
+		visit(root, new byte[MAX_IBAN_LENGTH], 0, action);
+	}
+
+	/**
+	 * Converts an IBAN into a key.
+	 *
+	 * @param segments
+	 *            if not <code>null</code>, receives the lengths of bank plus branch identifier and of the national
+	 *            prefix
+	 *
+	 * @return the length of the key including the terminator, <code>-1</code> if the IBAN is structurally invalid
+	 */
+	private static int key(final CharSequence iban, final byte[] key, final int[] segments) {
+		final char[] flat = new char[MAX_IBAN_LENGTH];
+		final int length = IbanBatchValidator.flatten(iban, flat);
+		if (length < 0 || !IbanBatchValidator.checkStructure(flat, length)) {
+			return -1;
+		}
+
+		final CountrySpec spec = IbanRegistry.getDefault().lookup(flat[0], flat[1]);
+		final int bankAndBranch = spec.getBankIdentifierLength() + spec.getBranchIdentifierLength();
+		int position = 0;
+		key[position++] = symbol(flat[0]);
+		key[position++] = symbol(flat[1]);
+		position = copy(flat, 4 + spec.getBankIdentifierOffset(), bankAndBranch, key, position);
+		position = copy(flat, 4, spec.getBbanPrefixLength(), key, position);
+		position = copy(flat, 4 + spec.getAccountNumberOffset(), spec.getAccountNumberLength(), key, position);
+		key[position++] = TERMINATOR;
+
+		if (segments != null) {
+			segments[0] = bankAndBranch;
+			segments[1] = spec.getBbanPrefixLength();
+		}
+		return position;
+	}
+
+	private static int copy(final char[] from, final int offset, final int length, final byte[] to, int position) {
+		for (int i = offset; i < offset + length; i++) {
+			to[position++] = symbol(from[i]);
+		}
+		return position;
+	}
+
+	private static byte[] prefix(final CharSequence iban, final Level level) {
+		final byte[] key = new byte[MAX_IBAN_LENGTH];
+		if (key(iban, key, null) < 0) {
+			throw new IllegalArgumentException("Invalid IBAN: " + iban);
+		}
+		final CountrySpec spec = IbanRegistry.getDefault().lookup((char) ('A' + key[0] - 10),
+				(char) ('A' + key[1] - 10));
+		int length = COUNTRY_LENGTH;
+		if (level != Level.COUNTRY) {
+			length += spec.getBankIdentifierLength();
+		}
+		if (level == Level.BRANCH) {
+			length += spec.getBranchIdentifierLength();
+		}
+		return Arrays.copyOf(key, length);
+	}
+
+	private static byte[] prefix(final String country, final CharSequence bank, final CharSequence branch) {
+		final CountrySpec spec = IbanRegistry.getDefault().lookup(country);
+		if (spec == null) {
+			throw new IllegalArgumentException("Unknown country: " + country);
+		} else if (bank != null && bank.length() != spec.getBankIdentifierLength()) {
+			throw new IllegalArgumentException(String.format("Bank identifiers of %s have %d characters: %s",
+					country, spec.getBankIdentifierLength(), bank));
+		} else if (branch != null && (bank == null || branch.length() != spec.getBranchIdentifierLength())) {
+			throw new IllegalArgumentException(String.format(
+					"Branch identifiers of %s have %d characters and require a bank identifier: %s", country,
+					spec.getBranchIdentifierLength(), branch));
+		}
+
+		final byte[] prefix = new byte[COUNTRY_LENGTH + (bank == null ? 0 : bank.length())
+				+ (branch == null ? 0 : branch.length())];
+		int position = 0;
+		prefix[position++] = symbol(country.charAt(0));
+		prefix[position++] = symbol(country.charAt(1));
+		for (int i = 0; bank != null && i < bank.length(); i++) {
+			prefix[position++] = symbol(bank.charAt(i));
+		}
+		for (int i = 0; branch != null && i < branch.length(); i++) {
+			prefix[position++] = symbol(branch.charAt(i));
+		}
+		return prefix;
+	}
+
+	/**
+	 * @return <code>0</code> to <code>35</code> for digits and letters of either case, <code>-1</code> otherwise
+	 */
+	private static byte symbol(final char c) {
+		if (c >= '0' && c <= '9') {
+			return (byte) (c - '0');
+		} else if (c >= 'A' && c <= 'Z') {
+			return (byte) (c - 'A' + 10);
+		} else if (c >= 'a' && c <= 'z') {
+			return (byte) (c - 'a' + 10);
+		}
+		return -1;
+	}
+
+	private static char character(final byte symbol) {
+		return symbol < 10 ? (char) ('0' + symbol) : (char) ('A' + symbol - 10);
+	}
+
+	/**
+	 * Descends along the supplied key prefix.
+	 *
+	 * @param start
+	 *            if not <code>null</code>, receives the depth at which the path of the returned node begins
+	 *
+	 * @return the node below which all keys start with the prefix, <code>null</code> if there is none
+	 */
+	private static Node find(Node node, final byte[] prefix, final int length, final int[] start) {
+		int depth = 0;
+		while (node != null) {
+			if (start != null) {
+				start[0] = depth;
+			}
+			if (node instanceof Leaf) {
+				final Leaf leaf = (Leaf) node;
+				if (depth + leaf.length < length) {
+					return null;
+				}
+				for (int i = depth; i < length; i++) {
+					if (leaf.symbol(i - depth) != prefix[i]) {
+						return null;
+					}
+				}
+				return node;
+			}
+
+			final Inner inner = (Inner) node;
+			for (int i = 0; i < inner.prefix.length && depth < length; i++, depth++) {
+				if (inner.prefix[i] != prefix[depth]) {
+					return null;
+				}
+			}
+			if (depth == length) {
+				return node;
+			}
+			node = inner.child(prefix[depth++]);
+		}
+		return null;
+	}
+
+	/**
+	 * @param leaf
+	 *            the leaf of the complete key
+	 * @param depth
+	 *            the depth at which the path of the node begins
+	 */
+	private Node insert(final Node node, final Leaf leaf, final int depth) {
+		if (node == null) {
+			return leaf.below(depth);
+		}
+
+		if (node instanceof Leaf) {
+			final Leaf existing = (Leaf) node;
+			int common = 0;
+			while (common < existing.length && depth + common < leaf.length
+					&& existing.symbol(common) == leaf.symbol(depth + common)) {
+				common++;
+			}
+			if (common == existing.length && depth + common == leaf.length) {
+				previous = existing.value;
+				return leaf.below(depth);
+			}
+			return Inner.of(leaf.path(depth, depth + common), existing.symbol(common), existing.below(common + 1),
+					leaf.symbol(depth + common), leaf.below(depth + common + 1));
+		}
+
+		final Inner inner = (Inner) node;
+		int common = 0;
+		while (common < inner.prefix.length && inner.prefix[common] == leaf.symbol(depth + common)) {
+			common++;
+		}
+		if (common < inner.prefix.length) {
+			final Inner shortened = inner.withPrefix(path(inner.prefix, common + 1, inner.prefix.length));
+			return Inner.of(path(inner.prefix, 0, common), inner.prefix[common], shortened,
+					leaf.symbol(depth + common), leaf.below(depth + common + 1));
+		}
+
+		final int next = depth + common;
+		final byte symbol = leaf.symbol(next);
+		return inner.withChild(symbol, insert(inner.child(symbol), leaf, next + 1));
+	}
+
+	private Node delete(final Node node, final byte[] key, final int length, final int depth) {
+		if (node == null) {
+			return null;
+		} else if (node instanceof Leaf) {
+			final Leaf leaf = (Leaf) node;
+			if (depth + leaf.length == length && leaf.matches(key, depth)) {
+				previous = leaf.value;
+				return null;
+			}
+			return node;
+		}
+
+		final Inner inner = (Inner) node;
+		for (int i = 0; i < inner.prefix.length; i++) {
+			if (depth + i >= length || inner.prefix[i] != key[depth + i]) {
+				return node;
+			}
+		}
+		final int next = depth + inner.prefix.length;
+		final byte symbol = key[next];
+		final Node child = inner.child(symbol);
+		final Node changed = delete(child, key, length, next + 1);
+		if (changed == child) {
+			return node;
+		} else if (changed != null) {
+			return inner.withChild(symbol, changed);
+		}
+
+		final Inner reduced = inner.withoutChild(symbol);
+		if (reduced.childCount() > 1) {
+			return reduced;
+		}
+
+		// a single child remains: merge it into this node's path
+		final byte remainingSymbol = reduced.symbolAt(0);
+		final Node remaining = reduced.childAt(0);
+		if (remaining instanceof Leaf) {
+			return ((Leaf) remaining).above(inner.prefix, remainingSymbol);
+		}
+		final Inner remainingInner = (Inner) remaining;
+		final byte[] merged = Arrays.copyOf(inner.prefix, inner.prefix.length + 1 + remainingInner.prefix.length);
+		merged[inner.prefix.length] = remainingSymbol;
+		System.arraycopy(remainingInner.prefix, 0, merged, inner.prefix.length + 1, remainingInner.prefix.length);
+		return remainingInner.withPrefix(merged);
+	}
+
+	private void visit(final byte[] prefix, final BiConsumer<String, ? super V> action) {
+		final int[] start = new int[1];
+		final Node node = find(root, prefix, prefix.length, start);
+		visit(node, Arrays.copyOf(prefix, MAX_IBAN_LENGTH), start[0], action);
+	}
+
+	/**
+	 * @param path
+	 *            holds the symbols above the node, receives those of the node and its descendants
+	 * @param depth
+	 *            the depth at which the path of the node begins
+	 */
+	@SuppressWarnings("unchecked")
+	private void visit(final Node node, final byte[] path, final int depth,
+			final BiConsumer<String, ? super V> action) {
+		if (node == null) {
+			return;
+		} else if (node instanceof Leaf) {
+			final Leaf leaf = (Leaf) node;
+			for (int i = 0; i < leaf.length; i++) {
+				path[depth + i] = leaf.symbol(i);
+			}
+			action.accept(leaf.toIban(path, depth + leaf.length), (V) leaf.value);
+			return;
+		}
+
+		final Inner inner = (Inner) node;
+		System.arraycopy(inner.prefix, 0, path, depth, inner.prefix.length);
+		final int next = depth + inner.prefix.length;
+		for (byte symbol = 0; symbol <= TERMINATOR; symbol++) {
+			final Node child = inner.child(symbol);
+			if (child != null) {
+				path[next] = symbol;
+				visit(child, path, next + 1, action);
+			}
+		}
+	}
+
+	/**
+	 * @return the symbols of a path, sharing a single instance for empty ones
+	 */
+	private static byte[] path(final byte[] symbols, final int from, final int to) {
+		return from == to ? NO_SYMBOLS : Arrays.copyOfRange(symbols, from, to);
+	}
+
+	/**
+	 * A node of the trie, knowing the number of IBANs below it.
+	 */
+	private abstract static class Node {
+
+		abstract int size();
+	}
+
+	/**
+	 * A single IBAN with the part of its key below the parent's path and child symbol. Up to
+	 * {@value #MAX_PACKED} symbols are packed into a <code>long</code>, so for most leaves no array is needed.
+	 */
+	private static final class Leaf extends Node {
+
+		static final int MAX_PACKED = 10;
+
+		private static final int BITS_PER_SYMBOL = 6;
+
+		private static final long SYMBOL_MASK = (1L << BITS_PER_SYMBOL) - 1;
+
+		/** Symbols before the terminator if more than {@value #MAX_PACKED}, <code>null</code> otherwise. */
+		private final byte[] symbols;
+
+		/** Symbols before the terminator if at most {@value #MAX_PACKED}, the first one in the lowest bits. */
+		private final long packed;
+
+		/**
+		 * Number of symbols including the terminator, <code>0</code> if the parent's child symbol was the terminator.
+		 */
+		final byte length;
+
+		/** Length of bank plus branch identifier. */
+		final byte bankAndBranch;
+
+		/** Length of the national prefix. */
+		final byte bbanPrefix;
+
+		final Object value;
+
+		/**
+		 * @param source
+		 *            holds the symbols before the terminator from <code>offset</code> on
+		 */
+		private Leaf(final byte[] source, final int offset, final int length, final int bankAndBranch,
+				final int bbanPrefix, final Object value) {
+			final int stored = Math.max(length - 1, 0);
+			if (stored > MAX_PACKED) {
+				this.symbols = Arrays.copyOfRange(source, offset, offset + stored);
+				this.packed = 0L;
+			} else {
+				long bits = 0L;
+				for (int i = 0; i < stored; i++) {
+					bits |= (long) source[offset + i] << (i * BITS_PER_SYMBOL);
+				}
+				this.symbols = null;
+				this.packed = bits;
+			}
+			this.length = (byte) length;
+			this.bankAndBranch = (byte) bankAndBranch;
+			this.bbanPrefix = (byte) bbanPrefix;
+			this.value = value;
+		}
+
+		/**
+		 * @return the leaf of the complete key or <code>null</code> if the IBAN is invalid
+		 */
+		static Leaf of(final CharSequence iban, final Object value) {
+			final char[] flat = new char[MAX_IBAN_LENGTH];
+			final int length = IbanBatchValidator.flatten(iban, flat);
+			if (length < 0 || !IbanBatchValidator.checkStructure(flat, length)
+					|| Mod97.ibanRemainder(flat, 0, length) != 1) {
+				return null;
+			}
+
+			final byte[] key = new byte[MAX_IBAN_LENGTH];
+			final int[] segments = new int[2];
+			final int keyLength = key(iban, key, segments);
+			return new Leaf(key, 0, keyLength, segments[0], segments[1], value);
+		}
+
+		@Override
+		int size() {
+			return 1;
+		}
+
+		/**
+		 * @param index
+		 *            less than {@link #length}
+		 */
+		byte symbol(final int index) {
+			if (index == length - 1) {
+				return TERMINATOR;
+			}
+			return symbols != null ? symbols[index]
+					: (byte) ((packed >>> (index * BITS_PER_SYMBOL)) & SYMBOL_MASK);
+		}
+
+		/**
+		 * @return <code>true</code> if the key holds the symbols of this leaf from <code>offset</code> on
+		 */
+		boolean matches(final byte[] key, final int offset) {
+			for (int i = 0; i < length; i++) {
+				if (symbol(i) != key[offset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return the symbols from <code>from</code> to <code>to</code>, exclusive
+		 */
+		byte[] path(final int from, final int to) {
+			if (from == to) {
+				return NO_SYMBOLS;
+			}
+			final byte[] path = new byte[to - from];
+			for (int i = from; i < to; i++) {
+				path[i - from] = symbol(i);
+			}
+			return path;
+		}
+
+		/**
+		 * @return a leaf holding the symbols of this one from <code>depth</code> on
+		 */
+		Leaf below(final int depth) {
+			if (depth == 0) {
+				return this;
+			}
+			return new Leaf(path(depth, length), 0, length - depth, bankAndBranch, bbanPrefix, value);
+		}
+
+		/**
+		 * @return a leaf holding the supplied path and symbol followed by the symbols of this one
+		 */
+		Leaf above(final byte[] prefix, final byte symbol) {
+			final byte[] path = Arrays.copyOf(prefix, prefix.length + 1 + length);
+			path[prefix.length] = symbol;
+			for (int i = 0; i < length; i++) {
+				path[prefix.length + 1 + i] = symbol(i);
+			}
+			return new Leaf(path, 0, path.length, bankAndBranch, bbanPrefix, value);
+		}
+
+		/**
+		 * Restores the machine-readable IBAN, recomputing the check digits.
+		 *
+		 * @param key
+		 *            the complete key of this leaf
+		 * @param keyLength
+		 *            its length including the terminator
+		 */
+		String toIban(final byte[] key, final int keyLength) {
+			final int bbanLength = keyLength - COUNTRY_LENGTH - 1;
+			final char[] chars = new char[4 + bbanLength];
+			chars[0] = character(key[0]);
+			chars[1] = character(key[1]);
+			int position = 4;
+			for (int i = COUNTRY_LENGTH + bankAndBranch; i < COUNTRY_LENGTH + bankAndBranch + bbanPrefix; i++) {
+				chars[position++] = character(key[i]);
+			}
+			for (int i = COUNTRY_LENGTH; i < COUNTRY_LENGTH + bankAndBranch; i++) {
+				chars[position++] = character(key[i]);
+			}
+			for (int i = COUNTRY_LENGTH + bankAndBranch + bbanPrefix; i < keyLength - 1; i++) {
+				chars[position++] = character(key[i]);
+			}
+
+			final long acc = Mod97.update(0L, chars, 4, chars.length);
+			final int checkDigits = Mod97.checkDigits(acc, chars[0], chars[1]);
+			chars[2] = (char) ('0' + checkDigits / 10);
+			chars[3] = (char) ('0' + checkDigits % 10);
+			return new String(chars);
+		}
+	}
+
+	/**
+	 * An inner node with a compressed path and at least two children.
+	 */
+	private abstract static class Inner extends Node {
+
+		/** Symbols shared by all keys below this node, after those of the parent's path and child symbol. */
+		final byte[] prefix;
+
+		private final int size;
+
+		Inner(final byte[] prefix, final int size) {
+			this.prefix = prefix;
+			this.size = size;
+		}
+
+		@Override
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Creates a node with two children.
+		 */
+		static Inner of(final byte[] prefix, final byte symbol1, final Node child1, final byte symbol2,
+				final Node child2) {
+			return symbol1 < symbol2 ? new SmallNode(prefix, new byte[] { symbol1, symbol2 }, new Node[] { child1,
+					child2 }) : new SmallNode(prefix, new byte[] { symbol2, symbol1 }, new Node[] { child2, child1 });
+		}
+
+		abstract Node child(byte symbol);
+
+		abstract int childCount();
+
+		/** Children in symbol order. */
+		abstract byte symbolAt(int index);
+
+		abstract Node childAt(int index);
+
+		abstract Inner withPrefix(byte[] newPrefix);
+
+		/**
+		 * @return a copy of this node with the child added or replaced
+		 */
+		abstract Inner withChild(byte symbol, Node child);
+
+		/**
+		 * @return a copy of this node without the child
+		 */
+		abstract Inner withoutChild(byte symbol);
+	}
+
+	/**
+	 * Up to 16 children in sorted arrays of exactly the required size.
+	 */
+	private static final class SmallNode extends Inner {
+
+		private final byte[] symbols;
+
+		private final Node[] children;
+
+		SmallNode(final byte[] prefix, final byte[] symbols, final Node[] children) {
+			super(prefix, sum(children));
+			this.symbols = symbols;
+			this.children = children;
+		}
+
+		@Override
+		Node child(final byte symbol) {
+			final int index = indexOf(symbol);
+			return index < 0 ? null : children[index];
+		}
+
+		@Override
+		int childCount() {
+			return children.length;
+		}
+
+		@Override
+		byte symbolAt(final int index) {
+			return symbols[index];
+		}
+
+		@Override
+		Node childAt(final int index) {
+			return children[index];
+		}
+
+		@Override
+		Inner withPrefix(final byte[] newPrefix) {
+			return new SmallNode(newPrefix, symbols, children);
+		}
+
+		@Override
+		Inner withChild(final byte symbol, final Node child) {
+			final int index = indexOf(symbol);
+			if (index >= 0) {
+				final Node[] replaced = children.clone();
+				replaced[index] = child;
+				return new SmallNode(prefix, symbols, replaced);
+			} else if (children.length == MAX_SMALL_NODE_SIZE) {
+				final Node[] direct = new Node[SYMBOLS + 1];
+				for (int i = 0; i < children.length; i++) {
+					direct[symbols[i]] = children[i];
+				}
+				direct[symbol] = child;
+				return new DirectNode(prefix, direct, children.length + 1);
+			}
+
+			final int insertion = -index - 1;
+			final byte[] grownSymbols = new byte[symbols.length + 1];
+			final Node[] grownChildren = new Node[children.length + 1];
+			System.arraycopy(symbols, 0, grownSymbols, 0, insertion);
+			System.arraycopy(children, 0, grownChildren, 0, insertion);
+			grownSymbols[insertion] = symbol;
+			grownChildren[insertion] = child;
+			System.arraycopy(symbols, insertion, grownSymbols, insertion + 1, symbols.length - insertion);
+			System.arraycopy(children, insertion, grownChildren, insertion + 1, children.length - insertion);
+			return new SmallNode(prefix, grownSymbols, grownChildren);
+		}
+
+		@Override
+		Inner withoutChild(final byte symbol) {
+			final int index = indexOf(symbol);
+			final byte[] shrunkSymbols = new byte[symbols.length - 1];
+			final Node[] shrunkChildren = new Node[children.length - 1];
+			System.arraycopy(symbols, 0, shrunkSymbols, 0, index);
+			System.arraycopy(children, 0, shrunkChildren, 0, index);
+			System.arraycopy(symbols, index + 1, shrunkSymbols, index, symbols.length - index - 1);
+			System.arraycopy(children, index + 1, shrunkChildren, index, children.length - index - 1);
+			return new SmallNode(prefix, shrunkSymbols, shrunkChildren);
+		}
+
+		/**
+		 * @return the index of the symbol or <code>-(insertion point) - 1</code>
+		 */
+		private int indexOf(final byte symbol) {
+			return Arrays.binarySearch(symbols, symbol);
+		}
+	}
+
+	/**
+	 * More than 16 children, indexed directly by symbol.
+	 */
+	private static final class DirectNode extends Inner {
+
+		private final Node[] children;
+
+		private final int count;
+
+		DirectNode(final byte[] prefix, final Node[] children, final int count) {
+			super(prefix, sum(children));
+			this.children = children;
+			this.count = count;
+		}
+
+		@Override
+		Node child(final byte symbol) {
+			return symbol < 0 ? null : children[symbol];
+		}
+
+		@Override
+		int childCount() {
+			return count;
+		}
+
+		@Override
+		byte symbolAt(final int index) {
+			int seen = 0;
+			for (int s = 0; s < children.length; s++) {
+				if (children[s] != null && seen++ == index) {
+					return (byte) s;
+				}
+			}
+			throw new IndexOutOfBoundsException("Child " + index + ", count " + count);
+		}
+
+		@Override
+		Node childAt(final int index) {
+			return children[symbolAt(index)];
+		}
+
+		@Override
+		Inner withPrefix(final byte[] newPrefix) {
+			return new DirectNode(newPrefix, children, count);
+		}
+
+		@Override
+		Inner withChild(final byte symbol, final Node child) {
+			final Node[] replaced = children.clone();
+			replaced[symbol] = child;
+			return new DirectNode(prefix, replaced, children[symbol] == null ? count + 1 : count);
+		}
+
+		@Override
+		Inner withoutChild(final byte symbol) {
+			if (count - 1 > MAX_SMALL_NODE_SIZE) {
+				final Node[] shrunk = children.clone();
+				shrunk[symbol] = null;
+				return new DirectNode(prefix, shrunk, count - 1);
+			}
+
+			final byte[] symbols = new byte[count - 1];
+			final Node[] remaining = new Node[count - 1];
+			int n = 0;
+			for (int s = 0; s < children.length; s++) {
+				if (children[s] != null && s != symbol) {
+					symbols[n] = (byte) s;
+					remaining[n++] = children[s];
+				}
+			}
+			return new SmallNode(prefix, symbols, remaining);
+		}
+	}
+
+	private static int sum(final Node[] children) {
+		int size = 0;
+		for (Node child : children) {
+			if (child != null) {
+				size += child.size();
+			}
+		}
+		return size;
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often IBANs have been seen within a sliding time window, e.g. the number of payments to an IBAN in the
+ * last ten minutes, in constant memory regardless of the number of distinct IBANs.
+ *
+ * <p>
+ * The window is divided into buckets of a configurable granularity, each holding a count-min sketch of
+ * <code>depth</code> rows by <code>width</code> counters. The buckets form a ring that is reused as time goes by.
+ * IBANs are hashed through {@link IbanHash}, so formatting and letter case do not matter, and neither recording nor
+ * querying creates any objects. IBANs are not validated.
+ * </p>
+ *
+ * <p>
+ * Counts are never too low. They can be too high because of hash collisions: with <code>N</code> events in the
+ * window, a count exceeds the true one by more than <code>2.72 * N / width</code> with a probability of at most
+ * <code>0.37<sup>depth</sup></code>. The window is rounded up to whole buckets and includes the current, partial
+ * bucket, so events older than the window may be counted for up to one granularity longer.
+ * </p>
+ *
+ * <p>
+ * Objects of this class are thread-safe and lock-free: every counter is a single atomic long that carries the bucket's
+ * epoch in its upper half, so a counter left over from an earlier round of the ring is restarted by the same
+ * compare-and-set that increments it, and no thread ever has to clear a bucket.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanVelocityCounter {
+
+	/** Default number of counters per row. */
+	public static final int DEFAULT_WIDTH = 4096;
+
+	/** Default number of rows. */
+	public static final int DEFAULT_DEPTH = 4;
+
+	private static final int MAX_DEPTH = 16;
+
+	private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+	private final AtomicLongArray counters;
+
+	/** The latest bucket recorded so far, guards the ring against events older than the window. */
+	private final AtomicLong latestEpoch = new AtomicLong(Long.MIN_VALUE);
+
+	private final long granularity;
+
+	private final int buckets;
+
+	private final int width;
+
+	private final int depth;
+
+	/**
+	 * Creates a new counter of {@value #DEFAULT_DEPTH} rows by {@value #DEFAULT_WIDTH} counters per bucket.
+	 *
+	 * @param window
+	 *            length of the sliding window
+	 * @param granularity
+	 *            length of a single bucket
+	 * @param unit
+	 *            unit of window and granularity
+	 *
+	 * @see #IbanVelocityCounter(long, long, TimeUnit, int, int)
+	 */
+	public IbanVelocityCounter(long window, long granularity, TimeUnit unit) {
+		this(window, granularity, unit, DEFAULT_WIDTH, DEFAULT_DEPTH);
+	}
+
+	/**
+	 * Creates a new counter.
+	 *
+	 * @param window
+	 *            length of the sliding window
+	 * @param granularity
+	 *            length of a single bucket, at least one millisecond
+	 * @param unit
+	 *            unit of window and granularity
+	 * @param width
+	 *            number of counters per row, rounded up to a power of two
+	 * @param depth
+	 *            number of rows, between <code>1</code> and {@value #MAX_DEPTH}
+	 *
+	 * @throws IllegalArgumentException
+	 *             if any of the parameters is out of range or the counters would not fit into a single array
+	 */
+	public IbanVelocityCounter(long window, long granularity, TimeUnit unit, int width, int depth) {
+		super();
+		final long windowMillis = unit.toMillis(window);
+		this.granularity = unit.toMillis(granularity);
+		if (this.granularity < 1 || windowMillis < this.granularity) {
+			throw new IllegalArgumentException("Granularity must be between 1 ms and the window length");
+		} else if (width < 1 || width > 1 << 30 || depth < 1 || depth > MAX_DEPTH) {
+			throw new IllegalArgumentException("Invalid sketch dimensions: " + width + " x " + depth);
+		}
+
+		final long bucketCount = (windowMillis + this.granularity - 1) / this.granularity;
+		this.width = width == 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+		this.depth = depth;
+		if (bucketCount * depth * this.width > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Too many counters: " + bucketCount + " buckets of " + this.width
+					+ " x " + depth);
+		}
+		this.buckets = (int) bucketCount;
+		this.counters = new AtomicLongArray(buckets * depth * this.width);
+	}
+
+	/**
+	 * Records an event for an IBAN at the current time.
+	 *
+	 * @param iban
+	 *            the IBAN
+	 */
+	public void add(Iban iban) {
+		addFingerprint(IbanHash.fingerprint(iban), System.currentTimeMillis());
+	}
+
+	/**
+	 * Records an event for an IBAN at the current time.
+	 *
+	 * @param iban
+	 *            the IBAN, may contain blanks and lower-case letters
+	 */
+	public void add(CharSequence iban) {
+		addFingerprint(IbanHash.fingerprint(iban), System.currentTimeMillis());
+	}
+
+	/**
+	 * Records an event for an IBAN.
+	 *
+	 * @param iban
+	 *            the IBAN, may contain blanks and lower-case letters
+	 * @param timestamp
+	 *            time of the event in milliseconds since the epoch, events older than the window of the latest event
+	 *            recorded so far are ignored
+	 */
+	public void add(CharSequence iban, long timestamp) {
+		addFingerprint(IbanHash.fingerprint(iban), timestamp);
+	}
+
+	/**
+	 * Records an event for an IBAN that has already been hashed.
+	 *
+	 * @param fingerprint
+	 *            the IBAN's {@link IbanHash#fingerprint(CharSequence) fingerprint}
+	 * @param timestamp
+	 *            time of the event in milliseconds since the epoch
+	 *
+	 * @see #add(CharSequence, long)
+	 */
+	public void addFingerprint(long fingerprint, long timestamp) {
+		final long epoch = timestamp / granularity;
+		final long latest = latestEpoch.get();
+		if (epoch > latest) {
+			latestEpoch.accumulateAndGet(epoch, Math::max);
+		} else if (epoch <= latest - buckets) {
+			return; // too late for any window, and its counters may already have been reused
+		}
+		final int tag32 = (int) epoch;
+		final long tag = (epoch & COUNT_MASK) << 32;
+		final int bucketStart = (int) (epoch % buckets) * depth * width;
+		final long step = IbanHash.mix(fingerprint) | 1L;
+		long hash = fingerprint;
+		for (int row = 0; row < depth; row++) {
+			final int index = bucketStart + row * width + (int) (hash & (width - 1));
+			while (true) {
+				final long current = counters.get(index);
+				final long updated;
+				if ((current & ~COUNT_MASK) != tag) {
+					if ((current & COUNT_MASK) != 0L && (int) (current >>> 32) - tag32 > 0) {
+						break; // a newer round of the ring took over the counter since the check above
+					}
+					updated = tag | 1L; // unused or left over from an earlier round of the ring
+				} else if ((current & COUNT_MASK) != COUNT_MASK) {
+					updated = current + 1L;
+				} else {
+					break; // saturated
+				}
+				if (counters.compareAndSet(index, current, updated)) {
+					break;
+				}
+			}
+			hash += step;
+		}
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN
+	 *
+	 * @return the estimated number of events for the supplied IBAN within the window ending now
+	 */
+	public long count(Iban iban) {
+		return countFingerprint(IbanHash.fingerprint(iban), System.currentTimeMillis());
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN, may contain blanks and lower-case letters
+	 *
+	 * @return the estimated number of events for the supplied IBAN within the window ending now
+	 */
+	public long count(CharSequence iban) {
+		return countFingerprint(IbanHash.fingerprint(iban), System.currentTimeMillis());
+	}
+
+	/**
+	 * @param iban
+	 *            the IBAN, may contain blanks and lower-case letters
+	 * @param timestamp
+	 *            end of the window in milliseconds since the epoch
+	 *
+	 * @return the estimated number of events for the supplied IBAN within the window ending at the supplied time
+	 */
+	public long count(CharSequence iban, long timestamp) {
+		return countFingerprint(IbanHash.fingerprint(iban), timestamp);
+	}
+
+	/**
+	 * @param fingerprint
+	 *            the IBAN's {@link IbanHash#fingerprint(CharSequence) fingerprint}
+	 * @param timestamp
+	 *            end of the window in milliseconds since the epoch
+	 *
+	 * @return the estimated number of events for the supplied IBAN within the window ending at the supplied time
+	 */
+	public long countFingerprint(long fingerprint, long timestamp) {
+		final long epoch = timestamp / granularity;
+		final long step = IbanHash.mix(fingerprint) | 1L;
+		long hash = fingerprint;
+		long min = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			final int column = row * width + (int) (hash & (width - 1));
+			long sum = 0L;
+			for (int age = 0; age < buckets && epoch - age >= 0; age++) {
+				final long bucketEpoch = epoch - age;
+				final long value = counters.get((int) (bucketEpoch % buckets) * depth * width + column);
+				if (value >>> 32 == (bucketEpoch & COUNT_MASK)) {
+					sum += value & COUNT_MASK;
+				}
+			}
+			min = Math.min(min, sum);
+			hash += step;
+		}
+		return min;
+	}
+
+	/**
+	 *
+	 * @param unit
+	 *            the desired unit
+	 *
+	 * @return the length of the window, rounded up to whole buckets
+	 */
+	public long getWindow(TimeUnit unit) {
+		return unit.convert(granularity * buckets, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 *
+	 * @param unit
+	 *            the desired unit
+	 *
+	 * @return the length of a single bucket
+	 */
+	public long getGranularity(TimeUnit unit) {
+		return unit.convert(granularity, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 *
+	 * @return the number of counters per row
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 *
+	 * @return the number of rows
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 *
+	 * @return the memory taken up by the counters
+	 */
+	public long getSizeInBytes() {
+		return counters.length() * 8L;
+	}
+}
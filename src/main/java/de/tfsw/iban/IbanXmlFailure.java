@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * An invalid IBAN found by {@link IbanXmlValidator}.
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanXmlFailure {
+
+	/**
+	 * Why an IBAN has been rejected, mirroring the exceptions thrown by {@link Iban#Iban(String)}.
+	 */
+	public enum Reason {
+
+		/** Not an IBAN at all, see {@link IbanFormatException}. */
+		FORMAT,
+
+		/** The country is not known to the default {@link IbanRegistry}, see {@link UnknownCountryCodeException}. */
+		UNKNOWN_COUNTRY,
+
+		/** The BBAN does not match the country's format, see {@link BbanValidationException}. */
+		BBAN,
+
+		/** The check digits are wrong, see {@link InvalidChecksumException}. */
+		CHECKSUM
+	}
+
+	private final String location;
+
+	private final int line;
+
+	private final String value;
+
+	private final Reason reason;
+
+	IbanXmlFailure(final String location, final int line, final String value, final Reason reason) {
+		this.location = location;
+		this.line = line;
+		this.value = value;
+		this.reason = reason;
+	}
+
+	/**
+	 *
+	 * @return XPath-like location of the IBAN element, e.g.
+	 *         <code>/Document/CstmrCdtTrfInitn[1]/PmtInf[1]/CdtTrfTxInf[3]/CdtrAcct[1]/Id[1]/IBAN[1]</code>
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 *
+	 * @return the line of the IBAN element, <code>-1</code> if unknown
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 *
+	 * @return the text of the IBAN element, truncated if it is unreasonably long
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 *
+	 * @return why the IBAN has been rejected
+	 */
+	public Reason getReason() {
+		return reason;
+	}
+
+	@Override
+	public String toString() {
+		return reason + " at " + location + " (line " + line + "): " + value;
+	}
+}
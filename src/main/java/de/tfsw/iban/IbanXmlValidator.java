@@ -0,0 +1,477 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.tfsw.iban.IbanXmlFailure.Reason;
+
+/**
+ * Streams through ISO 20022 XML payment files, e.g. <code>pain.001</code> credit transfer initiations or
+ * <code>pacs.008</code> interbank transfers, and validates every <code>&lt;IBAN&gt;</code> element.
+ *
+ * <p>
+ * Files are read with a StAX parser, so memory use does not depend on the size of a file. IBANs are validated as
+ * strictly as by {@link Iban#Iban(String)}, but without throwing exceptions; each invalid IBAN is reported as an
+ * {@link IbanXmlFailure} carrying an XPath-like location. Elements are matched by their local name only, so debtor,
+ * creditor and agent accounts of any message version are covered alike.
+ * </p>
+ *
+ * <p>
+ * {@link #validate(InputStream, Consumer)} parses and validates on the calling thread.
+ * {@link #validateBatch(InputStream, Consumer)} parses on a separate thread and hands blocks of IBANs to the calling
+ * thread, which validates them with {@link IbanBatchValidator}.
+ * </p>
+ *
+ * <p>
+ * DTDs and external entities are not supported. Objects of this class are thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class IbanXmlValidator {
+
+	private static final String IBAN_ELEMENT = "IBAN";
+
+	/** Longer element texts are truncated, they cannot be IBANs anyway. */
+	private static final int MAX_TEXT_LENGTH = 64;
+
+	private static final String TRUNCATED = "...";
+
+	private static final int MAX_IBAN_LENGTH = 34;
+
+	/** Number of blocks in flight between parser and validator. */
+	private static final int PIPELINE_DEPTH = 4;
+
+	private final XMLInputFactory factory;
+
+	/**
+	 * Creates a new validator.
+	 */
+	public IbanXmlValidator() {
+		super();
+		this.factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	/**
+	 * Validates all IBAN elements of an XML document on the calling thread.
+	 *
+	 * @param in
+	 *            the XML document, will not be closed
+	 * @param failures
+	 *            receives each invalid IBAN, in document order
+	 *
+	 * @return the number of checked and invalid IBANs
+	 *
+	 * @throws XMLStreamException
+	 *             if the document is not well-formed; failures up to that point have already been reported
+	 */
+	public Result validate(InputStream in, Consumer<? super IbanXmlFailure> failures) throws XMLStreamException {
+		final XMLStreamReader reader = createReader(in);
+		try {
+			final IbanElements elements = new IbanElements(reader);
+			final char[] flat = new char[MAX_IBAN_LENGTH];
+			long checked = 0;
+			long invalid = 0;
+			while (elements.next()) {
+				checked++;
+				final int length = elements.isTruncated() ? -1 : flatten(elements.text, elements.textLength, flat);
+				if (length < 0 || !IbanBatchValidator.checkStructure(flat, length)
+						|| Mod97.ibanRemainder(flat, 0, length) != 1) {
+					invalid++;
+					failures.accept(new IbanXmlFailure(elements.location(), elements.line, elements.value(),
+							diagnose(flat, length)));
+				}
+			}
+			return new Result(checked, invalid);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Validates all IBAN elements of an XML document, parsing on a separate thread while the calling thread
+	 * validates. Failures are reported on the calling thread.
+	 *
+	 * @param in
+	 *            the XML document, will not be closed
+	 * @param failures
+	 *            receives each invalid IBAN, in document order
+	 *
+	 * @return the number of checked and invalid IBANs
+	 *
+	 * @throws XMLStreamException
+	 *             if the document is not well-formed; failures up to that point have already been reported
+	 */
+	public Result validateBatch(InputStream in, Consumer<? super IbanXmlFailure> failures)
+			throws XMLStreamException {
+		final XMLStreamReader reader = createReader(in);
+		final BlockingQueue<Block> free = new ArrayBlockingQueue<Block>(PIPELINE_DEPTH);
+		final BlockingQueue<Block> full = new ArrayBlockingQueue<Block>(PIPELINE_DEPTH);
+		for (int i = 0; i < PIPELINE_DEPTH; i++) {
+			free.add(new Block());
+		}
+
+		final AtomicReference<Exception> parseFailure = new AtomicReference<Exception>();
+		final Thread parser = new Thread(() -> parse(reader, free, full, parseFailure), "iban-xml-parser");
+		parser.setDaemon(true);
+		parser.start();
+
+		final char[] flat = new char[MAX_IBAN_LENGTH];
+		long checked = 0;
+		long invalid = 0;
+		try {
+			while (true) {
+				final Block block = full.take();
+				checked += block.size;
+				invalid += block.size - IbanBatchValidator.validate(block.values, 0, block.size, block.results);
+				for (int i = 0; i < block.size; i++) {
+					if (!block.results[i]) {
+						final int length = IbanBatchValidator.flatten(block.values[i], flat);
+						failures.accept(new IbanXmlFailure(block.locations[i], block.lines[i], block.values[i],
+								diagnose(flat, length)));
+					}
+				}
+				if (block.last) {
+					break;
+				}
+				block.size = 0;
+				free.put(block);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while validating IBANs", e);
+		} finally {
+			parser.interrupt(); // stops at its next hand-over if still running
+			awaitTermination(parser);
+			reader.close();
+		}
+
+		final Exception failure = parseFailure.get();
+		if (failure instanceof XMLStreamException) {
+			throw (XMLStreamException) failure;
+		} else if (failure != null) {
+			throw (RuntimeException) failure;
+		}
+		return new Result(checked, invalid);
+	}
+
+	private static void awaitTermination(final Thread thread) {
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private XMLStreamReader createReader(final InputStream in) throws XMLStreamException {
+		return factory.createXMLStreamReader(in);
+	}
+
+	/**
+	 * Body of the parser thread: fills blocks until the document ends or fails, the last block is always handed over.
+	 */
+	private static void parse(final XMLStreamReader reader, final BlockingQueue<Block> free,
+			final BlockingQueue<Block> full, final AtomicReference<Exception> parseFailure) {
+		Block block = null;
+		try {
+			block = free.take();
+			final IbanElements elements = new IbanElements(reader);
+			while (elements.next()) {
+				block.add(elements);
+				if (block.size == block.values.length) {
+					full.put(block);
+					block = null; // handed over
+					block = free.take();
+				}
+			}
+		} catch (InterruptedException e) {
+			return; // the validating thread has given up
+		} catch (XMLStreamException | RuntimeException e) {
+			parseFailure.set(e);
+		}
+
+		if (block != null) {
+			block.last = true;
+			full.add(block); // cannot block, there are only as many blocks as queue slots
+		}
+	}
+
+	/**
+	 * Copies IBAN characters without whitespace.
+	 *
+	 * @return the length of the IBAN, <code>-1</code> if it is too long
+	 */
+	private static int flatten(final char[] text, final int textLength, final char[] target) {
+		int length = 0;
+		for (int i = 0; i < textLength; i++) {
+			if (!IbanNormalizer.isWhitespace(text[i])) {
+				if (length == target.length) {
+					return -1;
+				}
+				target[length++] = text[i];
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Determines why an IBAN that failed validation is invalid, following the order of checks of
+	 * {@link Iban#Iban(String)} as far as possible.
+	 */
+	private static Reason diagnose(final char[] iban, final int length) {
+		if (length < 5 || SegmentPattern.classOf(iban[0]) != SegmentPattern.UPPER
+				|| SegmentPattern.classOf(iban[1]) != SegmentPattern.UPPER
+				|| SegmentPattern.classOf(iban[2]) != SegmentPattern.DIGIT
+				|| SegmentPattern.classOf(iban[3]) != SegmentPattern.DIGIT) {
+			return Reason.FORMAT;
+		}
+		for (int i = 4; i < length; i++) {
+			if (SegmentPattern.classOf(iban[i]) == 0) {
+				return Reason.FORMAT;
+			}
+		}
+
+		final CountrySpec spec = IbanRegistry.getDefault().lookup(iban[0], iban[1]);
+		if (spec == null) {
+			return Reason.UNKNOWN_COUNTRY;
+		} else if (spec.getIbanLength() != length || !spec.matchesBban(iban, 4)) {
+			return Reason.BBAN;
+		}
+		return Reason.CHECKSUM;
+	}
+
+	/**
+	 * Walks the IBAN elements of a document, keeping track of the current element path. Only the path and the text of
+	 * the current IBAN element are kept, so memory use is bounded by the nesting depth of the document.
+	 */
+	private static final class IbanElements {
+
+		private final XMLStreamReader reader;
+
+		private final List<String> names = new ArrayList<String>();
+
+		private int[] indexes = new int[16];
+
+		/** Per depth: number of child elements seen so far, by name. */
+		private final List<Map<String, int[]>> siblings = new ArrayList<Map<String, int[]>>();
+
+		private final char[] text = new char[MAX_TEXT_LENGTH];
+
+		private int textLength;
+
+		private boolean truncated;
+
+		private int line;
+
+		private boolean ibanOpen;
+
+		IbanElements(final XMLStreamReader reader) {
+			this.reader = reader;
+			this.siblings.add(new HashMap<String, int[]>());
+		}
+
+		/**
+		 * Advances to the next IBAN element and reads its text.
+		 *
+		 * @return <code>false</code> at the end of the document
+		 */
+		boolean next() throws XMLStreamException {
+			if (ibanOpen) {
+				pop();
+				ibanOpen = false;
+			}
+
+			while (reader.hasNext()) {
+				final int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					push(reader.getLocalName());
+					if (IBAN_ELEMENT.equals(reader.getLocalName())) {
+						line = reader.getLocation().getLineNumber();
+						readText();
+						ibanOpen = true;
+						return true;
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					pop();
+				}
+			}
+			return false;
+		}
+
+		boolean isTruncated() {
+			return truncated;
+		}
+
+		/**
+		 * @return the text of the current IBAN element, ending in <code>...</code> if truncated
+		 */
+		String value() {
+			final String value = new String(text, 0, textLength);
+			return truncated ? value + TRUNCATED : value;
+		}
+
+		/**
+		 * @return the location of the current IBAN element
+		 */
+		String location() {
+			final StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < names.size(); i++) {
+				sb.append('/').append(names.get(i));
+				if (i > 0) {
+					sb.append('[').append(indexes[i]).append(']');
+				}
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Collects the text content of the current element up to its end tag, ignoring any nested elements.
+		 */
+		private void readText() throws XMLStreamException {
+			textLength = 0;
+			truncated = false;
+			int depth = 0;
+			while (true) {
+				final int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					if (depth-- == 0) {
+						return;
+					}
+				} else if (depth == 0 && (event == XMLStreamConstants.CHARACTERS
+						|| event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)) {
+					final int length = reader.getTextLength();
+					final int copied = Math.min(length, text.length - textLength);
+					System.arraycopy(reader.getTextCharacters(), reader.getTextStart(), text, textLength, copied);
+					textLength += copied;
+					truncated |= copied < length;
+				}
+			}
+		}
+
+		private void push(final String name) {
+			final int depth = names.size();
+			final Map<String, int[]> counts = siblings.get(depth);
+			int[] count = counts.get(name);
+			if (count == null) {
+				count = new int[1];
+				counts.put(name, count);
+			}
+			count[0]++;
+
+			if (depth == indexes.length) {
+				indexes = Arrays.copyOf(indexes, depth * 2);
+			}
+			indexes[depth] = count[0];
+			names.add(name);
+
+			if (siblings.size() == depth + 1) {
+				siblings.add(new HashMap<String, int[]>());
+			} else {
+				siblings.get(depth + 1).clear();
+			}
+		}
+
+		private void pop() {
+			names.remove(names.size() - 1);
+		}
+	}
+
+	/**
+	 * A block of IBANs handed from the parser thread to the validating thread.
+	 */
+	private static final class Block {
+
+		private final String[] values = new String[IbanBatchValidator.BLOCK_SIZE];
+
+		private final String[] locations = new String[IbanBatchValidator.BLOCK_SIZE];
+
+		private final int[] lines = new int[IbanBatchValidator.BLOCK_SIZE];
+
+		private final boolean[] results = new boolean[IbanBatchValidator.BLOCK_SIZE];
+
+		private int size;
+
+		private boolean last;
+
+		void add(final IbanElements elements) {
+			values[size] = elements.value();
+			locations[size] = elements.location();
+			lines[size] = elements.line;
+			size++;
+		}
+	}
+
+	/**
+	 * Outcome of validating a document.
+	 */
+	public static final class Result {
+
+		private final long checked;
+
+		private final long invalid;
+
+		private Result(final long checked, final long invalid) {
+			this.checked = checked;
+			this.invalid = invalid;
+		}
+
+		/**
+		 *
+		 * @return the number of IBAN elements found
+		 */
+		public long getChecked() {
+			return checked;
+		}
+
+		/**
+		 *
+		 * @return the number of invalid IBANs
+		 */
+		public long getInvalid() {
+			return invalid;
+		}
+
+		@Override
+		public String toString() {
+			return invalid + " of " + checked + " IBANs invalid";
+		}
+	}
+}
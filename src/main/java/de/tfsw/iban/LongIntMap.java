@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from <code>long</code> keys to <code>int</code> values, without boxing.
+ * {@link Long#MIN_VALUE} is reserved and cannot be used as a key.
+ *
+ * <p>
+ * Instances are not thread-safe for writing, but may be read concurrently once fully populated.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+final class LongIntMap {
+
+	/** Returned by {@link #get(long)} for absent keys. */
+	static final int MISSING = -1;
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+
+	private int[] values;
+
+	private int size;
+
+	LongIntMap(final int expectedSize) {
+		final int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+		this.keys = new long[capacity];
+		this.values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the value of the key or {@link #MISSING}
+	 */
+	int get(final long key) {
+		final int mask = keys.length - 1;
+		int slot = slot(key, mask);
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return MISSING;
+	}
+
+	void put(final long key, final int value) {
+		values[insert(key)] = value;
+	}
+
+	/**
+	 * Adds to the value of a key, which starts at <code>0</code>.
+	 */
+	void increment(final long key) {
+		values[insert(key)]++;
+	}
+
+	/**
+	 * @return all keys in no particular order
+	 */
+	long[] keys() {
+		final long[] result = new long[size];
+		int n = 0;
+		for (long key : keys) {
+			if (key != EMPTY) {
+				result[n++] = key;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the slot of the key, which is created with value <code>0</code> if absent
+	 */
+	private int insert(final long key) {
+		if ((size + 1) * 2 > keys.length) {
+			grow();
+		}
+
+		final int mask = keys.length - 1;
+		int slot = slot(key, mask);
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = 0;
+		size++;
+		return slot;
+	}
+
+	private void grow() {
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+		Arrays.fill(keys, EMPTY);
+
+		final int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = slot(oldKeys[i], mask);
+				while (keys[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int slot(final long key, final int mask) {
+		return (int) IbanHash.mix(key) & mask;
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * ISO/IEC 7064 MOD97-10 arithmetic on IBAN characters without {@link java.math.BigInteger}.
+ *
+ * <p>
+ * Letters are expanded to their two-digit values (<code>A = 10</code> ... <code>Z = 35</code>, case-insensitive) on
+ * the fly. Digits are accumulated in a <code>long</code> which is only reduced modulo 97 when it grows beyond 15
+ * digits, so most characters cost a multiplication and an addition.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+final class Mod97 {
+
+	/** Returned instead of an accumulator or remainder if an illegal character has been encountered. */
+	static final int INVALID = -1;
+
+	private static final long MODULUS = 97L;
+
+	private static final long REDUCE_THRESHOLD = 1000000000000000L;
+
+	private Mod97() {
+		// static helper
+	}
+
+	/**
+	 * Appends the digit representation of the supplied characters to an accumulator.
+	 *
+	 * @param acc
+	 *            a non-negative accumulator, <code>0</code> to start a new calculation
+	 *
+	 * @return the new accumulator or {@link #INVALID} if a character is neither a letter nor a digit
+	 */
+	static long update(long acc, final CharSequence chars, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			acc = update(acc, chars.charAt(i));
+			if (acc < 0) {
+				return INVALID;
+			}
+		}
+		return acc;
+	}
+
+	/**
+	 * @see #update(long, CharSequence, int, int)
+	 */
+	static long update(long acc, final char[] chars, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			acc = update(acc, chars[i]);
+			if (acc < 0) {
+				return INVALID;
+			}
+		}
+		return acc;
+	}
+
+	/**
+	 * @see #update(long, CharSequence, int, int)
+	 */
+	static long update(long acc, final byte[] chars, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			acc = update(acc, (char) (chars[i] & 0xFF));
+			if (acc < 0) {
+				return INVALID;
+			}
+		}
+		return acc;
+	}
+
+	/**
+	 * Appends the digit representation of a single character to an accumulator.
+	 *
+	 * @return the new accumulator or {@link #INVALID} if the character is neither a letter nor a digit
+	 */
+	static long update(long acc, final char c) {
+		if (c >= '0' && c <= '9') {
+			acc = acc * 10 + (c - '0');
+		} else if (c >= 'A' && c <= 'Z') {
+			acc = acc * 100 + (c - 'A' + 10);
+		} else if (c >= 'a' && c <= 'z') {
+			acc = acc * 100 + (c - 'a' + 10);
+		} else {
+			return INVALID;
+		}
+		return acc >= REDUCE_THRESHOLD ? acc % MODULUS : acc;
+	}
+
+	/**
+	 * @return the remainder of the supplied accumulator
+	 */
+	static int remainder(final long acc) {
+		return (int) (acc % MODULUS);
+	}
+
+	/**
+	 * Calculates the MOD97-10 remainder of a machine-readable IBAN, i.e. of the BBAN followed by country code and
+	 * check digits. The remainder of a valid IBAN is <code>1</code>.
+	 *
+	 * @param iban
+	 *            characters containing an IBAN without whitespace
+	 * @param offset
+	 *            index of the IBAN's first character
+	 * @param length
+	 *            length of the IBAN, at least <code>4</code>
+	 *
+	 * @return the remainder or {@link #INVALID} if the IBAN contains illegal characters
+	 */
+	static int ibanRemainder(final CharSequence iban, final int offset, final int length) {
+		long acc = update(0L, iban, offset + 4, offset + length);
+		if (acc >= 0) {
+			acc = update(acc, iban, offset, offset + 4);
+		}
+		return acc < 0 ? INVALID : remainder(acc);
+	}
+
+	/**
+	 * @see #ibanRemainder(CharSequence, int, int)
+	 */
+	static int ibanRemainder(final char[] iban, final int offset, final int length) {
+		long acc = update(0L, iban, offset + 4, offset + length);
+		if (acc >= 0) {
+			acc = update(acc, iban, offset, offset + 4);
+		}
+		return acc < 0 ? INVALID : remainder(acc);
+	}
+
+	/**
+	 * @see #ibanRemainder(CharSequence, int, int)
+	 */
+	static int ibanRemainder(final byte[] iban, final int offset, final int length) {
+		long acc = update(0L, iban, offset + 4, offset + length);
+		if (acc >= 0) {
+			acc = update(acc, iban, offset, offset + 4);
+		}
+		return acc < 0 ? INVALID : remainder(acc);
+	}
+
+	/**
+	 * Calculates the check digits of an IBAN.
+	 *
+	 * @param bbanAcc
+	 *            accumulator of the complete BBAN
+	 * @param first
+	 *            first letter of the country code
+	 * @param second
+	 *            second letter of the country code
+	 *
+	 * @return the check digits as a number between <code>2</code> and <code>98</code>, or {@link #INVALID} if the
+	 *         accumulator is invalid or the country code contains illegal characters
+	 */
+	static int checkDigits(long bbanAcc, final char first, final char second) {
+		if (bbanAcc >= 0) {
+			bbanAcc = update(bbanAcc, first);
+		}
+		if (bbanAcc >= 0) {
+			bbanAcc = update(bbanAcc, second);
+		}
+		return bbanAcc < 0 ? INVALID : (int) (98 - (bbanAcc * 100) % MODULUS);
+	}
+}
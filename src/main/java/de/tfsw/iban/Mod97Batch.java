@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * Selects the kernel computing the MOD97-10 remainders of a {@link DigitColumns} buffer.
+ *
+ * <p>
+ * This is the baseline implementation, which always uses the scalar kernel. The multi-release JAR contains a Java 21
+ * version of this class that uses the Vector API if available.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+final class Mod97Batch {
+
+	private Mod97Batch() {
+		// static helper
+	}
+
+	/**
+	 * @return <code>true</code> if remainders are computed using SIMD instructions
+	 */
+	static boolean isVectorized() {
+		return false;
+	}
+
+	/**
+	 * Computes the remainders of the first <code>count</code> IBANs of a columnar chunk buffer.
+	 *
+	 * @param chunks
+	 *            chunks as laid out by {@link DigitColumns}
+	 * @param stride
+	 *            the capacity of the buffer, i.e. the distance between two chunks of the same IBAN
+	 * @param count
+	 *            the number of IBANs
+	 * @param remainders
+	 *            receives the remainders
+	 */
+	static void remainders(final long[] chunks, final int stride, final int count, final long[] remainders) {
+		DigitColumns.scalarRemainders(chunks, stride, 0, count, remainders);
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * Fixed-width binary representation of IBANs for bulk processing.
+ *
+ * <p>
+ * A packed IBAN is a record of {@value #RECORD_LENGTH} bytes: the two ASCII letters of the country code followed by
+ * the ASCII characters of the BBAN, padded with zero bytes. Check digits are not stored, they are recomputed when
+ * unpacking, so IBANs with the check digits <code>00</code>, <code>01</code> or <code>99</code>, which pass the
+ * MOD97-10 check in place of <code>97</code>, <code>98</code> and <code>02</code>, are unpacked with the latter.
+ * Comparing records byte by byte (unsigned) orders IBANs by country code, then BBAN.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class PackedIban {
+
+	/** The length of a packed IBAN in bytes. */
+	public static final int RECORD_LENGTH = 32;
+
+	/** The maximum length of a BBAN as defined by ISO 13616. */
+	public static final int MAX_BBAN_LENGTH = 30;
+
+	private static final int COUNTRY_LENGTH = 2;
+
+	private static final int CHECKSUM_END_INDEX = 4;
+
+	private static final int WORDS = RECORD_LENGTH / 8;
+
+	private PackedIban() {
+		// static helper
+	}
+
+	/**
+	 * Validates an IBAN and packs it into a record. Validation is as strict as {@link Iban#Iban(String)} and uses the
+	 * default {@link IbanRegistry}, but never throws an exception.
+	 *
+	 * @param iban
+	 *            the IBAN, may contain whitespace
+	 * @param record
+	 *            target array
+	 * @param offset
+	 *            index of the record's first byte
+	 *
+	 * @return <code>true</code> if the IBAN is valid and has been packed, <code>false</code> if it is invalid in which
+	 *         case the contents of the record are undefined
+	 */
+	public static boolean pack(CharSequence iban, byte[] record, int offset) {
+		if (iban == null) {
+			return false;
+		}
+
+		char check1 = 0;
+		char check2 = 0;
+		int position = 0;
+		for (int i = 0; i < iban.length(); i++) {
+			final char c = iban.charAt(i);
+			if (IbanNormalizer.isWhitespace(c)) {
+				continue;
+			} else if (c > 0x7F || position >= RECORD_LENGTH + 2) {
+				return false;
+			}
+
+			if (position < COUNTRY_LENGTH) {
+				record[offset + position] = (byte) c;
+			} else if (position == COUNTRY_LENGTH) {
+				check1 = c;
+			} else if (position == COUNTRY_LENGTH + 1) {
+				check2 = c;
+			} else {
+				record[offset + position - 2] = (byte) c;
+			}
+			position++;
+		}
+
+		if (position <= CHECKSUM_END_INDEX || check1 < '0' || check1 > '9' || check2 < '0' || check2 > '9') {
+			return false;
+		}
+
+		final int bbanLength = position - CHECKSUM_END_INDEX;
+		final CountrySpec spec = IbanRegistry.getDefault().lookup((char) record[offset], (char) record[offset + 1]);
+		if (spec == null || spec.getBbanLength() != bbanLength || !spec.matchesBban(record, offset + COUNTRY_LENGTH)) {
+			return false;
+		}
+
+		// the MOD97-10 remainder is 1 exactly if the check digits are congruent to the computed ones
+		final long acc = Mod97.update(0L, record, offset + COUNTRY_LENGTH, offset + COUNTRY_LENGTH + bbanLength);
+		final int computed = Mod97.checkDigits(acc, (char) record[offset], (char) record[offset + 1]);
+		if (computed < 0 || ((check1 - '0') * 10 + (check2 - '0') - computed) % 97 != 0) {
+			return false;
+		}
+
+		for (int i = COUNTRY_LENGTH + bbanLength; i < RECORD_LENGTH; i++) {
+			record[offset + i] = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Packs an IBAN into a record.
+	 *
+	 * @param iban
+	 *            the IBAN
+	 * @param record
+	 *            target array
+	 * @param offset
+	 *            index of the record's first byte
+	 */
+	public static void pack(Iban iban, byte[] record, int offset) {
+		final String country = iban.getCountryCode().name();
+		final String bban = iban.getBban();
+		record[offset] = (byte) country.charAt(0);
+		record[offset + 1] = (byte) country.charAt(1);
+		for (int i = 0; i < MAX_BBAN_LENGTH; i++) {
+			record[offset + COUNTRY_LENGTH + i] = i < bban.length() ? (byte) bban.charAt(i) : 0;
+		}
+	}
+
+	/**
+	 * @param record
+	 *            array containing a packed IBAN
+	 * @param offset
+	 *            index of the record's first byte
+	 *
+	 * @return the length of the packed IBAN's BBAN
+	 */
+	public static int getBbanLength(byte[] record, int offset) {
+		int length = 0;
+		while (length < MAX_BBAN_LENGTH && record[offset + COUNTRY_LENGTH + length] != 0) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Unpacks an IBAN, recomputing its check digits.
+	 *
+	 * @param record
+	 *            array containing a packed IBAN
+	 * @param offset
+	 *            index of the record's first byte
+	 *
+	 * @return the machine-readable IBAN
+	 */
+	public static String unpack(byte[] record, int offset) {
+		final int bbanLength = getBbanLength(record, offset);
+		final long acc = Mod97.update(0L, record, offset + COUNTRY_LENGTH, offset + COUNTRY_LENGTH + bbanLength);
+		final int checkDigits = Mod97.checkDigits(acc, (char) record[offset], (char) record[offset + 1]);
+
+		final char[] chars = new char[CHECKSUM_END_INDEX + bbanLength];
+		chars[0] = (char) record[offset];
+		chars[1] = (char) record[offset + 1];
+		chars[2] = (char) ('0' + checkDigits / 10);
+		chars[3] = (char) ('0' + checkDigits % 10);
+		for (int i = 0; i < bbanLength; i++) {
+			chars[CHECKSUM_END_INDEX + i] = (char) record[offset + COUNTRY_LENGTH + i];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Unpacks an IBAN into a new {@link Iban} object.
+	 *
+	 * @param record
+	 *            array containing a packed IBAN
+	 * @param offset
+	 *            index of the record's first byte
+	 *
+	 * @return the IBAN
+	 */
+	public static Iban toIban(byte[] record, int offset) {
+		return new Iban(unpack(record, offset));
+	}
+
+	/**
+	 * Compares two packed IBANs, ordering them by country code, then BBAN. This is the same order as the natural
+	 * ordering of {@link Iban}.
+	 *
+	 * @return a negative number, zero or a positive number if the first record is less than, equal to or greater than
+	 *         the second one
+	 */
+	public static int compare(byte[] a, int aOffset, byte[] b, int bOffset) {
+		for (int i = 0; i < WORDS; i++) {
+			final long x = getWord(a, aOffset, i);
+			final long y = getWord(b, bOffset, i);
+			if (x != y) {
+				return Long.compareUnsigned(x, y);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Reads one of the four 64-bit words of a packed IBAN. Comparing the words of two records as unsigned numbers,
+	 * in order, is equivalent to {@link #compare(byte[], int, byte[], int)}.
+	 *
+	 * @param record
+	 *            array containing a packed IBAN
+	 * @param offset
+	 *            index of the record's first byte
+	 * @param index
+	 *            index of the word, <code>0</code> to <code>3</code>
+	 *
+	 * @return the big-endian word
+	 */
+	public static long getWord(byte[] record, int offset, int index) {
+		final int start = offset + index * 8;
+		long word = 0L;
+		for (int i = start; i < start + 8; i++) {
+			word = (word << 8) | (record[i] & 0xFF);
+		}
+		return word;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Sequential reader of a file of {@link PackedIban packed IBAN} records.
+ *
+ * @author Thorsten Frank
+ */
+final class RecordReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final InputStream in;
+
+	private final byte[] record = new byte[PackedIban.RECORD_LENGTH];
+
+	private boolean available;
+
+	RecordReader(final File file) throws IOException {
+		this.in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+	}
+
+	/**
+	 * Advances to the next record.
+	 *
+	 * @return <code>false</code> if the end of the file has been reached
+	 */
+	boolean next() throws IOException {
+		int read = 0;
+		while (read < record.length) {
+			final int n = in.read(record, read, record.length - read);
+			if (n < 0) {
+				if (read > 0) {
+					throw new EOFException("Truncated packed IBAN record");
+				}
+				available = false;
+				return false;
+			}
+			read += n;
+		}
+		available = true;
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if {@link #record()} holds a record
+	 */
+	boolean available() {
+		return available;
+	}
+
+	/**
+	 * @return the current record, overwritten by {@link #next()}
+	 */
+	byte[] record() {
+		return record;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
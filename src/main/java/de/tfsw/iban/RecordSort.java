@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * In-place MSD radix sort (American flag sort) of fixed-width records stored back to back in a byte array.
+ *
+ * <p>
+ * Records are ordered byte by byte, unsigned. Buckets of fewer than {@value #INSERTION_SORT_THRESHOLD} records are
+ * finished with an insertion sort. Instances keep per-depth scratch arrays and are not thread-safe.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+final class RecordSort {
+
+	static final int RADIX = 256;
+
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
+	private final int recordLength;
+
+	/** Bucket ends per depth. */
+	private final int[][] ends;
+
+	/** Next free slot per bucket and depth. */
+	private final int[][] nexts;
+
+	private final byte[] swap;
+
+	RecordSort(final int recordLength) {
+		this.recordLength = recordLength;
+		this.ends = new int[recordLength][RADIX];
+		this.nexts = new int[recordLength][RADIX];
+		this.swap = new byte[recordLength];
+	}
+
+	/**
+	 * Sorts the first <code>count</code> records of the supplied array.
+	 */
+	void sort(final byte[] data, final int count) {
+		sort(data, 0, count);
+	}
+
+	/**
+	 * Sorts the records with indexes <code>from</code> (inclusive) to <code>to</code> (exclusive).
+	 */
+	void sort(final byte[] data, final int from, final int to) {
+		sort(data, from, to, 0);
+	}
+
+	/**
+	 * Sorts the records with indexes <code>from</code> (inclusive) to <code>to</code> (exclusive), all of which are
+	 * known to share their first <code>depth</code> bytes.
+	 */
+	void sort(final byte[] data, final int from, final int to, final int depth) {
+		if (to - from < INSERTION_SORT_THRESHOLD) {
+			insertionSort(data, from, to, depth);
+			return;
+		}
+
+		final int[] end = ends[depth];
+		distribute(data, from, to, depth, recordLength, end, nexts[depth], swap);
+
+		if (depth + 1 < recordLength) {
+			int start = from;
+			for (int b = 0; b < RADIX; b++) {
+				if (end[b] - start > 1) {
+					sort(data, start, end[b], depth + 1);
+				}
+				start = end[b];
+			}
+		}
+	}
+
+	/**
+	 * Permutes the records with indexes <code>from</code> (inclusive) to <code>to</code> (exclusive) into buckets by
+	 * their byte at <code>depth</code>.
+	 *
+	 * @param end
+	 *            receives the index after the last record of each of the 256 buckets
+	 * @param next
+	 *            scratch array of 256 elements
+	 * @param swap
+	 *            scratch array of one record length
+	 */
+	static void distribute(final byte[] data, final int from, final int to, final int depth, final int recordLength,
+			final int[] end, final int[] next, final byte[] swap) {
+		for (int b = 0; b < RADIX; b++) {
+			end[b] = 0;
+		}
+		for (int r = from; r < to; r++) {
+			end[data[r * recordLength + depth] & 0xFF]++;
+		}
+
+		int position = from;
+		for (int b = 0; b < RADIX; b++) {
+			next[b] = position;
+			position += end[b];
+			end[b] = position;
+		}
+
+		for (int b = 0; b < RADIX; b++) {
+			while (next[b] < end[b]) {
+				final int r = next[b];
+				final int value = data[r * recordLength + depth] & 0xFF;
+				if (value == b) {
+					next[b]++;
+				} else {
+					swap(data, r, next[value]++, recordLength, swap);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes adjacent duplicates from the first <code>count</code> records of a sorted array.
+	 *
+	 * @return the number of distinct records, which are now at the beginning of the array
+	 */
+	static int deduplicate(final byte[] data, final int count, final int recordLength) {
+		if (count == 0) {
+			return 0;
+		}
+
+		int distinct = 1;
+		for (int i = 1; i < count; i++) {
+			if (compare(data, i * recordLength, data, (distinct - 1) * recordLength, 0, recordLength) != 0) {
+				if (distinct != i) {
+					System.arraycopy(data, i * recordLength, data, distinct * recordLength, recordLength);
+				}
+				distinct++;
+			}
+		}
+		return distinct;
+	}
+
+	private void insertionSort(final byte[] data, final int from, final int to, final int depth) {
+		for (int i = from + 1; i < to; i++) {
+			int j = i;
+			while (j > from && compare(data, (j - 1) * recordLength, data, j * recordLength, depth, recordLength) > 0) {
+				swap(data, j - 1, j, recordLength, swap);
+				j--;
+			}
+		}
+	}
+
+	private static void swap(final byte[] data, final int a, final int b, final int recordLength, final byte[] swap) {
+		System.arraycopy(data, a * recordLength, swap, 0, recordLength);
+		System.arraycopy(data, b * recordLength, data, a * recordLength, recordLength);
+		System.arraycopy(swap, 0, data, b * recordLength, recordLength);
+	}
+
+	private static int compare(final byte[] a, final int aOffset, final byte[] b, final int bOffset, final int from,
+			final int recordLength) {
+		for (int i = from; i < recordLength; i++) {
+			final int diff = (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * Compiles the small regular expression subset used for BBAN segments in {@link CountryCode} into per-position
+ * character class tables.
+ *
+ * <p>
+ * Supported are the classes <code>\d</code>, <code>\w</code> and bracket expressions made up of the ranges
+ * <code>A-Z</code>, <code>a-z</code> and <code>0-9</code>, each optionally followed by a fixed quantifier such as
+ * <code>{4}</code>. This covers every pattern of the IBAN Registry; anything else is rejected.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+final class SegmentPattern {
+
+	/** Character class bit: <code>0-9</code>. */
+	static final byte DIGIT = 1;
+
+	/** Character class bit: <code>A-Z</code>. */
+	static final byte UPPER = 2;
+
+	/** Character class bit: <code>a-z</code>. */
+	static final byte LOWER = 4;
+
+	/** Character class of <code>\w</code>, restricted to the characters an IBAN may contain. */
+	static final byte ALPHANUMERIC = DIGIT | UPPER | LOWER;
+
+	private static final byte[] NO_CLASSES = new byte[0];
+
+	private SegmentPattern() {
+		// static helper
+	}
+
+	/**
+	 * Compiles the supplied segment pattern.
+	 *
+	 * @param pattern
+	 *            the segment's regular expression, may be <code>null</code>
+	 *
+	 * @return one character class bit set per position, an empty array for a <code>null</code> pattern
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the pattern uses anything but the supported subset
+	 */
+	static byte[] compile(final String pattern) {
+		if (pattern == null) {
+			return NO_CLASSES;
+		}
+
+		final StringBuilder positions = new StringBuilder();
+		int i = 0;
+		while (i < pattern.length()) {
+			final byte charClass;
+			final char c = pattern.charAt(i);
+			if (c == '\\' && i + 1 < pattern.length()) {
+				final char escaped = pattern.charAt(i + 1);
+				if (escaped == 'd') {
+					charClass = DIGIT;
+				} else if (escaped == 'w') {
+					charClass = ALPHANUMERIC;
+				} else {
+					throw unsupported(pattern);
+				}
+				i += 2;
+			} else if (c == '[') {
+				final int end = pattern.indexOf(']', i);
+				if (end < 0) {
+					throw unsupported(pattern);
+				}
+				charClass = parseBracket(pattern, i + 1, end);
+				i = end + 1;
+			} else {
+				throw unsupported(pattern);
+			}
+
+			int count = 1;
+			if (i < pattern.length() && pattern.charAt(i) == '{') {
+				final int end = pattern.indexOf('}', i);
+				if (end < 0) {
+					throw unsupported(pattern);
+				}
+				try {
+					count = Integer.parseInt(pattern.substring(i + 1, end));
+				} catch (NumberFormatException e) {
+					throw unsupported(pattern);
+				}
+				if (count < 1) {
+					throw unsupported(pattern);
+				}
+				i = end + 1;
+			}
+
+			for (int n = 0; n < count; n++) {
+				positions.append((char) charClass);
+			}
+		}
+
+		final byte[] classes = new byte[positions.length()];
+		for (int n = 0; n < classes.length; n++) {
+			classes[n] = (byte) positions.charAt(n);
+		}
+		return classes;
+	}
+
+	/**
+	 *
+	 * @param c
+	 *            any character
+	 *
+	 * @return the character class bit of the supplied character, <code>0</code> if it cannot be part of an IBAN
+	 */
+	static int classOf(final char c) {
+		if (c >= '0' && c <= '9') {
+			return DIGIT;
+		} else if (c >= 'A' && c <= 'Z') {
+			return UPPER;
+		} else if (c >= 'a' && c <= 'z') {
+			return LOWER;
+		}
+		return 0;
+	}
+
+	/**
+	 * Parses the inside of a bracket expression, e.g. <code>A-Z0-9</code>.
+	 */
+	private static byte parseBracket(final String pattern, final int start, final int end) {
+		byte charClass = 0;
+		if ((end - start) % 3 != 0 || end == start) {
+			throw unsupported(pattern);
+		}
+		for (int i = start; i < end; i += 3) {
+			final String range = pattern.substring(i, i + 3);
+			if ("0-9".equals(range)) {
+				charClass |= DIGIT;
+			} else if ("A-Z".equals(range)) {
+				charClass |= UPPER;
+			} else if ("a-z".equals(range)) {
+				charClass |= LOWER;
+			} else {
+				throw unsupported(pattern);
+			}
+		}
+		return charClass;
+	}
+
+	private static IllegalArgumentException unsupported(final String pattern) {
+		return new IllegalArgumentException("Unsupported BBAN segment pattern: " + pattern);
+	}
+}
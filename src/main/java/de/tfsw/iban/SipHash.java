@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * SipHash-2-4, a keyed pseudo-random function, specialized for messages of two 64-bit words.
+ *
+ * @author Thorsten Frank
+ */
+final class SipHash {
+
+	private SipHash() {
+		// static helper
+	}
+
+	/**
+	 * Hashes a 16-byte message consisting of two little-endian words.
+	 *
+	 * @param k0
+	 *            first half of the 128-bit key
+	 * @param k1
+	 *            second half of the 128-bit key
+	 * @param m0
+	 *            first message word
+	 * @param m1
+	 *            second message word
+	 *
+	 * @return the 64-bit hash
+	 */
+	static long hash(final long k0, final long k1, final long m0, final long m1) {
+		long v0 = k0 ^ 0x736F6D6570736575L;
+		long v1 = k1 ^ 0x646F72616E646F6DL;
+		long v2 = k0 ^ 0x6C7967656E657261L;
+		long v3 = k1 ^ 0x7465646279746573L;
+
+		for (int block = 0; block < 3; block++) {
+			// the last block holds the message length
+			final long word = block == 0 ? m0 : block == 1 ? m1 : 16L << 56;
+			v3 ^= word;
+			for (int round = 0; round < 2; round++) {
+				v0 += v1;
+				v1 = Long.rotateLeft(v1, 13) ^ v0;
+				v0 = Long.rotateLeft(v0, 32);
+				v2 += v3;
+				v3 = Long.rotateLeft(v3, 16) ^ v2;
+				v0 += v3;
+				v3 = Long.rotateLeft(v3, 21) ^ v0;
+				v2 += v1;
+				v1 = Long.rotateLeft(v1, 17) ^ v2;
+				v2 = Long.rotateLeft(v2, 32);
+			}
+			v0 ^= word;
+		}
+
+		v2 ^= 0xFF;
+		for (int round = 0; round < 4; round++) {
+			v0 += v1;
+			v1 = Long.rotateLeft(v1, 13) ^ v0;
+			v0 = Long.rotateLeft(v0, 32);
+			v2 += v3;
+			v3 = Long.rotateLeft(v3, 16) ^ v2;
+			v0 += v3;
+			v3 = Long.rotateLeft(v3, 21) ^ v0;
+			v2 += v1;
+			v1 = Long.rotateLeft(v1, 17) ^ v2;
+			v2 = Long.rotateLeft(v2, 32);
+		}
+		return v0 ^ v1 ^ v2 ^ v3;
+	}
+}
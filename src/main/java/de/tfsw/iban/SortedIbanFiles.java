@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Set operations on sorted files of distinct {@link PackedIban packed IBANs}, as produced by
+ * {@link IbanExternalSorter}.
+ *
+ * <p>
+ * All operations stream through their inputs once and use constant memory, regardless of the size of the files.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class SortedIbanFiles {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private SortedIbanFiles() {
+		// static helper
+	}
+
+	/**
+	 * Writes all IBANs of the first file that are not contained in the second one.
+	 *
+	 * @param a
+	 *            sorted file of distinct packed IBANs
+	 * @param b
+	 *            sorted file of distinct packed IBANs
+	 * @param out
+	 *            receives the sorted packed IBANs of <code>a \ b</code>; will not be closed
+	 *
+	 * @return the number of IBANs written
+	 *
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	public static long difference(File a, File b, OutputStream out) throws IOException {
+		return merge(a, b, out, true, false, false);
+	}
+
+	/**
+	 * Writes all IBANs contained in both files.
+	 *
+	 * @param a
+	 *            sorted file of distinct packed IBANs
+	 * @param b
+	 *            sorted file of distinct packed IBANs
+	 * @param out
+	 *            receives the sorted packed IBANs of <code>a &#8745; b</code>; will not be closed
+	 *
+	 * @return the number of IBANs written
+	 *
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	public static long intersection(File a, File b, OutputStream out) throws IOException {
+		return merge(a, b, out, false, true, false);
+	}
+
+	/**
+	 * Writes all IBANs contained in either file.
+	 *
+	 * @param a
+	 *            sorted file of distinct packed IBANs
+	 * @param b
+	 *            sorted file of distinct packed IBANs
+	 * @param out
+	 *            receives the sorted packed IBANs of <code>a &#8746; b</code>; will not be closed
+	 *
+	 * @return the number of IBANs written
+	 *
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	public static long union(File a, File b, OutputStream out) throws IOException {
+		return merge(a, b, out, true, true, true);
+	}
+
+	/**
+	 * Converts a file of packed IBANs to text, one machine-readable IBAN per line.
+	 *
+	 * @param file
+	 *            file of packed IBANs
+	 * @param out
+	 *            target; will not be closed
+	 *
+	 * @return the number of IBANs written
+	 *
+	 * @throws IOException
+	 *             if reading or writing fails
+	 */
+	public static long toText(File file, Writer out) throws IOException {
+		final RecordReader reader = new RecordReader(file);
+		try {
+			long written = 0;
+			while (reader.next()) {
+				out.write(PackedIban.unpack(reader.record(), 0));
+				out.write('\n');
+				written++;
+			}
+			out.flush();
+			return written;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Merges two sorted files, writing records only present in <code>a</code>, present in both or only present in
+	 * <code>b</code> as requested.
+	 */
+	private static long merge(final File a, final File b, final OutputStream target, final boolean onlyA,
+			final boolean both, final boolean onlyB) throws IOException {
+		final OutputStream out = new BufferedOutputStream(target, BUFFER_SIZE);
+		final RecordReader readerA = new RecordReader(a);
+		try {
+			final RecordReader readerB = new RecordReader(b);
+			try {
+				long written = 0;
+				readerA.next();
+				readerB.next();
+				while (readerA.available() || readerB.available()) {
+					final int cmp;
+					if (!readerA.available()) {
+						cmp = 1;
+					} else if (!readerB.available()) {
+						cmp = -1;
+					} else {
+						cmp = PackedIban.compare(readerA.record(), 0, readerB.record(), 0);
+					}
+
+					if (cmp < 0) {
+						if (onlyA) {
+							out.write(readerA.record());
+							written++;
+						}
+						readerA.next();
+					} else if (cmp > 0) {
+						if (onlyB) {
+							out.write(readerB.record());
+							written++;
+						}
+						readerB.next();
+					} else {
+						if (both) {
+							out.write(readerA.record());
+							written++;
+						}
+						readerA.next();
+						readerB.next();
+					}
+				}
+				out.flush();
+				return written;
+			} finally {
+				readerB.close();
+			}
+		} finally {
+			readerA.close();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+/**
+ * Selects the kernel computing the MOD97-10 remainders of a {@link DigitColumns} buffer.
+ *
+ * <p>
+ * This is the Java 21 version of the multi-release JAR. It uses the vectorized kernel if the incubating Vector API
+ * has been added to the module graph (<code>--add-modules jdk.incubator.vector</code>), and the scalar kernel
+ * otherwise. Setting the system property <code>de.tfsw.iban.vectorization</code> to <code>false</code> disables the
+ * vectorized kernel.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+final class Mod97Batch {
+
+	private static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+			&& !"false".equals(System.getProperty("de.tfsw.iban.vectorization"));
+
+	private Mod97Batch() {
+		// static helper
+	}
+
+	/**
+	 * @return <code>true</code> if remainders are computed using SIMD instructions
+	 */
+	static boolean isVectorized() {
+		return VECTORIZED;
+	}
+
+	/**
+	 * Computes the remainders of the first <code>count</code> IBANs of a columnar chunk buffer.
+	 *
+	 * @param chunks
+	 *            chunks as laid out by {@link DigitColumns}
+	 * @param stride
+	 *            the capacity of the buffer, i.e. the distance between two chunks of the same IBAN
+	 * @param count
+	 *            the number of IBANs
+	 * @param remainders
+	 *            receives the remainders
+	 */
+	static void remainders(final long[] chunks, final int stride, final int count, final long[] remainders) {
+		if (VECTORIZED) {
+			Mod97Vector.remainders(chunks, stride, count, remainders);
+		} else {
+			DigitColumns.scalarRemainders(chunks, stride, 0, count, remainders);
+		}
+	}
+}
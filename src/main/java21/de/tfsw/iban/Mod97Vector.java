@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vectorized kernel computing the MOD97-10 remainders of a {@link DigitColumns} buffer, one IBAN per lane.
+ *
+ * <p>
+ * Each step multiplies the running remainders by <code>10^7</code> and adds the next column of chunks. The sum is
+ * below <code>2^31</code>, so it is reduced modulo 97 with a multiply-shift (Granlund-Montgomery) instead of a
+ * division: <code>floor(a / 97) = (a * ceil(2^38 / 97)) &gt;&gt;&gt; 38</code> is exact for all <code>a &lt;
+ * 2^31</code>.
+ * </p>
+ *
+ * <p>
+ * Only loaded if the <code>jdk.incubator.vector</code> module is present, see {@link Mod97Batch}.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+final class Mod97Vector {
+
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	private static final long MODULUS = 97L;
+
+	private static final int SHIFT = 38;
+
+	private static final long MAGIC = ((1L << SHIFT) + MODULUS - 1) / MODULUS;
+
+	private Mod97Vector() {
+		// static helper
+	}
+
+	static void remainders(final long[] chunks, final int stride, final int count, final long[] remainders) {
+		final int bound = SPECIES.loopBound(count);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			LongVector r = LongVector.zero(SPECIES);
+			for (int c = 0; c < DigitColumns.COLUMNS; c++) {
+				r = r.mul(DigitColumns.CHUNK_BASE).add(LongVector.fromArray(SPECIES, chunks, c * stride + i));
+				final LongVector q = r.mul(MAGIC).lanewise(VectorOperators.LSHR, SHIFT);
+				r = r.sub(q.mul(MODULUS));
+			}
+			r.intoArray(remainders, i);
+		}
+		DigitColumns.scalarRemainders(chunks, stride, i, count, remainders);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CreditorReference;
+
+/**
+ * Unit tests for {@link CreditorReference}.
+ *
+ * @author Thorsten Frank
+ */
+public class CreditorReferenceTest {
+
+	@Test
+	public void testValid() {
+		final CreditorReference reference = new CreditorReference("RF18 5390 0754 7034");
+		assertEquals("RF18539007547034", reference.toString());
+		assertEquals("RF18 5390 0754 7034", reference.toFormattedString());
+		assertEquals("18", reference.getCheckDigits());
+		assertEquals("539007547034", reference.getReference());
+
+		assertTrue(CreditorReference.isValid("RF18000000000539007547034"));
+		assertTrue(CreditorReference.isValid("RF712348231"));
+		assertEquals(reference, CreditorReference.parse("RF18539007547034"));
+	}
+
+	@Test
+	public void testCreate() {
+		assertEquals("RF18539007547034", CreditorReference.of("539007547034").toString());
+		assertEquals("RF71 2348 231", CreditorReference.of("2348231").toFormattedString());
+		assertEquals("RF18000000000539007547034", CreditorReference.of("000000000539007547034").toString());
+
+		final Random random = new Random(43);
+		final String alphabet = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+		for (int i = 0; i < 1000; i++) {
+			final StringBuilder sb = new StringBuilder();
+			for (int n = 1 + random.nextInt(21); n > 0; n--) {
+				sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			final CreditorReference reference = CreditorReference.of(sb);
+			assertEquals(reference, new CreditorReference(reference.toFormattedString()));
+		}
+
+		assertInvalidReference("");
+		assertInvalidReference("1234567890123456789012");
+		assertInvalidReference("12-34");
+		assertInvalidReference("abc");
+		assertInvalidReference(null);
+	}
+
+	@Test
+	public void testInvalid() {
+		assertInvalid("RF19539007547034"); // check digits
+		assertInvalid("RF18539007547043"); // transposed digits
+		assertInvalid("DE18539007547034");
+		assertInvalid("rf18539007547034");
+		assertInvalid(CreditorReference.of("ABC123").toString().toLowerCase(Locale.ROOT).replace("rf", "RF"));
+		assertInvalid("RF1853900754703-");
+		assertInvalid("RF18");
+		assertInvalid("RF18 0000 0000 0539 0075 4703 40");
+		assertInvalid("");
+		assertInvalid(null);
+	}
+
+	@Test
+	public void testBatch() {
+		final String[] references = new String[3000];
+		for (int i = 0; i < references.length; i++) {
+			references[i] = CreditorReference.of(Integer.toString(i * 7919)).toFormattedString();
+		}
+		references[5] = "RF00 1234";
+		references[2000] = null;
+
+		final boolean[] results = new boolean[references.length];
+		assertEquals(references.length - 2, CreditorReference.validate(references, results));
+		for (int i = 0; i < references.length; i++) {
+			assertEquals(CreditorReference.isValid(references[i]), results[i]);
+		}
+		assertFalse(results[5]);
+
+		assertArrayEquals(new boolean[] { true, false },
+				CreditorReference.validate(Arrays.asList("RF18539007547034", "RF18539007547035")));
+	}
+
+	private static void assertInvalid(final String creditorReference) {
+		assertFalse(CreditorReference.isValid(creditorReference));
+		assertNull(CreditorReference.parse(creditorReference));
+		try {
+			new CreditorReference(creditorReference);
+			fail("Invalid creditor reference accepted: " + creditorReference);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static void assertInvalidReference(final String reference) {
+		try {
+			CreditorReference.of(reference);
+			fail("Invalid reference accepted: " + reference);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
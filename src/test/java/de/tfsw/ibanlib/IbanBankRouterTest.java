@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import de.tfsw.iban.BankBuckets;
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanBankRouter;
+
+/**
+ * Unit tests for {@link IbanBankRouter} and {@link BankBuckets}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanBankRouterTest {
+
+	private static final int IBANS = 50000;
+
+	@Test
+	public void testBankKey() {
+		final long key = IbanBankRouter.bankKey("DE89370400440532013000");
+		assertEquals(key, IbanBankRouter.bankKey("DE89 3704 0044 0532 0130 00"));
+		assertEquals(key, IbanBankRouter.bankKey(new Iban("DE89370400440532013000")));
+		assertEquals("DE37040044", IbanBankRouter.toString(key));
+		assertEquals("GBNWBK", IbanBankRouter.toString(IbanBankRouter.bankKey("GB29NWBK60161331926819")));
+		assertEquals("IT05428", IbanBankRouter.toString(IbanBankRouter.bankKey("IT60X0542811101000000123456")));
+
+		// ordered by country, then bank
+		assertTrue(IbanBankRouter.bankKey("DE89370400440532013000") < IbanBankRouter.bankKey("DE89370400450532013000"));
+		assertTrue(IbanBankRouter.bankKey("DE89999999990532013000") < IbanBankRouter.bankKey("GB29NWBK60161331926819"));
+
+		assertEquals(IbanBankRouter.INVALID_KEY, IbanBankRouter.bankKey((String) null));
+		assertEquals(IbanBankRouter.INVALID_KEY, IbanBankRouter.bankKey(""));
+		assertEquals(IbanBankRouter.INVALID_KEY, IbanBankRouter.bankKey("ZZ89370400440532013000"));
+		assertEquals(IbanBankRouter.INVALID_KEY, IbanBankRouter.bankKey("DE8937040044053201300"));
+		assertEquals(IbanBankRouter.INVALID_KEY, IbanBankRouter.bankKey("DE89370A00440532013000"));
+		assertEquals(IbanBankRouter.INVALID_KEY, IbanBankRouter.bankKey("GB29NW1K60161331926819"));
+	}
+
+	/**
+	 * Routing must produce the same groups as a plain map, in bank order and with ascending indexes.
+	 */
+	@Test
+	public void testRoute() {
+		final Random random = new Random(4711L);
+		final CharSequence[] ibans = new CharSequence[IBANS];
+		final Map<String, List<Integer>> expected = new TreeMap<String, List<Integer>>();
+		final List<Integer> rejected = new ArrayList<Integer>();
+		for (int i = 0; i < IBANS; i++) {
+			if (random.nextInt(100) == 0) {
+				ibans[i] = random.nextBoolean() ? null : "DE00";
+				rejected.add(i);
+				continue;
+			}
+
+			final Iban iban;
+			if (random.nextBoolean()) {
+				iban = new Iban(CountryCode.DE, "370400" + (10 + random.nextInt(50)) + digits(random, 10));
+			} else {
+				iban = new Iban(CountryCode.GB, "NWB" + (char) ('A' + random.nextInt(5)) + digits(random, 14));
+			}
+			ibans[i] = iban.toString();
+
+			final String bank = iban.getCountryCode().name() + iban.getBban().substring(0,
+					iban.getCountryCode() == CountryCode.DE ? 8 : 4);
+			if (!expected.containsKey(bank)) {
+				expected.put(bank, new ArrayList<Integer>());
+			}
+			expected.get(bank).add(i);
+		}
+
+		final BankBuckets buckets = IbanBankRouter.route(ibans);
+		assertEquals(expected.size(), buckets.size());
+		int bucket = 0;
+		for (Map.Entry<String, List<Integer>> entry : expected.entrySet()) {
+			assertEquals(entry.getKey(), buckets.getBank(bucket));
+			assertEquals(bucket, buckets.bucketOf(buckets.getKey(bucket)));
+			assertArrayEquals(toArray(entry.getValue()), buckets.getIndexes(bucket));
+			assertEquals(entry.getValue().size(), buckets.getCount(bucket));
+			bucket++;
+		}
+		assertArrayEquals(toArray(rejected), buckets.getRejected());
+		assertEquals(-1, buckets.bucketOf(IbanBankRouter.bankKey("DE89999999990532013000")));
+
+		final BankBuckets streamed = IbanBankRouter.route(Stream.of(ibans));
+		assertArrayEquals(buckets.getIndexes(), streamed.getIndexes());
+	}
+
+	@Test
+	public void testRouteEmpty() {
+		final BankBuckets buckets = IbanBankRouter.route(new CharSequence[0]);
+		assertEquals(0, buckets.size());
+		assertEquals(0, buckets.getRejected().length);
+	}
+
+	private static String digits(final Random random, final int count) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append((char) ('0' + random.nextInt(10)));
+		}
+		return sb.toString();
+	}
+
+	private static int[] toArray(final List<Integer> list) {
+		final int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.CountrySpec;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanBatchValidator;
+import de.tfsw.iban.IbanRegistry;
+
+/**
+ * Unit tests for {@link IbanBatchValidator}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanBatchValidatorTest {
+
+	/**
+	 * A few hand-picked valid and invalid IBANs.
+	 */
+	@Test
+	public void testValidate() {
+		final List<String> ibans = Arrays.asList(
+				"DE89370400440532013000",
+				"MT84 MALT 0110 0001 2345 MTLC AST0 01S",
+				"DE88370400440532013000", // checksum
+				"DE8937040044053201300", // length
+				"GB25123456789012345678", // pattern
+				"ZZ89370400440532013000", // country
+				"DE8$370400440532013000",
+				"LC55HEMM000100010012001200023015", // longest BBAN, most letters
+				null,
+				"",
+				"DE89 3704 0044 0532 0130 00 1234 5678 9012 3");
+
+		final boolean[] expected = { true, true, false, false, false, false, false, true, false, false, false };
+		assertArrayEquals(expected, IbanBatchValidator.validate(ibans));
+	}
+
+	/**
+	 * Results must agree with {@link Iban#Iban(String)} across block boundaries.
+	 */
+	@Test
+	public void testAgreesWithIban() {
+		final Random random = new Random(4711L);
+		final List<CountrySpec> countries = IbanRegistry.getDefault().getCountries();
+		final String[] ibans = new String[3000];
+		for (int i = 0; i < ibans.length; i++) {
+			final CountrySpec spec = countries.get(random.nextInt(countries.size()));
+			final String iban = randomIban(random, spec);
+			// corrupt every third IBAN
+			ibans[i] = i % 3 == 0 ? iban.substring(0, 6) + (char) ('0' + random.nextInt(10)) + iban.substring(7) : iban;
+		}
+
+		final boolean[] results = new boolean[ibans.length];
+		int expectedValid = 0;
+		final int valid = IbanBatchValidator.validate(ibans, results);
+		for (int i = 0; i < ibans.length; i++) {
+			boolean expected;
+			try {
+				new Iban(ibans[i]);
+				expected = true;
+				expectedValid++;
+			} catch (RuntimeException e) {
+				expected = false;
+			}
+			assertEquals(ibans[i], expected, results[i]);
+		}
+		assertEquals(expectedValid, valid);
+	}
+
+	/**
+	 * Only the whitespace removed by {@link Iban#Iban(String)} is skipped, not all of {@link Character#isWhitespace}.
+	 */
+	@Test
+	public void testWhitespace() {
+		final List<String> ibans = Arrays.asList(
+				"DE89\t3704\n0044\u000B0532\f0130\r00",
+				"DE89 3704 0044\u001C0532 0130 00",
+				"DE89 3704 0044\u20280532 0130 00",
+				"DE89 3704 0044\u20290532 0130 00");
+
+		final boolean[] expected = new boolean[ibans.size()];
+		for (int i = 0; i < expected.length; i++) {
+			try {
+				new Iban(ibans.get(i));
+				expected[i] = true;
+			} catch (RuntimeException e) {
+				expected[i] = false;
+			}
+		}
+		assertArrayEquals(new boolean[] { true, false, false, false }, expected);
+		assertArrayEquals(expected, IbanBatchValidator.validate(ibans));
+	}
+
+	private String randomIban(final Random random, final CountrySpec spec) {
+		final StringBuilder bban = new StringBuilder();
+		for (int i = 0; i < spec.getBbanLength(); i++) {
+			final char digit = (char) ('0' + random.nextInt(10));
+			bban.append(spec.accepts(i, digit) ? digit : (char) ('A' + random.nextInt(26)));
+		}
+		return new Iban(CountryCode.valueOf(spec.getCountry()), bban.toString()).toString();
+	}
+}
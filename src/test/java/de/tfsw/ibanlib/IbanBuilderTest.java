@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.tfsw.iban.BbanValidationException;
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.CountrySpec;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanBuilder;
+import de.tfsw.iban.IbanRegistry;
+
+/**
+ * Unit tests for {@link IbanBuilder}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanBuilderTest {
+
+	@Test
+	public void testBuild() {
+		assertEquals("DE89370400440532013000",
+				new IbanBuilder(CountryCode.DE).bankIdentifier("37040044").accountNumber("0532013000").build());
+		assertEquals("GB29NWBK60161331926819", new IbanBuilder(CountryCode.GB).bankIdentifier("NWBK")
+				.branchIdentifier(601613L).accountNumber(31926819L).build());
+		assertEquals(new Iban("IT60X0542811101000000123456"), new IbanBuilder(CountryCode.IT).bbanPrefix("X")
+				.bankIdentifier("05428").branchIdentifier("11101").accountNumber("123456").toIban());
+	}
+
+	/**
+	 * Numeric segments are left-padded, no matter whether they are passed as strings or numbers.
+	 */
+	@Test
+	public void testPadding() {
+		final IbanBuilder builder = new IbanBuilder(CountryCode.DE).bankIdentifier(37040044L);
+		assertEquals("DE89370400440532013000", builder.accountNumber(532013000L).build());
+		assertEquals("DE89370400440532013000", builder.accountNumber("532013000").build());
+		assertEquals(new Iban(CountryCode.DE, "370400440000000001").toString(), builder.accountNumber(1L).build());
+
+		assertInvalid(builder.country(CountryCode.GB), "1234", null, null); // letters only, no padding
+	}
+
+	/**
+	 * Builders produce the same IBANs as {@link Iban#Iban(CountryCode, String)} for every country.
+	 */
+	@Test
+	public void testAllCountries() throws IOException {
+		final Random random = new Random(41);
+		final StringBuilder out = new StringBuilder();
+		final char[] buffer = new char[34];
+		for (CountryCode cc : CountryCode.values()) {
+			final CountrySpec spec = IbanRegistry.getDefault().lookup(cc);
+			final IbanBuilder builder = new IbanBuilder(cc);
+			for (int n = 0; n < 10; n++) {
+				final StringBuilder bban = new StringBuilder();
+				for (int i = 0; i < spec.getBbanLength(); i++) {
+					final char digit = (char) ('0' + random.nextInt(10));
+					bban.append(spec.accepts(i, digit) ? digit : (char) ('A' + random.nextInt(26)));
+				}
+				if (spec.hasBbanPrefix()) {
+					builder.bbanPrefix(bban.substring(0, spec.getBankIdentifierOffset()));
+				}
+				builder.bankIdentifier(
+						bban.substring(spec.getBankIdentifierOffset(), spec.getBranchIdentifierOffset()));
+				if (spec.hasBranchIdentifier()) {
+					builder.branchIdentifier(
+							bban.substring(spec.getBranchIdentifierOffset(), spec.getAccountNumberOffset()));
+				}
+				builder.accountNumber(bban.substring(spec.getAccountNumberOffset()));
+
+				final String expected = new Iban(cc, bban.toString()).toString();
+				assertEquals(expected, builder.build());
+				assertEquals(expected.length(), builder.writeTo(buffer, 0));
+				assertEquals(expected, new String(buffer, 0, expected.length()));
+				out.setLength(0);
+				builder.appendTo(out);
+				assertEquals(expected, out.toString());
+			}
+		}
+	}
+
+	@Test
+	public void testInvalid() {
+		final IbanBuilder de = new IbanBuilder(CountryCode.DE);
+		assertInvalid(de, "3704004A", null, null);
+		assertInvalid(de, "370400440", null, null);
+		assertInvalid(de, null, null, "12345678901");
+		assertInvalid(de, null, "1", null); // no branch identifier in Germany
+
+		try {
+			de.accountNumber(12345678901L);
+			fail("Account number too large");
+		} catch (BbanValidationException e) {
+			// expected
+		}
+		try {
+			de.accountNumber(-1L);
+			fail("Negative account number");
+		} catch (BbanValidationException e) {
+			// expected
+		}
+
+		de.accountNumber(532013000L);
+		try {
+			de.build();
+			fail("Bank identifier missing");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals("DE89370400440532013000", de.bankIdentifier("37040044").build());
+	}
+
+	private static void assertInvalid(final IbanBuilder builder, final String bank, final String branch,
+			final String account) {
+		try {
+			if (bank != null) {
+				builder.bankIdentifier(bank);
+			}
+			if (branch != null) {
+				builder.branchIdentifier(branch);
+			}
+			if (account != null) {
+				builder.accountNumber(account);
+			}
+			fail("Invalid segment accepted");
+		} catch (BbanValidationException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.IbanColumn;
+import de.tfsw.iban.IbanCursor;
+
+/**
+ * Unit tests for {@link IbanColumn}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanColumnTest {
+
+	@Test
+	public void testAppendAndValidate() {
+		final IbanColumn column = new IbanColumn(2);
+		column.appendAll(Arrays.asList("DE89 3704 0044 0532 0130 00", "GB29NWBK60161331926819", "ZZ00"));
+		final byte[] lines = "AT611904300234573201\r\n\nDE88370400440532013000\nIT60X0542811101000000123456"
+				.getBytes(StandardCharsets.US_ASCII);
+		assertEquals(3, column.appendLines(lines, 0, lines.length));
+		column.append("x".getBytes(StandardCharsets.US_ASCII), 0, 1);
+		assertEquals(7, column.size());
+
+		assertEquals("DE89370400440532013000", column.toString(0));
+		assertEquals("AT611904300234573201", column.toString(3));
+		assertEquals(CountryCode.GB, column.getCountryCode(1));
+		assertNull(column.getCountryCode(2));
+		assertNull(column.getCountryCode(6));
+		assertEquals(IbanColumn.STATUS_UNCHECKED, column.getStatus(0));
+
+		assertEquals(4, column.validate());
+		final byte[] expected = { IbanColumn.STATUS_VALID, IbanColumn.STATUS_VALID, IbanColumn.STATUS_INVALID,
+				IbanColumn.STATUS_VALID, IbanColumn.STATUS_INVALID, IbanColumn.STATUS_VALID,
+				IbanColumn.STATUS_INVALID };
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("Row " + i, expected[i], column.getStatus(i));
+		}
+
+		final IbanCursor cursor = new IbanCursor();
+		assertTrue(column.load(5, cursor));
+		assertEquals("05428", cursor.bankIdentifier().toString());
+		assertFalse(column.load(4, cursor));
+	}
+
+	@Test
+	public void testSelectAndHistogram() {
+		final IbanColumn column = sample();
+		final int[] selection = new int[column.size()];
+
+		int count = column.select(CountryCode.DE, IbanColumn.ANY_STATUS, selection);
+		assertArrayEquals(new int[] { 0, 3 }, Arrays.copyOf(selection, count));
+		count = column.select(null, IbanColumn.STATUS_VALID, selection, count, selection);
+		assertArrayEquals(new int[] { 0 }, Arrays.copyOf(selection, count));
+
+		count = column.select(null, IbanColumn.STATUS_VALID, selection);
+		assertEquals(3, count);
+		final int[] histogram = column.countryHistogram(selection, count);
+		assertEquals(1, histogram[CountryCode.DE.ordinal()]);
+		assertEquals(1, histogram[CountryCode.GB.ordinal()]);
+		assertEquals(1, histogram[CountryCode.AT.ordinal()]);
+
+		assertEquals(2, column.countryHistogram()[CountryCode.DE.ordinal()]);
+	}
+
+	@Test
+	public void testExportImport() {
+		final IbanColumn column = sample();
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(column.getSerializedLength() + 3);
+		buffer.position(3);
+		column.writeTo(buffer);
+		assertEquals(buffer.capacity(), buffer.position());
+
+		buffer.position(3);
+		final IbanColumn imported = IbanColumn.readFrom(buffer);
+		assertEquals(buffer.capacity(), buffer.position());
+		assertEquals(column.size(), imported.size());
+		for (int i = 0; i < column.size(); i++) {
+			assertEquals(column.toString(i), imported.toString(i));
+			assertEquals(column.getStatus(i), imported.getStatus(i));
+			assertEquals(column.getCountryCode(i), imported.getCountryCode(i));
+		}
+		assertEquals(column.getData(), imported.getData());
+		assertEquals(column.getOffsets(), imported.getOffsets());
+	}
+
+	/**
+	 * 100 million IBANs of 22 characters exceed a single array; this must fail clearly instead of overflowing.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLarge() {
+		new IbanColumn(100000000);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testImportGarbage() {
+		IbanColumn.readFrom(ByteBuffer.wrap(new byte[32]));
+	}
+
+	@Test
+	public void testImportCorrupt() {
+		final IbanColumn column = sample();
+		final ByteBuffer buffer = ByteBuffer.allocate(column.getSerializedLength());
+		column.writeTo(buffer);
+
+		// truncated
+		assertImportFails(ByteBuffer.wrap(Arrays.copyOf(buffer.array(), buffer.capacity() - 1)));
+
+		// offsets follow magic, version, size and data length
+		final ByteBuffer decreasing = ByteBuffer.wrap(buffer.array().clone());
+		decreasing.putInt(16 + 2 * 4, decreasing.getInt(16 + 4) - 1);
+		assertImportFails(decreasing);
+
+		final ByteBuffer notFromZero = ByteBuffer.wrap(buffer.array().clone());
+		notFromZero.putInt(16, 1);
+		assertImportFails(notFromZero);
+
+		final ByteBuffer beyondData = ByteBuffer.wrap(buffer.array().clone());
+		beyondData.putInt(16 + column.size() * 4, beyondData.getInt(12) + 1);
+		assertImportFails(beyondData);
+
+		// countries and statuses follow the offsets
+		final int countries = 16 + (column.size() + 1) * 4;
+		final ByteBuffer unknownCountry = ByteBuffer.wrap(buffer.array().clone());
+		unknownCountry.put(countries + 1, (byte) CountryCode.values().length);
+		assertImportFails(unknownCountry);
+
+		final ByteBuffer negativeCountry = ByteBuffer.wrap(buffer.array().clone());
+		negativeCountry.put(countries, (byte) -2);
+		assertImportFails(negativeCountry);
+
+		final ByteBuffer unknownStatus = ByteBuffer.wrap(buffer.array().clone());
+		unknownStatus.put(countries + column.size() + 2, (byte) 3);
+		assertImportFails(unknownStatus);
+	}
+
+	private static void assertImportFails(final ByteBuffer buffer) {
+		try {
+			IbanColumn.readFrom(buffer);
+			fail("Corrupt column imported");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static IbanColumn sample() {
+		final IbanColumn column = new IbanColumn(4);
+		column.appendAll(Arrays.asList("DE89370400440532013000", "GB29NWBK60161331926819", "AT611904300234573201",
+				"DE88370400440532013000"));
+		column.validate();
+		return column;
+	}
+}
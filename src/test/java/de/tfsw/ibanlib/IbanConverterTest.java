@@ -0,0 +1,185 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanConverter;
+
+/**
+ * Unit tests for {@link IbanConverter}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanConverterTest {
+
+	private File directory;
+
+	private File input;
+
+	private File output;
+
+	private File rejects;
+
+	private File checkpoint;
+
+	@Before
+	public void createFiles() throws IOException {
+		directory = Files.createTempDirectory("iban-converter").toFile();
+		input = new File(directory, "accounts.csv");
+		output = new File(directory, "ibans.csv");
+		rejects = new File(directory, "rejects.csv");
+		checkpoint = new File(directory, "checkpoint.bin");
+	}
+
+	@After
+	public void deleteFiles() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testConvert() throws IOException {
+		write(input, "bank;account", "37040044;532013000", "", "37040044 ; 0532013000\r", "3704004A;1",
+				"37040044", "50010517;5407324924");
+		final IbanConverter converter = IbanConverter.builder(0, 1).country(CountryCode.DE).headerLines(1).build();
+
+		final IbanConverter.Result result = converter.convert(input, output, rejects, checkpoint);
+		assertEquals(7, result.getLines());
+		assertEquals(3, result.getConverted());
+		assertEquals(2, result.getRejected());
+		assertFalse(result.isResumed());
+		assertFalse(checkpoint.exists());
+
+		assertEquals(Arrays.asList("37040044;532013000;DE89370400440532013000",
+				"37040044 ; 0532013000;DE89370400440532013000",
+				"50010517;5407324924;" + new Iban(CountryCode.DE, "500105175407324924")), read(output));
+		final List<String> rejected = read(rejects);
+		assertEquals(2, rejected.size());
+		assertTrue(rejected.get(0), rejected.get(0).startsWith("3704004A;1;Invalid bank identifier"));
+		assertEquals("37040044;Missing column 2", rejected.get(1));
+	}
+
+	/**
+	 * Countries from a column, with BBAN prefixes and branch identifiers where needed.
+	 */
+	@Test
+	public void testCountryColumn() throws IOException {
+		write(input, "IT|X|05428|11101|123456", "GB||NWBK|601613|31926819", "DE||37040044||532013000",
+				"GB||NWBK||31926819", "XX||1|2|3");
+		final IbanConverter converter = IbanConverter.builder(2, 4).delimiter('|').countryColumn(0).prefixColumn(1)
+				.branchColumn(3).threads(2).build();
+
+		final IbanConverter.Result result = converter.convert(input, output, rejects, null);
+		assertEquals(3, result.getConverted());
+		assertEquals(Arrays.asList("IT|X|05428|11101|123456|IT60X0542811101000000123456",
+				"GB||NWBK|601613|31926819|GB29NWBK60161331926819", "DE||37040044||532013000|DE89370400440532013000"),
+				read(output));
+		assertEquals(2, read(rejects).size());
+	}
+
+	/**
+	 * An interrupted conversion resumes from its checkpoint and produces the same files as an uninterrupted one.
+	 */
+	@Test
+	public void testResume() throws Exception {
+		final String[] lines = new String[5000];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = (i % 97 == 0 ? "X" : "") + "37040044;" + (i * 7919L);
+		}
+		write(input, lines);
+		final IbanConverter converter = IbanConverter.builder(0, 1).country(CountryCode.DE).chunkSize(1).threads(2)
+				.build();
+
+		final File expectedOutput = new File(directory, "expected.csv");
+		final File expectedRejects = new File(directory, "expected-rejects.csv");
+		final IbanConverter.Result expected = converter.convert(input, expectedOutput, expectedRejects, null);
+
+		final Thread caller = Thread.currentThread();
+		final Thread interrupter = new Thread(() -> {
+			while (!checkpoint.exists()) {
+				Thread.yield();
+			}
+			caller.interrupt();
+		});
+		interrupter.start();
+		try {
+			converter.convert(input, output, rejects, checkpoint);
+			fail("Conversion not interrupted");
+		} catch (InterruptedIOException | java.nio.channels.ClosedByInterruptException e) {
+			// expected
+		} finally {
+			while (interrupter.isAlive()) {
+				Thread.yield();
+			}
+			Thread.interrupted();
+		}
+		assertTrue(checkpoint.exists());
+		assertTrue(read(output).size() < lines.length);
+
+		final IbanConverter.Result resumed = converter.convert(input, output, rejects, checkpoint);
+		assertTrue(resumed.isResumed());
+		assertEquals(expected.getLines(), resumed.getLines());
+		assertEquals(expected.getConverted(), resumed.getConverted());
+		assertEquals(expected.getRejected(), resumed.getRejected());
+		assertArrayEquals(Files.readAllBytes(expectedOutput.toPath()), Files.readAllBytes(output.toPath()));
+		assertArrayEquals(Files.readAllBytes(expectedRejects.toPath()), Files.readAllBytes(rejects.toPath()));
+		assertFalse(checkpoint.exists());
+	}
+
+	/**
+	 * A missing input file fails the conversion after the output files have been opened, which must be closed again.
+	 */
+	@Test(expected = FileNotFoundException.class)
+	public void testMissingInput() throws IOException {
+		IbanConverter.builder(0, 1).country(CountryCode.DE).build().convert(new File(directory, "missing.csv"),
+				output, rejects, checkpoint);
+	}
+
+	private static void write(final File file, final String... lines) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		for (String line : lines) {
+			sb.append(line).append('\n');
+		}
+		Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static List<String> read(final File file) throws IOException {
+		return new ArrayList<String>(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+	}
+}
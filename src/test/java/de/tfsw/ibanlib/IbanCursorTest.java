@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanCursor;
+
+/**
+ * Unit tests for {@link IbanCursor}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanCursorTest {
+
+	@Test
+	public void testSegments() {
+		final IbanCursor cursor = new IbanCursor();
+		assertTrue(cursor.reset("IT60 X054 2811 1010 0000 0123 456"));
+		assertEquals("IT60X0542811101000000123456", cursor.toString());
+		assertEquals(CountryCode.IT, cursor.getCountryCode());
+		assertEquals("IT", cursor.country().toString());
+		assertEquals("60", cursor.checkDigits().toString());
+		assertEquals(60, cursor.getCheckDigits());
+		assertEquals("X0542811101000000123456", cursor.bban().toString());
+		assertEquals("05428", cursor.bankIdentifier().toString());
+		assertEquals("11101", cursor.branchIdentifier().toString());
+		assertEquals("000000123456", cursor.accountNumber().toString());
+		assertEquals(5, cursor.getBankIdentifierOffset());
+		assertEquals(10, cursor.getBranchIdentifierOffset());
+		assertEquals(15, cursor.getAccountNumberOffset());
+		assertEquals('X', cursor.charAt(4));
+		assertEquals(new Iban("IT60X0542811101000000123456"), cursor.toIban());
+
+		// views follow the cursor
+		final CharSequence bank = cursor.bankIdentifier();
+		assertTrue(cursor.reset("DE89370400440532013000"));
+		assertEquals("37040044", bank.toString());
+		assertEquals(0, cursor.branchIdentifier().length());
+		assertEquals("0532013000", cursor.accountNumber().toString());
+	}
+
+	@Test
+	public void testSources() {
+		final IbanCursor cursor = new IbanCursor();
+		final String text = "xxGB29 NWBK 6016 1331 9268 19xx";
+		assertTrue(cursor.reset(text.toCharArray(), 2, text.length() - 4));
+		assertEquals("NWBK", cursor.bankIdentifier().toString());
+		assertTrue(cursor.reset(text.getBytes(StandardCharsets.US_ASCII), 2, text.length() - 4));
+		assertEquals("601613", cursor.branchIdentifier().toString());
+		assertFalse(cursor.reset(text.toCharArray(), 2, text.length() - 5));
+	}
+
+	@Test
+	public void testInvalid() {
+		final IbanCursor cursor = new IbanCursor();
+		assertFalse(cursor.reset(null));
+		assertFalse(cursor.reset(""));
+		assertFalse(cursor.reset("DE88370400440532013000"));
+		assertEquals("DE88370400440532013000", cursor.toString());
+		assertFalse(cursor.reset("ZZ89370400440532013000"));
+		assertFalse(cursor.reset("DE8937040044053201300"));
+		assertFalse(cursor.reset("DE89 3704 0044 0532 0130 00 0000 0000 0000"));
+		assertFalse(cursor.isValid());
+
+		assertTrue(cursor.reset("DE89370400440532013000"));
+		assertTrue(cursor.isValid());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSegmentOfInvalid() {
+		final IbanCursor cursor = new IbanCursor();
+		cursor.reset("DE88370400440532013000");
+		cursor.bankIdentifier();
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.CountrySpec;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanExternalSorter;
+import de.tfsw.iban.IbanRegistry;
+import de.tfsw.iban.PackedIban;
+import de.tfsw.iban.SortedIbanFiles;
+
+/**
+ * Unit tests for {@link PackedIban}, {@link IbanExternalSorter} and {@link SortedIbanFiles}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanExternalSorterTest {
+
+	private static final CountryCode[] COUNTRIES = { CountryCode.NL, CountryCode.DE, CountryCode.GB, CountryCode.AT };
+
+	/**
+	 * Packing validates like {@link Iban#Iban(String)}, unpacking restores the check digits.
+	 */
+	@Test
+	public void testPackAndUnpack() {
+		final byte[] records = new byte[2 * PackedIban.RECORD_LENGTH];
+		assertTrue(PackedIban.pack("MT84 MALT 0110 0001 2345 MTLC AST0 01S", records, PackedIban.RECORD_LENGTH));
+		assertEquals("MT84MALT011000012345MTLCAST001S", PackedIban.unpack(records, PackedIban.RECORD_LENGTH));
+		assertEquals(27, PackedIban.getBbanLength(records, PackedIban.RECORD_LENGTH));
+
+		PackedIban.pack(new Iban("DE89370400440532013000"), records, 0);
+		assertEquals(new Iban("DE89370400440532013000"), PackedIban.toIban(records, 0));
+		assertTrue(PackedIban.compare(records, 0, records, PackedIban.RECORD_LENGTH) < 0);
+
+		final byte[] packed = new byte[PackedIban.RECORD_LENGTH];
+		assertTrue(PackedIban.pack("DE89370400440532013000", packed, 0));
+		assertArrayEquals(packed, subArray(records, 0));
+
+		assertFalse(PackedIban.pack((String) null, packed, 0));
+		assertFalse(PackedIban.pack("", packed, 0));
+		assertFalse(PackedIban.pack("DE88370400440532013000", packed, 0)); // checksum
+
+		// 00 passes the MOD97-10 check like 97, as in Iban(String), but is not stored
+		new Iban("DE00370400440000000060");
+		assertTrue(PackedIban.pack("DE00370400440000000060", packed, 0));
+		assertEquals("DE97370400440000000060", PackedIban.unpack(packed, 0));
+		assertTrue(PackedIban.pack("DE97370400440000000060", packed, 0));
+		assertFalse(PackedIban.pack("DE96370400440000000060", packed, 0));
+		assertFalse(PackedIban.pack("DE8937040044053201300", packed, 0)); // length
+		assertFalse(PackedIban.pack("GB25123456789012345678", packed, 0)); // pattern
+		assertFalse(PackedIban.pack("ZZ89370400440532013000", packed, 0)); // country
+		assertFalse(PackedIban.pack("DE89 3704 0044 0532 0130 00 1234 5678 9012 3", packed, 0)); // too long
+		assertFalse(PackedIban.pack("DE8$370400440532013000", packed, 0));
+		assertFalse(PackedIban.pack("DE89 3704 0044\u20280532 0130 00", packed, 0)); // not removed by Iban
+	}
+
+	/**
+	 * Sorting multiple runs with duplicates and invalid lines.
+	 */
+	@Test
+	public void testSort() throws IOException {
+		final Random random = new Random(4711L);
+		final List<String> valid = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++) {
+			valid.add(randomIban(random));
+		}
+
+		final StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			if (i % 50 == 0) {
+				input.append("invalid ").append(i).append('\n');
+			}
+			final String iban = valid.get(random.nextInt(valid.size()));
+			input.append(i % 2 == 0 ? iban : new Iban(iban).toFormattedString()).append('\n');
+		}
+
+		final StringWriter rejects = new StringWriter();
+		final IbanExternalSorter.Result result = new IbanExternalSorter(null, 300, 3).sort(
+				new StringReader(input.toString()), rejects);
+		result.getFile().deleteOnExit();
+
+		final List<String> expected = sorted(input.toString());
+		assertEquals(100, result.getRejected());
+		assertEquals(100, rejects.toString().split("\n").length);
+		assertEquals(expected.size(), result.getRecords());
+		assertEquals(5000 - expected.size(), result.getDuplicates());
+		assertEquals(expected, text(result.getFile()));
+	}
+
+	/**
+	 * More runs than {@link IbanExternalSorter#MAX_FAN_IN} are merged in several passes, leaving only the result.
+	 */
+	@Test
+	public void testSortMergePasses() throws IOException {
+		final Random random = new Random(42L);
+		final StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			input.append(randomIban(random)).append('\n');
+		}
+
+		final File directory = tempDirectory();
+		try {
+			final IbanExternalSorter.Result result = new IbanExternalSorter(directory, 1, 2).sort(
+					new StringReader(input.toString()), null);
+			assertEquals(sorted(input.toString()), text(result.getFile()));
+			assertArrayEquals(new File[] { result.getFile() }, directory.listFiles());
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * A failing input leaves no temporary files behind.
+	 */
+	@Test
+	public void testSortFailure() throws IOException {
+		final Random random = new Random(43L);
+		final StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			input.append(randomIban(random)).append('\n');
+		}
+
+		final File directory = tempDirectory();
+		try {
+			final StringReader reader = new StringReader(input.toString()) {
+				private int remaining = 100 * 23;
+
+				@Override
+				public int read(final char[] buffer, final int offset, final int length) throws IOException {
+					if (remaining <= 0) {
+						throw new IOException("failing input");
+					}
+					final int read = super.read(buffer, offset, Math.min(length, remaining));
+					remaining -= read;
+					return read;
+				}
+			};
+			try {
+				new IbanExternalSorter(directory, 1, 2).sort(reader, null);
+				fail("failing input not reported");
+			} catch (IOException e) {
+				assertEquals("failing input", e.getMessage());
+			}
+			assertEquals(0, directory.listFiles().length);
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Difference, intersection and union of two sorted files.
+	 */
+	@Test
+	public void testSetOperations() throws IOException {
+		final Random random = new Random(815L);
+		final StringBuilder a = new StringBuilder();
+		final StringBuilder b = new StringBuilder();
+		final StringBuilder shared = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			final String iban = randomIban(random);
+			(i % 3 == 0 ? a : i % 3 == 1 ? b : shared).append(iban).append('\n');
+		}
+
+		final IbanExternalSorter sorter = new IbanExternalSorter(null, 128, 2);
+		final File fileA = sorter.sort(new StringReader(a.toString() + shared), null).getFile();
+		final File fileB = sorter.sort(new StringReader(b.toString() + shared), null).getFile();
+		fileA.deleteOnExit();
+		fileB.deleteOnExit();
+
+		assertEquals(sorted(a.toString()), setOperation(fileA, fileB, 0));
+		assertEquals(sorted(shared.toString()), setOperation(fileA, fileB, 1));
+		assertEquals(sorted(a.toString() + b + shared), setOperation(fileA, fileB, 2));
+		assertEquals(sorted(b.toString()), setOperation(fileB, fileA, 0));
+	}
+
+	private List<String> setOperation(final File a, final File b, final int operation) throws IOException {
+		final File result = File.createTempFile("iban-set", ".bin");
+		result.deleteOnExit();
+		final FileOutputStream out = new FileOutputStream(result);
+		try {
+			if (operation == 0) {
+				SortedIbanFiles.difference(a, b, out);
+			} else if (operation == 1) {
+				SortedIbanFiles.intersection(a, b, out);
+			} else {
+				SortedIbanFiles.union(a, b, out);
+			}
+		} finally {
+			out.close();
+		}
+		return text(result);
+	}
+
+	private File tempDirectory() throws IOException {
+		final File directory = File.createTempFile("iban-sorter", "");
+		assertTrue(directory.delete() && directory.mkdir());
+		return directory;
+	}
+
+	private void deleteDirectory(final File directory) {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private List<String> text(final File file) throws IOException {
+		final StringWriter out = new StringWriter();
+		SortedIbanFiles.toText(file, out);
+		final List<String> lines = new ArrayList<String>();
+		for (String line : out.toString().split("\n")) {
+			if (line.length() > 0) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Expected result: valid IBANs ordered by country, then BBAN.
+	 */
+	private List<String> sorted(final String input) {
+		final TreeSet<String> keys = new TreeSet<String>();
+		for (String line : input.split("\n")) {
+			try {
+				final Iban iban = new Iban(line);
+				keys.add(iban.getCountryCode().name() + iban.getBban() + " " + iban.getChecksum());
+			} catch (RuntimeException e) {
+				// invalid
+			}
+		}
+
+		final List<String> ibans = new ArrayList<String>();
+		for (String key : keys) {
+			ibans.add(key.substring(0, 2) + key.substring(key.length() - 2) + key.substring(2, key.length() - 3));
+		}
+		return ibans;
+	}
+
+	private String randomIban(final Random random) {
+		final CountrySpec spec = IbanRegistry.getDefault().lookup(COUNTRIES[random.nextInt(COUNTRIES.length)]);
+		final StringBuilder bban = new StringBuilder();
+		for (int i = 0; i < spec.getBbanLength(); i++) {
+			final char digit = (char) ('0' + random.nextInt(10));
+			bban.append(spec.accepts(i, digit) ? digit : (char) ('A' + random.nextInt(26)));
+		}
+		return new Iban(spec.getCountryCode(), bban.toString()).toString();
+	}
+
+	private byte[] subArray(final byte[] records, final int offset) {
+		final byte[] record = new byte[PackedIban.RECORD_LENGTH];
+		System.arraycopy(records, offset, record, 0, record.length);
+		return record;
+	}
+}
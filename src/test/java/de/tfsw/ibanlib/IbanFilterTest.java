@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanFilter;
+
+/**
+ * Unit tests for {@link IbanFilter}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanFilterTest {
+
+	private static final int ENTRIES = 100000;
+
+	private static final double FALSE_POSITIVE_RATE = 0.01d;
+
+	/**
+	 * All added IBANs are found, and the false positive rate is roughly the configured one.
+	 */
+	@Test
+	public void testFalsePositiveRate() {
+		final IbanFilter filter = buildFilter();
+		assertEquals(ENTRIES, filter.getEntries());
+		assertFalsePositiveRate(filter);
+	}
+
+	/**
+	 * Formatting does not matter.
+	 */
+	@Test
+	public void testFormatting() {
+		final IbanFilter filter = IbanFilter.builder(10, 0.001d).add("DE89 3704 0044 0532 0130 00").build();
+		assertTrue(filter.mightContain("DE89370400440532013000"));
+		assertTrue(filter.mightContain(new Iban("DE89370400440532013000")));
+		assertFalse(filter.mightContain("DE89370400440532013001"));
+	}
+
+	/**
+	 * A filter written to a file and mapped back must answer identically.
+	 */
+	@Test
+	public void testWriteAndRead() throws IOException {
+		final IbanFilter filter = buildFilter();
+		final File file = File.createTempFile("iban-filter", ".bin");
+		file.deleteOnExit();
+		filter.writeTo(file);
+		assertEquals(filter.getSizeInBytes() + 24, file.length());
+
+		final IbanFilter mapped = IbanFilter.read(file);
+		assertEquals(filter.getEntries(), mapped.getEntries());
+		assertEquals(filter.getSizeInBytes(), mapped.getSizeInBytes());
+		assertFalsePositiveRate(mapped);
+
+		final Random random = new Random();
+		for (int i = 0; i < 1000; i++) {
+			final String iban = randomIban(random);
+			assertEquals(filter.mightContain(iban), mapped.mightContain(iban));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadInvalidFile() throws IOException {
+		final File file = File.createTempFile("iban-filter", ".bin");
+		file.deleteOnExit();
+		IbanFilter.read(file);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidRate() {
+		IbanFilter.builder(10, 1.0d);
+	}
+
+	private IbanFilter buildFilter() {
+		final Random random = new Random(4711L);
+		final List<String> ibans = new ArrayList<String>();
+		for (int i = 0; i < ENTRIES; i++) {
+			ibans.add(randomIban(random));
+		}
+		return IbanFilter.builder(ENTRIES, FALSE_POSITIVE_RATE).addAll(ibans).build();
+	}
+
+	private void assertFalsePositiveRate(final IbanFilter filter) {
+		Random random = new Random(4711L);
+		for (int i = 0; i < ENTRIES; i++) {
+			assertTrue(filter.mightContain(randomIban(random)));
+		}
+
+		random = new Random(815L);
+		int falsePositives = 0;
+		for (int i = 0; i < ENTRIES; i++) {
+			if (filter.mightContain(randomIban(random))) {
+				falsePositives++;
+			}
+		}
+		assertTrue("False positive rate too high: " + falsePositives,
+				falsePositives < ENTRIES * FALSE_POSITIVE_RATE * 1.5d);
+	}
+
+	private String randomIban(final Random random) {
+		final StringBuilder sb = new StringBuilder("DE");
+		for (int i = 0; i < 20; i++) {
+			sb.append((char) ('0' + random.nextInt(10)));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanLookalikeIndex;
+
+/**
+ * Unit tests for {@link IbanLookalikeIndex}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanLookalikeIndexTest {
+
+	private static final int IBANS = 30000;
+
+	@Test
+	public void testSearch() {
+		final IbanLookalikeIndex index = IbanLookalikeIndex.builder(2)
+				.add(new Iban("DE89370400440532013000"))
+				.add("DE89 3704 0044 0532 0130 00") // duplicate
+				.add(new Iban(CountryCode.DE, "370400440532013001")) // distance 1
+				.add(new Iban(CountryCode.DE, "370400440532013011")) // distance 2
+				.add(new Iban(CountryCode.DE, "370400440532013111")) // distance 3
+				.add(new Iban(CountryCode.DE, "470400440532013001")) // distance 2
+				.add("GB29NWBK60161331926819")
+				.add("DE00370400440532013000") // invalid
+				.build();
+		assertEquals(6, index.size());
+
+		assertEquals(Collections.singletonList("DE89370400440532013000"), index.search("DE89370400440532013000", 0));
+		assertEquals(2, index.search("DE89370400440532013000", 1).size());
+		assertEquals(4, index.search(new Iban("DE89370400440532013000"), 2).size());
+		assertEquals(0, index.search("DE00370400440532013000", 2).size());
+		assertEquals(0, index.search(new Iban(CountryCode.DE, "999999999999999999"), 2).size());
+	}
+
+	/**
+	 * Results must be the same as comparing with every stored IBAN.
+	 */
+	@Test
+	public void testAgainstBruteForce() {
+		final Random random = new Random(4711L);
+		final List<String> bbans = new ArrayList<String>();
+		final IbanLookalikeIndex.Builder builder = IbanLookalikeIndex.builder(2);
+		for (int i = 0; i < IBANS; i++) {
+			final String bban = "3704004" + random.nextInt(3) + String.format("%010d", random.nextInt(100000));
+			bbans.add(bban);
+			builder.add(new Iban(CountryCode.DE, bban));
+		}
+		final IbanLookalikeIndex index = builder.build();
+
+		for (int q = 0; q < 50; q++) {
+			final char[] query = bbans.get(random.nextInt(IBANS)).toCharArray();
+			query[random.nextInt(query.length)] = (char) ('0' + random.nextInt(10));
+			for (int distance = 0; distance <= 2; distance++) {
+				final List<String> expected = new ArrayList<String>();
+				for (String bban : bbans) {
+					final String iban = new Iban(CountryCode.DE, bban).toString();
+					if (hamming(bban, new String(query)) <= distance && !expected.contains(iban)) {
+						expected.add(iban);
+					}
+				}
+
+				final List<String> found = index.search(new Iban(CountryCode.DE, new String(query)), distance);
+				Collections.sort(expected);
+				Collections.sort(found);
+				assertEquals(expected, found);
+			}
+		}
+		assertTrue(index.getSizeInBytes() > 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDistanceTooLarge() {
+		IbanLookalikeIndex.builder(1).build().search("DE89370400440532013000", 2);
+	}
+
+	private static int hamming(final String a, final String b) {
+		int distance = 0;
+		for (int i = 0; i < a.length(); i++) {
+			if (a.charAt(i) != b.charAt(i)) {
+				distance++;
+			}
+		}
+		return distance;
+	}
+}
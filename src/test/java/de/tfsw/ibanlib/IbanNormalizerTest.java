@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanFormatException;
+import de.tfsw.iban.IbanNormalizer;
+
+/**
+ * Unit tests for {@link IbanNormalizer}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanNormalizerTest {
+
+	private static final String IBAN = "DE89370400440532013000";
+
+	@Test
+	public void testNormalize() {
+		final IbanNormalizer normalizer = IbanNormalizer.LENIENT;
+		assertEquals(IBAN, normalizer.normalize("DE89 3704 0044 0532 0130 00"));
+		assertEquals(IBAN, normalizer.normalize("de89-3704-0044.0532.0130.00"));
+		assertEquals(IBAN, normalizer.normalize("DE89 3704 0044 0532\t0130\n00"));
+		assertEquals(IBAN, normalizer.normalize("DE89\u00A03704\u00A00044\u202F0532 0130 00"));
+		assertEquals(IBAN, normalizer.normalize("IBAN: DE89 3704 0044 0532 0130 00"));
+		assertEquals(IBAN, normalizer.normalize("  iban DE89370400440532013000 "));
+		assertEquals(IBAN, normalizer.normalize(new StringBuilder("IBAN:de89370400440532013000")));
+
+		// already normalized input is not copied
+		assertSame(IBAN, normalizer.normalize(IBAN));
+	}
+
+	@Test
+	public void testIllegalCharacters() {
+		assertIllegal(IbanNormalizer.LENIENT, "DE89/3704/0044/0532/0130/00");
+		assertIllegal(IbanNormalizer.LENIENT, "DE89 3704 0044 0532 0130 00 \u00C4");
+		assertIllegal(IbanNormalizer.LENIENT, "DE89 3704 0044 0532 0130 0000 0000 0000 0000");
+		assertIllegal(IbanNormalizer.LENIENT, null);
+
+		final IbanNormalizer strict = IbanNormalizer.builder().separators("").upperCase(false).stripPrefix(false)
+				.build();
+		assertEquals("de89370400440532013000", strict.normalize("de89 3704 0044 0532 0130 00"));
+		assertIllegal(strict, "DE89-3704-0044-0532-0130-00");
+		assertIllegal(strict, "IBAN: DE89370400440532013000");
+
+		final IbanNormalizer slashes = IbanNormalizer.builder().separators("-./").build();
+		assertEquals(IBAN, slashes.normalize("DE89/3704/0044/0532/0130/00"));
+
+		try {
+			IbanNormalizer.builder().separators("-0");
+			fail("Digit accepted as separator");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testValidation() {
+		final IbanNormalizer normalizer = IbanNormalizer.LENIENT;
+		assertTrue(normalizer.isValid("iban: de89-3704-0044-0532-0130-00"));
+		assertFalse(normalizer.isValid("iban: de88-3704-0044-0532-0130-00"));
+		assertFalse(normalizer.isValid("DE89/3704/0044/0532/0130/00"));
+		assertFalse(normalizer.isValid("IBAN"));
+		assertFalse(normalizer.isValid(null));
+
+		assertEquals(new Iban(IBAN), normalizer.toIban("IBAN: de89 3704 0044 0532 0130 00"));
+
+		final char[] target = new char[40];
+		assertEquals(22, normalizer.normalize("de89 3704 0044 0532 0130 00", target, 6));
+		assertEquals(IBAN, new String(target, 6, 22));
+		assertEquals(-1, normalizer.normalize("DE89 3704 0044 0532 0130 00", target, 20));
+		assertEquals(-1, normalizer.normalize("DE89_3704", target, 0));
+	}
+
+	private static void assertIllegal(final IbanNormalizer normalizer, final String input) {
+		try {
+			normalizer.normalize(input);
+			fail("Illegal input accepted: " + input);
+		} catch (IbanFormatException e) {
+			// expected
+		}
+		assertEquals(-1, normalizer.normalize(input, new char[34], 0));
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanHash;
+import de.tfsw.iban.IbanPartitioner;
+
+/**
+ * Unit tests for {@link IbanHash} and {@link IbanPartitioner}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanPartitionerTest {
+
+	private static final int KEYS = 20000;
+
+	/**
+	 * The fingerprint ignores formatting and must never change.
+	 */
+	@Test
+	public void testFingerprint() {
+		final long expected = 5591573922537325592L;
+		assertEquals(expected, IbanHash.fingerprint("DE89370400440532013000"));
+		assertEquals(expected, IbanHash.fingerprint("DE89 3704 0044 0532 0130 00"));
+		assertEquals(expected, IbanHash.fingerprint("de89 3704 0044 0532 0130 00"));
+		assertEquals(expected, IbanHash.fingerprint(new Iban("DE89370400440532013000")));
+		assertEquals(expected, IbanHash.fingerprint("DE89370400440532013000".toCharArray(), 0, 22));
+		assertEquals(expected, IbanHash.fingerprint("xDE89370400440532013000".getBytes(), 1, 22));
+
+		assertNotEquals(expected, IbanHash.fingerprint("DE89370400440532013001"));
+		assertNotEquals(IbanHash.fingerprint("DE8937040044"), IbanHash.fingerprint("DE89370400440"));
+	}
+
+	/**
+	 * Keys must be spread evenly across shards.
+	 */
+	@Test
+	public void testSkew() {
+		final String[] ibans = randomIbans();
+		final IbanPartitioner partitioner = new IbanPartitioner(16);
+		final int[] counts = new int[partitioner.getShards()];
+		for (String iban : ibans) {
+			counts[partitioner.shardOf(iban)]++;
+		}
+
+		final int expected = KEYS / partitioner.getShards();
+		for (int count : counts) {
+			assertTrue("Shard too skewed: " + count, Math.abs(count - expected) < expected / 10);
+		}
+	}
+
+	/**
+	 * Adding a shard only moves keys to the new shard, and only about 1 / n of them.
+	 */
+	@Test
+	public void testRebalancing() {
+		final String[] ibans = randomIbans();
+		final IbanPartitioner before = new IbanPartitioner(10);
+		final IbanPartitioner after = new IbanPartitioner(11);
+
+		int moved = 0;
+		for (String iban : ibans) {
+			final int oldShard = before.shardOf(iban);
+			final int newShard = after.shardOf(iban);
+			if (oldShard != newShard) {
+				assertEquals(10, newShard);
+				moved++;
+			}
+		}
+
+		final int expected = KEYS / 11;
+		assertTrue("Too many keys moved: " + moved, Math.abs(moved - expected) < expected / 10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoShards() {
+		new IbanPartitioner(0);
+	}
+
+	private String[] randomIbans() {
+		final Random random = new Random(4711L);
+		final String[] ibans = new String[KEYS];
+		final StringBuilder bban = new StringBuilder();
+		for (int i = 0; i < KEYS; i++) {
+			bban.setLength(0);
+			for (int n = 0; n < CountryCode.DE.getBbanLength(); n++) {
+				bban.append((char) ('0' + random.nextInt(10)));
+			}
+			ibans[i] = new Iban(CountryCode.DE, bban.toString()).toString();
+		}
+		return ibans;
+	}
+}
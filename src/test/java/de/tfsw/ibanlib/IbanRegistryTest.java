@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.tfsw.iban.BbanValidationException;
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.CountrySpec;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanRegistry;
+import de.tfsw.iban.IbanRegistryException;
+
+/**
+ * Unit tests for {@link IbanRegistry} and {@link CountrySpec}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanRegistryTest {
+
+	@After
+	public void resetDefaultRegistry() {
+		IbanRegistry.getDefault().reset();
+	}
+
+	/**
+	 * The built-in specs must describe exactly the same formats as {@link CountryCode}.
+	 */
+	@Test
+	public void testBuiltIns() {
+		final IbanRegistry registry = new IbanRegistry();
+		assertEquals(CountryCode.values().length, registry.getCountries().size());
+
+		for (CountryCode cc : CountryCode.values()) {
+			final CountrySpec spec = registry.lookup(cc.name());
+			assertEquals(cc, spec.getCountryCode());
+			assertEquals(cc.getBbanLength(), spec.getBbanLength());
+			assertEquals(cc.hasBranchIdentifier(), spec.hasBranchIdentifier());
+			assertEquals(cc.hasBbanPrefix(), spec.hasBbanPrefix());
+		}
+
+		assertNull(registry.lookup("ZZ"));
+		assertNull(registry.lookup("de"));
+		assertNull(registry.lookup((String) null));
+	}
+
+	/**
+	 * Segment offsets and lengths of a few representative countries.
+	 */
+	@Test
+	public void testSegments() {
+		final IbanRegistry registry = new IbanRegistry();
+
+		CountrySpec spec = registry.lookup(CountryCode.IT);
+		assertEquals(1, spec.getBbanPrefixLength());
+		assertEquals(1, spec.getBankIdentifierOffset());
+		assertEquals(5, spec.getBankIdentifierLength());
+		assertEquals(6, spec.getBranchIdentifierOffset());
+		assertEquals(5, spec.getBranchIdentifierLength());
+		assertEquals(11, spec.getAccountNumberOffset());
+		assertEquals(12, spec.getAccountNumberLength());
+		assertEquals(27, spec.getIbanLength());
+
+		spec = registry.lookup(CountryCode.DE);
+		assertEquals(0, spec.getBankIdentifierOffset());
+		assertEquals(8, spec.getBankIdentifierLength());
+		assertEquals(0, spec.getBranchIdentifierLength());
+		assertEquals(8, spec.getAccountNumberOffset());
+
+		assertTrue(spec.matchesBban("370400440532013000"));
+		assertFalse(spec.matchesBban("37040044053201300A"));
+		assertFalse(spec.matchesBban("37040044053201300"));
+		assertTrue(registry.lookup(CountryCode.GB).matchesBban("NWBK60161331926819"));
+		assertFalse(registry.lookup(CountryCode.GB).matchesBban("NW1K60161331926819"));
+	}
+
+	/**
+	 * Loading overrides built-in countries and adds new ones.
+	 */
+	@Test
+	public void testLoad() throws IOException {
+		final IbanRegistry registry = new IbanRegistry();
+		registry.load(new StringReader(
+				"# changed and new countries\n"
+				+ "\n"
+				+ "DE 19 \\d{8} \\d{11}\n"
+				+ "ZZ 10 [A-Z]{2} - \\d{8}\n"
+				+ "  XY 8 [A-Z] \\d{2} \\d{2} \\w{3}  \n"));
+
+		assertEquals(19, registry.lookup(CountryCode.DE).getBbanLength());
+		assertEquals(16, registry.lookup(CountryCode.AT).getBbanLength());
+
+		final CountrySpec zz = registry.lookup("ZZ");
+		assertNull(zz.getCountryCode());
+		assertFalse(zz.hasBranchIdentifier());
+		assertTrue(zz.matchesBban("AB12345678"));
+
+		final CountrySpec xy = registry.lookup("XY");
+		assertTrue(xy.hasBbanPrefix());
+		assertTrue(xy.hasBranchIdentifier());
+		assertEquals(3, xy.getBranchIdentifierOffset());
+		assertTrue(xy.matchesBban("A1234x1Z"));
+
+		// loading again discards the previous file
+		registry.load(new StringReader("XY 8 [A-Z] \\d{2} \\d{2} \\w{3}"));
+		assertNull(registry.lookup("ZZ"));
+		assertEquals(18, registry.lookup(CountryCode.DE).getBbanLength());
+	}
+
+	/**
+	 * A malformed file must leave the current specs untouched.
+	 */
+	@Test
+	public void testLoadMalformed() throws IOException {
+		final IbanRegistry registry = new IbanRegistry();
+		registry.load(new StringReader("ZZ 10 [A-Z]{2} \\d{8}"));
+
+		assertMalformed(registry, "DE 19 \\d{8} \\d{10}"); // segments don't add up
+		assertMalformed(registry, "DE x \\d{8} \\d{10}");
+		assertMalformed(registry, "DE 18 \\d{8}");
+		assertMalformed(registry, "DE 18 \\s{8} \\d{10}");
+		assertMalformed(registry, "D1 18 \\d{8} \\d{10}");
+
+		assertEquals(10, registry.lookup("ZZ").getBbanLength());
+		assertEquals(18, registry.lookup("DE").getBbanLength());
+	}
+
+	/**
+	 * {@link Iban} validates against the default registry.
+	 */
+	@Test
+	public void testIbanUsesDefaultRegistry() throws IOException {
+		final Iban iban = new Iban(CountryCode.DE, "370400440532013000");
+
+		IbanRegistry.getDefault().load(new StringReader("DE 19 \\d{8} \\d{11}"));
+		try {
+			new Iban(iban.toString());
+			fail("BBAN length change not picked up");
+		} catch (BbanValidationException e) {
+			// expected
+		}
+		assertEquals(19, new Iban(CountryCode.DE, "3704004405320130001").getBban().length());
+
+		IbanRegistry.getDefault().reset();
+		assertEquals(iban, new Iban(iban.toString()));
+	}
+
+	/**
+	 * Reloading a registry file only if it has been modified.
+	 */
+	@Test
+	public void testReloadIfModified() throws IOException {
+		final File file = File.createTempFile("iban-registry", ".txt");
+		file.deleteOnExit();
+		write(file, "ZZ 10 [A-Z]{2} \\d{8}");
+
+		final IbanRegistry registry = new IbanRegistry();
+		registry.load(file);
+		assertEquals(10, registry.lookup("ZZ").getBbanLength());
+		assertFalse(registry.reloadIfModified());
+
+		write(file, "ZZ 12 [A-Z]{2} \\d{10}");
+		file.setLastModified(file.lastModified() + 10000L);
+		assertTrue(registry.reloadIfModified());
+		assertEquals(12, registry.lookup("ZZ").getBbanLength());
+	}
+
+	private void assertMalformed(final IbanRegistry registry, final String line) throws IOException {
+		try {
+			registry.load(new StringReader(line));
+			fail("Malformed line accepted: " + line);
+		} catch (IbanRegistryException e) {
+			// expected
+		}
+	}
+
+	private void write(final File file, final String content) throws IOException {
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanBankRouter;
+import de.tfsw.iban.IbanSketch;
+import de.tfsw.iban.IbanSketchFamily;
+import de.tfsw.iban.IbanSketchFamily.Grouping;
+
+/**
+ * Unit tests for {@link IbanSketch} and {@link IbanSketchFamily}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanSketchTest {
+
+	private static final int DISTINCT = 100000;
+
+	@Test
+	public void testEstimate() {
+		final IbanSketch sketch = new IbanSketch();
+		assertEquals(0, sketch.estimate());
+		for (int i = 0; i < DISTINCT; i++) {
+			sketch.add(iban(i));
+			sketch.add(iban(i / 2)); // duplicates do not count
+		}
+		assertWithin(DISTINCT, sketch.estimate(), 0.03);
+
+		final IbanSketch small = new IbanSketch(10);
+		for (int i = 0; i < 100; i++) {
+			small.add(iban(i));
+		}
+		assertWithin(100, small.estimate(), 0.05);
+	}
+
+	@Test
+	public void testMergeAndSerialize() throws IOException {
+		final IbanSketch all = new IbanSketch(12);
+		final IbanSketch even = new IbanSketch(12);
+		final IbanSketch odd = new IbanSketch(12);
+		for (int i = 0; i < 20000; i++) {
+			all.add(iban(i));
+			(i % 2 == 0 ? even : odd).add(iban(i));
+		}
+		even.merge(odd);
+		assertEquals(all.estimate(), even.estimate());
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		all.writeTo(out);
+		final IbanSketch read = IbanSketch.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(12, read.getPrecision());
+		assertEquals(all.estimate(), read.estimate());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMergeDifferentPrecision() {
+		new IbanSketch(12).merge(new IbanSketch(13));
+	}
+
+	@Test
+	public void testFamilies() throws IOException {
+		final IbanSketchFamily countries = new IbanSketchFamily(Grouping.COUNTRY, 12);
+		final IbanSketchFamily banks = new IbanSketchFamily(Grouping.BANK, 12);
+		for (int i = 0; i < 10000; i++) {
+			countries.add(iban(i));
+			banks.add(iban(i));
+		}
+		assertTrue(countries.add(new Iban("GB29NWBK60161331926819")));
+		assertFalse(countries.add("DE00"));
+
+		assertEquals(2, countries.getKeys().length);
+		assertEquals("DE", countries.getLabel(countries.getKeys()[0]));
+		assertEquals(1, countries.estimate(CountryCode.GB));
+		assertWithin(10000, countries.estimate(CountryCode.DE), 0.05);
+
+		assertEquals(10, banks.getKeys().length);
+		final long bank = banks.keyOf("DE89370400430532013000");
+		assertEquals(IbanBankRouter.bankKey("DE89370400430532013000"), bank);
+		assertEquals("DE37040043", banks.getLabel(bank));
+		assertWithin(1000, banks.estimate(bank), 0.05);
+		assertNull(banks.getSketch(IbanBankRouter.bankKey("GB29NWBK60161331926819")));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		banks.writeTo(out);
+		final IbanSketchFamily read = IbanSketchFamily.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(Grouping.BANK, read.getGrouping());
+		read.merge(banks);
+		assertEquals(banks.estimate(bank), read.estimate(bank));
+	}
+
+	private static Iban iban(final int i) {
+		return new Iban(CountryCode.DE, String.format("3704004%d%010d", i % 10, i));
+	}
+
+	private static void assertWithin(final long expected, final long actual, final double error) {
+		assertTrue("Estimate " + actual + " too far off " + expected, Math.abs(actual - expected) <= expected * error);
+	}
+}
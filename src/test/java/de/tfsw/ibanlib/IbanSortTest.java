@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.CountrySpec;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanRegistry;
+import de.tfsw.iban.IbanSort;
+import de.tfsw.iban.PackedIban;
+
+/**
+ * Unit tests for the natural ordering of {@link Iban} and {@link IbanSort}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanSortTest {
+
+	private static final int BATCH_SIZE = 100000;
+
+	/**
+	 * Country ordinal order must be alphabetical so that packed records and {@link Iban} objects agree.
+	 */
+	@Test
+	public void testCountryCodesAlphabetical() {
+		final CountryCode[] codes = CountryCode.values();
+		for (int i = 1; i < codes.length; i++) {
+			assertTrue(codes[i - 1].name() + " " + codes[i].name(), codes[i - 1].name().compareTo(codes[i].name()) < 0);
+		}
+	}
+
+	/**
+	 * Natural ordering of {@link Iban}: country code, then BBAN.
+	 */
+	@Test
+	public void testCompareTo() {
+		final Iban de = new Iban("DE89370400440532013000");
+		final Iban de2 = new Iban(CountryCode.DE, "370400440532013001");
+		final Iban at = new Iban("AT611904300234573201");
+
+		assertEquals(0, de.compareTo(new Iban("DE89 3704 0044 0532 0130 00")));
+		assertTrue(de.compareTo(de2) < 0);
+		assertTrue(de2.compareTo(de) > 0);
+		assertTrue(at.compareTo(de) < 0);
+
+		final byte[] records = new byte[3 * PackedIban.RECORD_LENGTH];
+		PackedIban.pack(de, records, 0);
+		PackedIban.pack(de2, records, PackedIban.RECORD_LENGTH);
+		PackedIban.pack(at, records, 2 * PackedIban.RECORD_LENGTH);
+		assertTrue(PackedIban.compare(records, 0, records, PackedIban.RECORD_LENGTH) < 0);
+		assertTrue(PackedIban.compare(records, 2 * PackedIban.RECORD_LENGTH, records, 0) < 0);
+		assertTrue(Long.compareUnsigned(PackedIban.getWord(records, 0, 0),
+				PackedIban.getWord(records, 2 * PackedIban.RECORD_LENGTH, 0)) > 0);
+	}
+
+	/**
+	 * Check digits <code>00</code> pass the MOD97-10 check in place of <code>97</code>; such IBANs are not equal and
+	 * must not compare as equal either.
+	 */
+	@Test
+	public void testCompareToCheckDigitAlias() {
+		final Iban canonical = new Iban("DE97370400440000000060");
+		final Iban alias = new Iban("DE00370400440000000060");
+		assertNotEquals(canonical, alias);
+		assertTrue(alias.compareTo(canonical) < 0);
+		assertTrue(canonical.compareTo(alias) > 0);
+		assertTrue(alias.compareTo(new Iban(CountryCode.DE, "370400440000000061")) < 0);
+
+		final TreeSet<Iban> set = new TreeSet<Iban>(Arrays.asList(canonical, alias));
+		assertEquals(2, set.size());
+	}
+
+	/**
+	 * Sorting a large batch must be equivalent to a stable comparison sort.
+	 */
+	@Test
+	public void testSortIbans() {
+		final Iban[] ibans = randomBatch(new Random(4711L));
+		final Iban[] expected = ibans.clone();
+		Arrays.sort(expected);
+
+		IbanSort.sort(ibans);
+		for (int i = 0; i < ibans.length; i++) {
+			assertSame(expected[i], ibans[i]); // stable
+		}
+	}
+
+	/**
+	 * IBANs differing only in aliased check digits are sorted by check digits, like {@link Arrays#sort(Object[])}.
+	 */
+	@Test
+	public void testSortCheckDigitAliases() {
+		final Iban[] ibans = new Iban[] { new Iban("DE97370400440000000060"), new Iban("DE99370400440000000024"),
+				new Iban("DE00370400440000000060"), new Iban("DE02370400440000000024"),
+				new Iban("DE98370400440000000042"), new Iban("DE01370400440000000042"),
+				new Iban("DE97370400440000000060"), new Iban("AT611904300234573201") };
+		final Iban[] expected = ibans.clone();
+		Arrays.sort(expected);
+		assertEquals("DE02370400440000000024", expected[1].toString());
+		assertEquals("DE00370400440000000060", expected[5].toString());
+
+		IbanSort.sort(ibans);
+		for (int i = 0; i < ibans.length; i++) {
+			assertSame(expected[i], ibans[i]);
+		}
+	}
+
+	/**
+	 * Sorting a range of a small batch.
+	 */
+	@Test
+	public void testSortRange() {
+		final Iban[] ibans = Arrays.copyOf(randomBatch(new Random(815L)), 100);
+		final Iban[] expected = ibans.clone();
+		Arrays.sort(expected, 10, 90);
+
+		IbanSort.sort(ibans, 10, 90);
+		assertArrayEquals(expected, ibans);
+	}
+
+	/**
+	 * Sorting packed IBANs.
+	 */
+	@Test
+	public void testSortPacked() {
+		final Iban[] ibans = randomBatch(new Random(42L));
+		final byte[] records = new byte[ibans.length * PackedIban.RECORD_LENGTH];
+		for (int i = 0; i < ibans.length; i++) {
+			PackedIban.pack(ibans[i], records, i * PackedIban.RECORD_LENGTH);
+		}
+
+		IbanSort.sortPacked(records, ibans.length);
+		Arrays.sort(ibans);
+		for (int i = 0; i < ibans.length; i++) {
+			assertEquals(ibans[i].toString(), PackedIban.unpack(records, i * PackedIban.RECORD_LENGTH));
+		}
+	}
+
+	/**
+	 * A large batch drawn from a smaller pool, dominated by a single country, with many duplicates.
+	 */
+	private Iban[] randomBatch(final Random random) {
+		final List<CountrySpec> countries = IbanRegistry.getDefault().getCountries();
+		final List<Iban> pool = new ArrayList<Iban>();
+		for (int i = 0; i < 5000; i++) {
+			final CountrySpec spec = i % 2 == 0 ? IbanRegistry.getDefault().lookup(CountryCode.DE)
+					: countries.get(random.nextInt(countries.size()));
+			final StringBuilder bban = new StringBuilder();
+			for (int n = 0; n < spec.getBbanLength(); n++) {
+				final char digit = (char) ('0' + random.nextInt(10));
+				bban.append(spec.accepts(n, digit) ? digit : (char) ('A' + random.nextInt(26)));
+			}
+			pool.add(new Iban(spec.getCountryCode(), bban.toString()));
+		}
+
+		final Iban[] batch = new Iban[BATCH_SIZE];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = pool.get(random.nextInt(pool.size()));
+		}
+		return batch;
+	}
+}
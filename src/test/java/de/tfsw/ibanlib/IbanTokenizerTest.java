@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.CountrySpec;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanRegistry;
+import de.tfsw.iban.IbanTokenizer;
+
+/**
+ * Unit tests for {@link IbanTokenizer}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanTokenizerTest {
+
+	private final IbanTokenizer tokenizer = new IbanTokenizer(key(1));
+
+	/**
+	 * Tokens of every country are valid IBANs of the same format, and can be restored.
+	 */
+	@Test
+	public void testFormatPreserved() {
+		final Random random = new Random(39);
+		for (CountryCode cc : CountryCode.values()) {
+			final CountrySpec spec = IbanRegistry.getDefault().lookup(cc);
+			for (int i = 0; i < 20; i++) {
+				final String iban = randomIban(random, spec);
+				final String token = tokenizer.tokenize(iban);
+
+				final Iban parsed = new Iban(token);
+				assertEquals(cc, parsed.getCountryCode());
+				assertEquals(iban.length(), token.length());
+				assertTrue(token, spec.matchesBban(parsed.getBban()));
+				assertEquals(iban, tokenizer.detokenize(token));
+			}
+		}
+	}
+
+	@Test
+	public void testDeterministic() {
+		final String iban = "DE89 3704 0044 0532 0130 00";
+		final String token = tokenizer.tokenize(iban);
+		assertEquals(token, new IbanTokenizer(key(1)).tokenize("DE89370400440532013000"));
+		assertFalse(token.equals(new IbanTokenizer(key(2)).tokenize(iban)));
+		assertFalse(token.equals("DE89370400440532013000"));
+		assertEquals(new Iban(token), tokenizer.tokenize(new Iban(iban)));
+	}
+
+	/**
+	 * Segments are tokenized independently, so IBANs of the same bank share the bank token.
+	 */
+	@Test
+	public void testSegmentsIndependent() {
+		final Iban a = new Iban(tokenizer.tokenize(new Iban(CountryCode.GB, "NWBK60161331926819").toString()));
+		final Iban b = new Iban(tokenizer.tokenize(new Iban(CountryCode.GB, "NWBK60161331926820").toString()));
+		final Iban c = new Iban(tokenizer.tokenize(new Iban(CountryCode.GB, "NWBK60161431926819").toString()));
+		// GB: bank identifier 0-4, branch identifier 4-10, account number 10-18
+		assertEquals(a.getBban().substring(0, 10), b.getBban().substring(0, 10));
+		assertFalse(a.getBban().substring(10).equals(b.getBban().substring(10)));
+		assertEquals(a.getBban().substring(0, 4), c.getBban().substring(0, 4));
+		assertFalse(a.getBban().substring(4, 10).equals(c.getBban().substring(4, 10)));
+		assertEquals(a.getBban().substring(10), c.getBban().substring(10));
+	}
+
+	@Test
+	public void testNoCollisions() {
+		final Set<String> tokens = new HashSet<String>();
+		for (int i = 0; i < 10000; i++) {
+			tokens.add(tokenizer.tokenize(new Iban(CountryCode.DE, String.format("37040044%010d", i)).toString()));
+		}
+		assertEquals(10000, tokens.size());
+	}
+
+	@Test
+	public void testBulk() {
+		final Random random = new Random(7);
+		final CountrySpec spec = IbanRegistry.getDefault().lookup(CountryCode.FR);
+		final String[] ibans = new String[10000];
+		for (int i = 0; i < ibans.length; i++) {
+			ibans[i] = randomIban(random, spec);
+		}
+		ibans[17] = "FR00 invalid";
+		ibans[4711] = null;
+
+		final String[] tokens = new String[ibans.length];
+		assertEquals(ibans.length - 2, tokenizer.tokenizeAll(ibans, tokens));
+		for (int i = 0; i < ibans.length; i++) {
+			if (i == 17 || i == 4711) {
+				assertNull(tokens[i]);
+			} else {
+				assertEquals(tokenizer.tokenize(ibans[i]), tokens[i]);
+			}
+		}
+
+		final List<String> list = tokenizer.tokenizeAll(Arrays.asList("DE89370400440532013000", "DE00"));
+		assertEquals(tokenizer.tokenize("DE89370400440532013000"), list.get(0));
+		assertNull(list.get(1));
+	}
+
+	@Test
+	public void testInvalid() {
+		assertInvalid("DE88370400440532013000");
+		assertInvalid("DE89370400440532013");
+		assertInvalid("XX89370400440532013000");
+		assertInvalid(null);
+
+		try {
+			new IbanTokenizer(new byte[15]);
+			fail("Short key accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private void assertInvalid(final String iban) {
+		try {
+			tokenizer.tokenize(iban);
+			fail("Invalid IBAN tokenized: " + iban);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static byte[] key(final int seed) {
+		final byte[] key = new byte[16];
+		new Random(seed).nextBytes(key);
+		return key;
+	}
+
+	private static String randomIban(final Random random, final CountrySpec spec) {
+		final StringBuilder bban = new StringBuilder();
+		for (int i = 0; i < spec.getBbanLength(); i++) {
+			final char digit = (char) ('0' + random.nextInt(10));
+			bban.append(spec.accepts(i, digit) ? digit : (char) ('A' + random.nextInt(26)));
+		}
+		return new Iban(CountryCode.valueOf(spec.getCountry()), bban.toString()).toString();
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanTrie;
+import de.tfsw.iban.IbanTrie.Level;
+
+/**
+ * Unit tests for {@link IbanTrie}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanTrieTest {
+
+	@Test
+	public void testPutGetRemove() {
+		final IbanTrie<String> trie = new IbanTrie<String>();
+		assertNull(trie.put("DE89 3704 0044 0532 0130 00", "a"));
+		assertEquals("a", trie.put(new Iban("DE89370400440532013000"), "b"));
+		assertNull(trie.put("GB29NWBK60161331926819", "c"));
+		assertEquals(2, trie.size());
+
+		assertEquals("b", trie.get("DE89370400440532013000"));
+		assertTrue(trie.contains("GB29 NWBK 6016 1331 9268 19"));
+		assertFalse(trie.contains("DE89370400440532013001"));
+		assertNull(trie.get("not an iban"));
+
+		assertEquals("b", trie.remove("DE89370400440532013000"));
+		assertNull(trie.remove("DE89370400440532013000"));
+		assertEquals(1, trie.size());
+		assertEquals("c", trie.get("GB29NWBK60161331926819"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPutInvalid() {
+		new IbanTrie<Object>().put("DE88370400440532013000", null);
+	}
+
+	/**
+	 * Prefix queries must follow segment boundaries, even where a national prefix precedes the bank identifier.
+	 */
+	@Test
+	public void testPrefixQueries() {
+		final IbanTrie<Integer> trie = new IbanTrie<Integer>();
+		trie.put("IT60X0542811101000000123456", 1);
+		trie.put(new Iban(CountryCode.IT, "A0542811101000000123456"), 2);
+		trie.put(new Iban(CountryCode.IT, "X0542811102000000123456"), 3);
+		trie.put(new Iban(CountryCode.IT, "X0542911101000000123456"), 4);
+		trie.put("DE89370400440532013000", 5);
+
+		assertEquals(4, trie.count("IT", null, null));
+		assertEquals(3, trie.count("IT", "05428", null));
+		assertEquals(2, trie.count("IT", "05428", "11101"));
+		assertEquals(0, trie.count("FR", null, null));
+		assertEquals(3, trie.count("IT60X0542811101000000123456", Level.BANK));
+		assertEquals(1, trie.count("DE89370400440532013000", Level.COUNTRY));
+
+		final List<String> visited = new ArrayList<String>();
+		trie.forEach("IT", "05428", "11101", (iban, value) -> visited.add(iban));
+		assertEquals(2, visited.size());
+		assertTrue(visited.contains("IT60X0542811101000000123456"));
+
+		visited.clear();
+		trie.forEach((iban, value) -> visited.add(iban));
+		assertEquals("DE89370400440532013000", visited.get(0));
+		assertEquals(5, visited.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongBankLength() {
+		new IbanTrie<Object>().count("DE", "1234", null);
+	}
+
+	/**
+	 * Random inserts and removals must match a {@link TreeMap}, including the order of iteration.
+	 */
+	@Test
+	public void testAgainstTreeMap() {
+		final Random random = new Random(4711L);
+		final IbanTrie<Integer> trie = new IbanTrie<Integer>();
+		final TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+		for (int i = 0; i < 20000; i++) {
+			final String iban = new Iban(CountryCode.DE, String.format("370400%02d%010d", random.nextInt(30),
+					random.nextInt(500))).toString();
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(iban), trie.remove(iban));
+			} else {
+				assertEquals(expected.put(iban, i), trie.put(iban, i));
+			}
+		}
+		assertEquals(expected.size(), trie.size());
+
+		final List<String> keys = new ArrayList<String>();
+		trie.forEach((iban, value) -> {
+			keys.add(iban);
+			assertEquals(expected.get(iban), value);
+		});
+		// DE BBANs are bank identifier followed by account number, so key order is BBAN order
+		assertEquals(expected.keySet(), new TreeSet<String>(keys));
+		for (int i = 1; i < keys.size(); i++) {
+			assertTrue(keys.get(i - 1).substring(4).compareTo(keys.get(i).substring(4)) < 0);
+		}
+
+		int bank = 0;
+		for (String iban : expected.keySet()) {
+			if (iban.startsWith("37040007", 4)) {
+				bank++;
+			}
+		}
+		assertEquals(bank, trie.count("DE", "37040007", null));
+
+		final List<String> bankKeys = new ArrayList<String>();
+		trie.forEach("DE", "37040007", null, (iban, value) -> bankKeys.add(iban));
+		assertEquals(bank, bankKeys.size());
+		for (String iban : bankKeys) {
+			assertTrue(iban.startsWith("37040007", 4));
+			assertEquals(expected.get(iban), trie.get(iban));
+		}
+	}
+
+	/**
+	 * Readers never see a partially applied write.
+	 */
+	@Test
+	public void testConcurrentReaders() throws InterruptedException {
+		final IbanTrie<Integer> trie = new IbanTrie<Integer>();
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicBoolean failed = new AtomicBoolean();
+		final Thread reader = new Thread(() -> {
+			while (!done.get()) {
+				final int size = trie.size();
+				final int[] visited = new int[1];
+				trie.forEach((iban, value) -> visited[0]++);
+				if (visited[0] < size) {
+					failed.set(true);
+				}
+			}
+		});
+		reader.start();
+		for (int i = 0; i < 5000; i++) {
+			trie.put(new Iban(CountryCode.DE, String.format("37040044%010d", i)), i);
+		}
+		done.set(true);
+		reader.join();
+		assertFalse(failed.get());
+		assertEquals(5000, trie.count("DE", "37040044", null));
+	}
+}
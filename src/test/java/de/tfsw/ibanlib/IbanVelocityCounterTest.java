@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanVelocityCounter;
+
+/**
+ * Unit tests for {@link IbanVelocityCounter}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanVelocityCounterTest {
+
+	private static final long MINUTE = 60000L;
+
+	private static final long START = 1500000000000L;
+
+	@Test
+	public void testSlidingWindow() {
+		final IbanVelocityCounter counter = new IbanVelocityCounter(10, 1, TimeUnit.MINUTES);
+		assertEquals(10, counter.getWindow(TimeUnit.MINUTES));
+
+		for (int minute = 0; minute < 5; minute++) {
+			counter.add("DE89370400440532013000", START + minute * MINUTE);
+			counter.add("DE89370400440532013000", START + minute * MINUTE + 1000L);
+		}
+		counter.add("GB29NWBK60161331926819", START);
+
+		assertEquals(10, counter.count("DE89 3704 0044 0532 0130 00", START + 5 * MINUTE));
+		assertEquals(1, counter.count("gb29nwbk60161331926819", START + 5 * MINUTE));
+		assertEquals(0, counter.count("FR1420041010050500013M02606", START + 5 * MINUTE));
+
+		// the first minute drops out of the window
+		assertEquals(10, counter.count("DE89370400440532013000", START + 9 * MINUTE + 59000L));
+		assertEquals(8, counter.count("DE89370400440532013000", START + 10 * MINUTE));
+		assertEquals(6, counter.count("DE89370400440532013000", START + 11 * MINUTE));
+		assertEquals(0, counter.count("GB29NWBK60161331926819", START + 10 * MINUTE));
+		assertEquals(0, counter.count("DE89370400440532013000", START + 20 * MINUTE));
+	}
+
+	/**
+	 * Buckets are reused by later rounds of the ring, and events older than the window are ignored.
+	 */
+	@Test
+	public void testRingReuse() {
+		final IbanVelocityCounter counter = new IbanVelocityCounter(3, 1, TimeUnit.SECONDS);
+		final String iban = "DE89370400440532013000";
+		for (long second = 0; second < 100; second++) {
+			counter.add(iban, START + second * 1000L);
+			counter.add(iban, START + second * 1000L + 500L);
+			assertEquals(Math.min(6, 2 * (second + 1)), counter.count(iban, START + second * 1000L + 999L));
+		}
+
+		counter.add(iban, START);
+		assertEquals(6, counter.count(iban, START + 99999L));
+	}
+
+	/**
+	 * Estimates are never too low and rarely much too high.
+	 */
+	@Test
+	public void testAccuracy() {
+		final IbanVelocityCounter counter = new IbanVelocityCounter(1, 1, TimeUnit.MINUTES, 1 << 16, 4);
+		for (int i = 0; i < 5000; i++) {
+			for (int n = 0; n <= i % 3; n++) {
+				counter.add(iban(i).toString(), START);
+			}
+		}
+
+		int exact = 0;
+		for (int i = 0; i < 5000; i++) {
+			final long count = counter.count(iban(i).toString(), START);
+			assertTrue(count >= i % 3 + 1);
+			if (count == i % 3 + 1) {
+				exact++;
+			}
+		}
+		assertTrue("Only " + exact + " exact counts", exact > 4900);
+	}
+
+	@Test
+	public void testConcurrent() {
+		final IbanVelocityCounter counter = new IbanVelocityCounter(1, 1, TimeUnit.HOURS);
+		final String hot = "DE89370400440532013000";
+		IntStream.range(0, 100000).parallel().forEach(i -> counter.add(hot, START));
+		assertEquals(100000, counter.count(hot, START));
+	}
+
+	/**
+	 * An event of an older epoch must not restart a counter that already belongs to a newer epoch of the same slot.
+	 */
+	@Test
+	public void testOlderEpochKeepsNewerCounts() {
+		final IbanVelocityCounter counter = new IbanVelocityCounter(1, 1, TimeUnit.MINUTES);
+		final String iban = "DE89370400440532013000";
+		counter.add(iban, START + MINUTE);
+		counter.add(iban, START + MINUTE);
+		counter.add(iban, START);
+		counter.add(iban, START + MINUTE);
+		assertEquals(3, counter.count(iban, START + MINUTE));
+	}
+
+	/**
+	 * Threads racing across bucket boundaries of a single-bucket window; events of the last minute must all be counted.
+	 */
+	@Test
+	public void testConcurrentEpochs() throws InterruptedException {
+		final IbanVelocityCounter counter = new IbanVelocityCounter(1, 1, TimeUnit.MINUTES);
+		final String iban = "DE89370400440532013000";
+		final int minutes = 200;
+		final int perMinute = 500;
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int minute = 0; minute < minutes; minute++) {
+					for (int i = 0; i < perMinute; i++) {
+						counter.add(iban, START + minute * MINUTE);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(threads.length * perMinute, counter.count(iban, START + (minutes - 1) * MINUTE));
+	}
+
+	@Test
+	public void testInvalidParameters() {
+		assertInvalid(1, 2, 1024, 4);
+		assertInvalid(1000, 0, 1024, 4);
+		assertInvalid(1000, 1, 0, 4);
+		assertInvalid(1000, 1, 1024, 17);
+		assertInvalid(100000000, 1, 1 << 20, 4);
+
+		final IbanVelocityCounter counter = new IbanVelocityCounter(10, 3, TimeUnit.SECONDS, 1000, 2);
+		assertEquals(1024, counter.getWidth());
+		assertEquals(12, counter.getWindow(TimeUnit.SECONDS));
+		assertEquals(4 * 2 * 1024 * 8, counter.getSizeInBytes());
+	}
+
+	private static void assertInvalid(final long window, final long granularity, final int width, final int depth) {
+		try {
+			new IbanVelocityCounter(window, granularity, TimeUnit.MILLISECONDS, width, depth);
+			fail("Invalid parameters accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static Iban iban(final int i) {
+		return new Iban(CountryCode.DE, String.format("37040044%010d", i));
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanXmlFailure;
+import de.tfsw.iban.IbanXmlFailure.Reason;
+import de.tfsw.iban.IbanXmlValidator;
+
+/**
+ * Unit tests for {@link IbanXmlValidator}.
+ *
+ * @author Thorsten Frank
+ */
+public class IbanXmlValidatorTest {
+
+	private static final int TRANSACTIONS = 3000;
+
+	private static final String DEBTOR = "DE89370400440532013000";
+
+	private final IbanXmlValidator validator = new IbanXmlValidator();
+
+	@Test
+	public void testValidate() throws XMLStreamException {
+		final List<IbanXmlFailure> failures = new ArrayList<IbanXmlFailure>();
+		final IbanXmlValidator.Result result = validator.validate(pain001(), failures::add);
+		assertExpectedFailures(result, failures);
+	}
+
+	@Test
+	public void testValidateBatch() throws XMLStreamException {
+		final List<IbanXmlFailure> failures = new ArrayList<IbanXmlFailure>();
+		final IbanXmlValidator.Result result = validator.validateBatch(pain001(), failures::add);
+		assertExpectedFailures(result, failures);
+	}
+
+	@Test
+	public void testReasons() throws XMLStreamException {
+		assertReason(Reason.FORMAT, "not an iban");
+		assertReason(Reason.FORMAT, "DE89 3704 0044 0532 0130 00 0000 0000 0000 0000 0000 0000 0000 0000");
+		assertReason(Reason.UNKNOWN_COUNTRY, "ZZ89370400440532013000");
+		assertReason(Reason.BBAN, "DE8937040044053201300");
+		assertReason(Reason.CHECKSUM, "DE88370400440532013000");
+	}
+
+	@Test
+	public void testMalformed() {
+		final String xml = "<Document><CdtrAcct><Id><IBAN>DE00</IBAN></Id>";
+		try {
+			validator.validateBatch(stream(xml), failure -> {
+			});
+			fail("Malformed document accepted");
+		} catch (XMLStreamException e) {
+			// expected
+		}
+	}
+
+	private void assertReason(final Reason reason, final String iban) throws XMLStreamException {
+		final String xml = "<Document><IBAN>" + iban + "</IBAN></Document>";
+		final List<IbanXmlFailure> failures = new ArrayList<IbanXmlFailure>();
+		validator.validate(stream(xml), failures::add);
+		assertEquals(1, failures.size());
+		assertEquals(reason, failures.get(0).getReason());
+
+		failures.clear();
+		validator.validateBatch(stream(xml), failures::add);
+		assertEquals(reason, failures.get(0).getReason());
+	}
+
+	private void assertExpectedFailures(final IbanXmlValidator.Result result, final List<IbanXmlFailure> failures) {
+		assertEquals(TRANSACTIONS + 1, result.getChecked());
+		assertEquals(TRANSACTIONS / 100, result.getInvalid());
+		assertEquals(TRANSACTIONS / 100, failures.size());
+
+		for (int n = 0; n < failures.size(); n++) {
+			final IbanXmlFailure failure = failures.get(n);
+			final int transaction = n * 100 + 1;
+			assertEquals(
+					"/Document/CstmrCdtTrfInitn[1]/PmtInf[1]/CdtTrfTxInf[" + transaction
+							+ "]/CdtrAcct[1]/Id[1]/IBAN[1]",
+					failure.getLocation());
+			assertEquals(Reason.CHECKSUM, failure.getReason());
+			assertEquals(tamper(creditor(transaction - 1)), failure.getValue());
+		}
+	}
+
+	/**
+	 * A credit transfer initiation with one debtor and many creditors, every 100th creditor IBAN is invalid.
+	 */
+	private static InputStream pain001() {
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<Document xmlns=\"urn:iso:std:iso:20022:tech:xsd:pain.001.001.03\">\n");
+		xml.append("<CstmrCdtTrfInitn><GrpHdr><MsgId>4711</MsgId></GrpHdr>\n");
+		xml.append("<PmtInf><DbtrAcct><Id><IBAN>").append(DEBTOR).append("</IBAN></Id></DbtrAcct>\n");
+		for (int i = 0; i < TRANSACTIONS; i++) {
+			String creditor = creditor(i);
+			if (i % 100 == 0) {
+				creditor = tamper(creditor);
+			}
+			xml.append("<CdtTrfTxInf><Amt><InstdAmt Ccy=\"EUR\">1.00</InstdAmt></Amt>");
+			xml.append("<CdtrAcct><Id><IBAN>").append(creditor).append("</IBAN></Id></CdtrAcct></CdtTrfTxInf>\n");
+		}
+		xml.append("</PmtInf></CstmrCdtTrfInitn></Document>\n");
+		return stream(xml.toString());
+	}
+
+	/**
+	 * Changes the last digit, which MOD97-10 always detects.
+	 */
+	private static String tamper(final String iban) {
+		final char last = iban.charAt(iban.length() - 1);
+		return iban.substring(0, iban.length() - 1) + (char) ('0' + (last - '0' + 1) % 10);
+	}
+
+	private static String creditor(final int i) {
+		final String account = String.format("%010d", i);
+		return i % 2 == 0 ? new Iban(CountryCode.DE, "37040044" + account).toString()
+				: new Iban(CountryCode.GB, "NWBK601613" + account.substring(2)).toString();
+	}
+
+	private static InputStream stream(final String xml) {
+		return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib.stress;
+
+/**
+ * A log-linear latency histogram in the spirit of HdrHistogram: values below 256 are counted exactly, larger values
+ * in buckets of 1/128 of their power of two, i.e. with a relative error below 0.8%. Recording never allocates.
+ *
+ * <p>
+ * Objects of this class are not thread-safe; record into one histogram per thread and {@link #add(LatencyHistogram)
+ * merge} them afterwards.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class LatencyHistogram {
+
+	private static final int LINEAR_BITS = 8;
+
+	private static final int LINEAR = 1 << LINEAR_BITS;
+
+	private static final int HALF = LINEAR >> 1;
+
+	private static final int BUCKETS = LINEAR + (Long.SIZE - LINEAR_BITS) * HALF;
+
+	private final long[] counts = new long[BUCKETS];
+
+	private long count;
+
+	private long max;
+
+	private double sum;
+
+	/**
+	 * Creates an empty histogram.
+	 */
+	public LatencyHistogram() {
+		super();
+	}
+
+	/**
+	 * Records a value, negative values are recorded as <code>0</code>.
+	 *
+	 * @param value
+	 *            e.g. a latency in nanoseconds
+	 */
+	public void record(long value) {
+		value = Math.max(0L, value);
+		counts[indexOf(value)]++;
+		count++;
+		sum += value;
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Adds all values of another histogram to this one.
+	 *
+	 * @param other
+	 *            the other histogram
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 *
+	 * @param percentile
+	 *            between <code>0</code> and <code>100</code>
+	 *
+	 * @return the largest value of the bucket containing the supplied percentile, <code>0</code> if the histogram is
+	 *         empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0L;
+		}
+		final long rank = Math.max(1L, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(max, highestValueOf(i));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 *
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return the exact largest recorded value
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 *
+	 * @return the exact mean of all recorded values
+	 */
+	public double getMean() {
+		return count == 0 ? 0.0 : sum / count;
+	}
+
+	private static int indexOf(final long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - LINEAR_BITS;
+		return LINEAR + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	private static long highestValueOf(final int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		final int shift = (index - LINEAR) / HALF + 1;
+		final long top = (index - LINEAR) % HALF + HALF;
+		return ((top + 1) << shift) - 1;
+	}
+}
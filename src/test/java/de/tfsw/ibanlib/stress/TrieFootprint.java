@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib.stress;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeMap;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanTrie;
+
+/**
+ * Measures the heap retained per entry by an {@link IbanTrie} and by a {@link TreeMap} of the same IBAN strings.
+ *
+ * <p>
+ * German IBANs with random account numbers are spread over a number of random banks. The retained heap is the
+ * difference of the used heap after repeated garbage collections before and after filling the collection; the IBANs
+ * themselves are created beforehand, and the map gets its own copies of the strings. Run it from the command line
+ * after <code>mvn test-compile</code>, once for each collection:
+ * </p>
+ *
+ * <pre>
+ * java -Xmx4g -cp target/classes:target/test-classes de.tfsw.ibanlib.stress.TrieFootprint trie|treemap [ibans] [banks]
+ * </pre>
+ *
+ * @author Thorsten Frank
+ */
+public final class TrieFootprint {
+
+	/** Keeps the IBANs reachable while measuring. */
+	private static String[] ibans;
+
+	/** Keeps the collection reachable while measuring. */
+	private static Object collection;
+
+	private TrieFootprint() {
+		// command line only
+	}
+
+	/**
+	 * @param args
+	 *            <code>trie</code> or <code>treemap</code>, optionally followed by the number of IBANs (default
+	 *            1,000,000) and banks (default 2,000)
+	 */
+	public static void main(String[] args) {
+		final boolean trie = "trie".equals(args[0]);
+		final int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		final int bankCount = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+		final Random random = new Random(4711L);
+		final String[] banks = new String[bankCount];
+		for (int i = 0; i < banks.length; i++) {
+			banks[i] = String.format("%08d", random.nextInt(100000000));
+		}
+		ibans = new String[count];
+		for (int i = 0; i < ibans.length; i++) {
+			final long account = (long) (random.nextDouble() * 1e10);
+			ibans[i] = new Iban(CountryCode.DE, banks[random.nextInt(banks.length)] + String.format("%010d", account))
+					.toString();
+		}
+
+		final long before = usedHeap();
+		if (trie) {
+			final IbanTrie<Boolean> ibanTrie = new IbanTrie<Boolean>();
+			for (String iban : ibans) {
+				ibanTrie.put(iban, Boolean.TRUE);
+			}
+			collection = ibanTrie;
+		} else {
+			final TreeMap<String, Boolean> map = new TreeMap<String, Boolean>();
+			for (String iban : ibans) {
+				map.put(new String(iban.toCharArray()), Boolean.TRUE);
+			}
+			collection = map;
+		}
+		final long retained = usedHeap() - before;
+
+		System.out.println(String.format(Locale.ROOT, "%s: %.1f bytes per IBAN (%d IBANs, %d banks)",
+				collection.getClass().getSimpleName(), (double) retained / count, count, bankCount));
+	}
+
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
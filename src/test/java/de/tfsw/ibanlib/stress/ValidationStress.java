@@ -0,0 +1,654 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib.stress;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import de.tfsw.iban.CountryCode;
+import de.tfsw.iban.CountrySpec;
+import de.tfsw.iban.Iban;
+import de.tfsw.iban.IbanRegistry;
+
+/**
+ * Measures the tail latency of the validation path under concurrency.
+ *
+ * <p>
+ * A configurable number of platform or virtual threads call one of the {@link Operation}s at a fixed total arrival
+ * rate, open-loop: every call has an intended start time on a fixed schedule, and its latency is measured from that
+ * time rather than from the moment the thread actually got around to it. A call delayed by a GC pause or by a slow
+ * predecessor therefore shows up with its full waiting time, which corrects for coordinated omission. The plain service
+ * time of every call is recorded as well, the difference between the two is the queueing delay. Alongside the
+ * percentiles, the report contains the number, total and longest duration of GC pauses and the bytes allocated per
+ * call.
+ * </p>
+ *
+ * <p>
+ * The harness is part of the test sources and not shipped. Run it from the command line after
+ * <code>mvn test-compile</code>:
+ * </p>
+ *
+ * <pre>
+ * java -Xmx512m -cp target/classes:target/test-classes de.tfsw.ibanlib.stress.ValidationStress \
+ *     --operation iban --threads 64 --rate 200000 --duration 30 --warmup 10 --invalid 0.1 [--virtual]
+ * </pre>
+ *
+ * <p>
+ * Virtual threads require Java 21 or later at runtime; they are created through reflection because the library is
+ * compiled for Java 8. Allocation statistics are not available for virtual threads.
+ * </p>
+ *
+ * @author Thorsten Frank
+ */
+public final class ValidationStress {
+
+	/**
+	 * The code paths under test.
+	 */
+	public enum Operation {
+		/** {@link Iban#Iban(String)}, strict validation and object creation. */
+		IBAN {
+			@Override
+			int run(final Input input) {
+				return new Iban(input.iban).hashCode();
+			}
+		},
+		/** {@link Iban#validateIban(String)}, relaxed validation. */
+		VALIDATE {
+			@Override
+			int run(final Input input) {
+				return Iban.validateIban(input.iban).length();
+			}
+		},
+		/** {@link CountryCode#fromString(String)}. */
+		COUNTRY {
+			@Override
+			int run(final Input input) {
+				return CountryCode.fromString(input.country).ordinal();
+			}
+		};
+
+		/**
+		 * Runs the operation once; exceptions are part of the measured path.
+		 *
+		 * @return any value depending on the result, to keep the JIT from eliminating the call
+		 */
+		abstract int run(Input input);
+	}
+
+	private static final int INPUTS = 4096;
+
+	private static final long SPIN_THRESHOLD = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9, 99.99, 100.0 };
+
+	private Operation operation = Operation.IBAN;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private boolean virtual;
+
+	private long rate = 100000;
+
+	private long duration = TimeUnit.SECONDS.toNanos(10);
+
+	private long warmup = TimeUnit.SECONDS.toNanos(5);
+
+	private double invalid = 0.1;
+
+	/** Written by all threads so that results are not dead code. */
+	private volatile int sink;
+
+	/**
+	 * Creates a harness with default settings: {@link Operation#IBAN}, one platform thread per processor, 100,000 calls
+	 * per second, 5 seconds of warm-up, 10 seconds of measurement and 10% invalid input.
+	 */
+	public ValidationStress() {
+		super();
+	}
+
+	/**
+	 * Command line entry point, see the class documentation for the options.
+	 *
+	 * @param args
+	 *            command line arguments
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		final ValidationStress stress = new ValidationStress();
+		for (int i = 0; i < args.length; i++) {
+			final String option = args[i];
+			if ("--virtual".equals(option)) {
+				stress.virtual(true);
+			} else if (i + 1 < args.length) {
+				final String value = args[++i];
+				if ("--operation".equals(option)) {
+					stress.operation(Operation.valueOf(value.toUpperCase(Locale.ROOT)));
+				} else if ("--threads".equals(option)) {
+					stress.threads(Integer.parseInt(value));
+				} else if ("--rate".equals(option)) {
+					stress.rate(Long.parseLong(value));
+				} else if ("--duration".equals(option)) {
+					stress.duration(Long.parseLong(value), TimeUnit.SECONDS);
+				} else if ("--warmup".equals(option)) {
+					stress.warmup(Long.parseLong(value), TimeUnit.SECONDS);
+				} else if ("--invalid".equals(option)) {
+					stress.invalid(Double.parseDouble(value));
+				} else {
+					throw new IllegalArgumentException("Unknown option: " + option);
+				}
+			} else {
+				throw new IllegalArgumentException("Missing value of option " + option);
+			}
+		}
+		System.out.println(stress.run());
+	}
+
+	/**
+	 * @param operation
+	 *            the code path to measure
+	 *
+	 * @return this harness
+	 */
+	public ValidationStress operation(Operation operation) {
+		this.operation = operation;
+		return this;
+	}
+
+	/**
+	 * @param threads
+	 *            the number of calling threads
+	 *
+	 * @return this harness
+	 */
+	public ValidationStress threads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread required");
+		}
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * @param virtual
+	 *            <code>true</code> to call from virtual threads, requires Java 21 or later
+	 *
+	 * @return this harness
+	 */
+	public ValidationStress virtual(boolean virtual) {
+		this.virtual = virtual;
+		return this;
+	}
+
+	/**
+	 * @param rate
+	 *            the total number of calls per second over all threads
+	 *
+	 * @return this harness
+	 */
+	public ValidationStress rate(long rate) {
+		if (rate < 1) {
+			throw new IllegalArgumentException("Rate must be positive");
+		}
+		this.rate = rate;
+		return this;
+	}
+
+	/**
+	 * @param duration
+	 *            how long to measure
+	 * @param unit
+	 *            unit of the duration
+	 *
+	 * @return this harness
+	 */
+	public ValidationStress duration(long duration, TimeUnit unit) {
+		this.duration = unit.toNanos(duration);
+		return this;
+	}
+
+	/**
+	 * @param warmup
+	 *            how long to run before measuring, to give the JIT time to compile the code paths
+	 * @param unit
+	 *            unit of the warm-up time
+	 *
+	 * @return this harness
+	 */
+	public ValidationStress warmup(long warmup, TimeUnit unit) {
+		this.warmup = unit.toNanos(warmup);
+		return this;
+	}
+
+	/**
+	 * @param invalid
+	 *            share of inputs that fail validation, between <code>0</code> and <code>1</code>
+	 *
+	 * @return this harness
+	 */
+	public ValidationStress invalid(double invalid) {
+		this.invalid = invalid;
+		return this;
+	}
+
+	/**
+	 * Runs warm-up and measurement.
+	 *
+	 * @return the measurement's results
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads
+	 */
+	public Report run() throws InterruptedException {
+		final Input[] inputs = inputs(new Random(42));
+		final ThreadFactory factory = virtual ? virtualThreadFactory() : Thread::new;
+		final long interval = TimeUnit.SECONDS.toNanos(threads) / rate;
+		if (interval < 1) {
+			throw new IllegalArgumentException("Rate too high for " + threads + " threads");
+		}
+
+		final List<Worker> workers = new ArrayList<Worker>();
+		final CountDownLatch done = new CountDownLatch(threads);
+		final GcListener gc = new GcListener();
+		final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		final long measureFrom = start + warmup;
+		final long end = measureFrom + duration;
+		for (int t = 0; t < threads; t++) {
+			// stagger the threads' schedules evenly across one interval
+			final Worker worker = new Worker(inputs, t * 7919, start + t * interval / threads, interval, measureFrom,
+					end, done);
+			workers.add(worker);
+			factory.newThread(worker).start();
+		}
+
+		Thread.sleep(Math.max(0L, TimeUnit.NANOSECONDS.toMillis(measureFrom - System.nanoTime())));
+		gc.start();
+		done.await();
+		gc.stop();
+
+		final Report report = new Report(this);
+		for (Worker worker : workers) {
+			if (worker.failure != null) {
+				throw new IllegalStateException("Worker failed", worker.failure);
+			}
+			report.latency.add(worker.latency);
+			report.serviceTime.add(worker.serviceTime);
+			report.errors += worker.errors;
+			if (worker.allocated < 0 || report.allocated < 0) {
+				report.allocated = -1;
+			} else {
+				report.allocated += worker.allocated;
+			}
+		}
+		report.gcCount = gc.count;
+		report.gcTime = gc.total;
+		report.gcMaxPause = gc.max;
+		return report;
+	}
+
+	private Input[] inputs(final Random random) {
+		final CountryCode[] countries = CountryCode.values();
+		final Input[] inputs = new Input[INPUTS];
+		for (int i = 0; i < INPUTS; i++) {
+			final CountryCode cc = countries[random.nextInt(countries.length)];
+			final CountrySpec spec = IbanRegistry.getDefault().lookup(cc);
+			final StringBuilder bban = new StringBuilder();
+			for (int n = 0; n < spec.getBbanLength(); n++) {
+				final char digit = (char) ('0' + random.nextInt(10));
+				bban.append(spec.accepts(n, digit) ? digit : (char) ('A' + random.nextInt(26)));
+			}
+			String iban = new Iban(cc, bban.toString()).toFormattedString();
+			String country = cc.name();
+			if (random.nextDouble() < invalid) {
+				// a wrong check digit, which also fails the relaxed validation, and an unknown country
+				iban = iban.substring(0, 2) + (char) ('0' + (iban.charAt(2) - '0' + 5) % 10) + iban.substring(3);
+				country = "X" + country.charAt(1);
+			}
+			inputs[i] = new Input(iban, country);
+		}
+		return inputs;
+	}
+
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			final Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+		}
+	}
+
+	/**
+	 * A pre-generated input, so that input creation is not part of the measurement.
+	 */
+	static final class Input {
+
+		final String iban;
+
+		final String country;
+
+		Input(String iban, String country) {
+			super();
+			this.iban = iban;
+			this.country = country;
+		}
+	}
+
+	/**
+	 * Calls the operation on a fixed schedule and records its latencies.
+	 */
+	private final class Worker implements Runnable {
+
+		private final Input[] inputs;
+
+		private final int seed;
+
+		private final long first;
+
+		private final long interval;
+
+		private final long measureFrom;
+
+		private final long end;
+
+		private final CountDownLatch done;
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+		private long errors;
+
+		private long allocated = -1;
+
+		private Throwable failure;
+
+		Worker(Input[] inputs, int seed, long first, long interval, long measureFrom, long end, CountDownLatch done) {
+			super();
+			this.inputs = inputs;
+			this.seed = seed;
+			this.first = first;
+			this.interval = interval;
+			this.measureFrom = measureFrom;
+			this.end = end;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				measure();
+			} catch (Throwable t) {
+				failure = t;
+			} finally {
+				done.countDown();
+			}
+		}
+
+		private void measure() {
+			final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+			final long threadId = Thread.currentThread().getId();
+			long allocatedBefore = -1;
+			int result = 0;
+			boolean measuring = false;
+
+			for (long k = 0;; k++) {
+				final long intended = first + k * interval;
+				if (intended >= end) {
+					break;
+				} else if (!measuring && intended >= measureFrom) {
+					measuring = true;
+					allocatedBefore = allocatedBytes(threadBean, threadId);
+				}
+
+				long now = System.nanoTime();
+				while (now < intended) {
+					if (intended - now > SPIN_THRESHOLD) {
+						LockSupport.parkNanos(intended - now - SPIN_THRESHOLD);
+					} else {
+						Thread.yield();
+					}
+					now = System.nanoTime();
+				}
+
+				final Input input = inputs[(int) ((seed + k) % inputs.length)];
+				boolean failed = false;
+				try {
+					result += operation.run(input);
+				} catch (RuntimeException e) {
+					failed = true;
+				}
+				final long finished = System.nanoTime();
+
+				if (measuring) {
+					latency.record(finished - intended);
+					serviceTime.record(finished - now);
+					if (failed) {
+						errors++;
+					}
+				}
+			}
+
+			final long allocatedAfter = allocatedBytes(threadBean, threadId);
+			if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+				allocated = allocatedAfter - allocatedBefore;
+			}
+			sink += result;
+		}
+
+		private long allocatedBytes(final ThreadMXBean threadBean, final long threadId) {
+			if (virtual || !(threadBean instanceof com.sun.management.ThreadMXBean)) {
+				return -1;
+			}
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(threadId);
+		}
+	}
+
+	/**
+	 * Collects the durations of all stop-the-world GC pauses during the measurement.
+	 */
+	static final class GcListener implements NotificationListener {
+
+		/** Reported by the <code>... Cycles</code> beans of ZGC and Shenandoah. */
+		private static final String CYCLE_ACTION = "end of GC cycle";
+
+		private final List<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>();
+
+		private long count;
+
+		private long total;
+
+		private long max;
+
+		GcListener() {
+			super();
+		}
+
+		void start() {
+			for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+				if (bean instanceof NotificationEmitter) {
+					((NotificationEmitter) bean).addNotificationListener(this, null, null);
+					emitters.add((NotificationEmitter) bean);
+				}
+			}
+		}
+
+		void stop() {
+			for (NotificationEmitter emitter : emitters) {
+				try {
+					emitter.removeNotificationListener(this);
+				} catch (ListenerNotFoundException e) {
+					// already gone
+				}
+			}
+		}
+
+		@Override
+		public synchronized void handleNotification(Notification notification, Object handback) {
+			if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+				final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+						.from((CompositeData) notification.getUserData());
+				if (!isPause(info.getGcName(), info.getGcAction())) {
+					return;
+				}
+				final long duration = info.getGcInfo().getDuration();
+				count++;
+				total += duration;
+				max = Math.max(max, duration);
+			}
+		}
+
+		/**
+		 * ZGC and Shenandoah report their concurrent cycles through separate <code>... Cycles</code> beans besides
+		 * the <code>... Pauses</code> beans, and the old generation collections of CMS include its concurrent phases.
+		 *
+		 * @return <code>true</code> if the duration of the collection is a stop-the-world pause
+		 */
+		static boolean isPause(final String gcName, final String gcAction) {
+			return !CYCLE_ACTION.equals(gcAction) && !gcName.endsWith(" Cycles")
+					&& !"ConcurrentMarkSweep".equals(gcName);
+		}
+	}
+
+	/**
+	 * The results of a measurement. Latencies are in nanoseconds, GC times in milliseconds.
+	 */
+	public static final class Report {
+
+		private final String settings;
+
+		private final long seconds;
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+		private long errors;
+
+		private long allocated;
+
+		private long gcCount;
+
+		private long gcTime;
+
+		private long gcMaxPause;
+
+		private Report(ValidationStress stress) {
+			super();
+			this.settings = String.format(Locale.ROOT, "%s, %d %s threads, %d calls/s, %.0f%% invalid",
+					stress.operation, stress.threads, stress.virtual ? "virtual" : "platform", stress.rate,
+					stress.invalid * 100);
+			this.seconds = Math.max(1L, TimeUnit.NANOSECONDS.toSeconds(stress.duration));
+		}
+
+		/**
+		 *
+		 * @return latencies measured from the intended start of each call, corrected for coordinated omission
+		 */
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		/**
+		 *
+		 * @return latencies measured from the actual start of each call
+		 */
+		public LatencyHistogram getServiceTime() {
+			return serviceTime;
+		}
+
+		/**
+		 *
+		 * @return the number of calls that threw an exception
+		 */
+		public long getErrors() {
+			return errors;
+		}
+
+		/**
+		 *
+		 * @return the average number of bytes allocated per call, <code>-1</code> if not available
+		 */
+		public long getAllocatedPerCall() {
+			return allocated < 0 || latency.getCount() == 0 ? -1 : allocated / latency.getCount();
+		}
+
+		/**
+		 *
+		 * @return the number of garbage collections during the measurement
+		 */
+		public long getGcCount() {
+			return gcCount;
+		}
+
+		/**
+		 *
+		 * @return the total duration of all garbage collections in milliseconds
+		 */
+		public long getGcTime() {
+			return gcTime;
+		}
+
+		/**
+		 *
+		 * @return the duration of the longest garbage collection in milliseconds
+		 */
+		public long getGcMaxPause() {
+			return gcMaxPause;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder(settings).append('\n');
+			sb.append(String.format(Locale.ROOT, "calls: %d (%d/s), errors: %d%n", latency.getCount(),
+					latency.getCount() / seconds, errors));
+			sb.append(String.format(Locale.ROOT, "%-10s %14s %14s%n", "percentile", "latency [us]", "service [us]"));
+			for (double percentile : PERCENTILES) {
+				sb.append(String.format(Locale.ROOT, "%-10s %14.1f %14.1f%n", percentile == 100.0 ? "max" : percentile,
+						latency.getValueAtPercentile(percentile) / 1000.0,
+						serviceTime.getValueAtPercentile(percentile) / 1000.0));
+			}
+			sb.append(String.format(Locale.ROOT, "%-10s %14.1f %14.1f%n", "mean", latency.getMean() / 1000.0,
+					serviceTime.getMean() / 1000.0));
+			sb.append(String.format(Locale.ROOT, "GC: %d collections, %d ms total, %d ms max%n", gcCount, gcTime,
+					gcMaxPause));
+			final long perCall = getAllocatedPerCall();
+			sb.append("allocated: ").append(perCall < 0 ? "n/a" : perCall + " bytes/call");
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.ibanlib.stress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.tfsw.ibanlib.stress.ValidationStress.GcListener;
+import de.tfsw.ibanlib.stress.ValidationStress.Operation;
+import de.tfsw.ibanlib.stress.ValidationStress.Report;
+
+/**
+ * Unit tests for {@link LatencyHistogram} and a short smoke run of {@link ValidationStress}.
+ *
+ * @author Thorsten Frank
+ */
+public class ValidationStressTest {
+
+	@Test
+	public void testHistogram() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99.0));
+		for (long value = 1; value <= 100000; value++) {
+			histogram.record(value);
+		}
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000, histogram.getMax());
+		assertEquals(50000.5, histogram.getMean(), 0.001);
+		assertEquals(100, histogram.getValueAtPercentile(0.1));
+		assertWithin(50000, histogram.getValueAtPercentile(50.0));
+		assertWithin(99900, histogram.getValueAtPercentile(99.9));
+		assertEquals(100000, histogram.getValueAtPercentile(100.0));
+
+		final LatencyHistogram other = new LatencyHistogram();
+		other.record(TimeUnit.SECONDS.toNanos(3));
+		other.record(-1);
+		histogram.add(other);
+		assertEquals(100002, histogram.getCount());
+		assertEquals(TimeUnit.SECONDS.toNanos(3), histogram.getValueAtPercentile(100.0));
+	}
+
+	@Test
+	public void testSmokeRun() throws InterruptedException {
+		for (Operation operation : Operation.values()) {
+			final Report report = new ValidationStress().operation(operation).threads(2).rate(2000)
+					.warmup(100, TimeUnit.MILLISECONDS).duration(300, TimeUnit.MILLISECONDS).invalid(0.5).run();
+			final long calls = report.getLatency().getCount();
+			assertTrue(report.toString(), calls > 400 && calls <= 600);
+			assertEquals(calls, report.getServiceTime().getCount());
+			assertTrue(report.getErrors() > 0 && report.getErrors() < calls);
+			assertTrue(report.getLatency().getValueAtPercentile(99.0) >= report.getServiceTime().getValueAtPercentile(
+					99.0));
+			assertTrue(report.toString().contains("99.9"));
+		}
+	}
+
+	/**
+	 * Only stop-the-world pauses count, not the concurrent cycles of ZGC, Shenandoah or CMS.
+	 */
+	@Test
+	public void testGcPauseFilter() {
+		assertTrue(GcListener.isPause("G1 Young Generation", "end of minor GC"));
+		assertTrue(GcListener.isPause("G1 Old Generation", "end of major GC"));
+		assertTrue(GcListener.isPause("PS MarkSweep", "end of major GC"));
+		assertTrue(GcListener.isPause("ZGC Pauses", "end of GC pause"));
+		assertTrue(GcListener.isPause("Shenandoah Pauses", "end of GC pause"));
+		assertFalse(GcListener.isPause("ZGC Cycles", "end of GC cycle"));
+		assertFalse(GcListener.isPause("ZGC Major Cycles", "end of GC cycle"));
+		assertFalse(GcListener.isPause("Shenandoah Cycles", "end of GC cycle"));
+		assertFalse(GcListener.isPause("ConcurrentMarkSweep", "end of major GC"));
+	}
+
+	private static void assertWithin(final long expected, final long actual) {
+		assertTrue("Value " + actual + " too far off " + expected, Math.abs(actual - expected) <= expected / 100);
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2017 Thorsten Frank
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package de.tfsw.iban;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the vectorized kernel of the Java 21 classes with the scalar one. Only compiled and run by the
+ * <code>java21</code> profile.
+ * 
+ * @author Thorsten Frank
+ */
+public class Mod97VectorTest {
+
+	@Test
+	public void testVectorizedKernelSelected() {
+		assertTrue(Mod97Batch.isVectorized());
+	}
+
+	@Test
+	public void testRemaindersMatchScalarKernel() {
+		final Random random = new Random(97L);
+		// counts below, at and above multiples of the lane count exercise the scalar tail
+		for (int count = 0; count <= 67; count++) {
+			final int stride = count + 3;
+			final long[] chunks = new long[DigitColumns.COLUMNS * stride];
+			for (int i = 0; i < chunks.length; i++) {
+				chunks[i] = random.nextInt((int) DigitColumns.CHUNK_BASE);
+			}
+			// largest chunks possible
+			if (count > 0) {
+				for (int c = 0; c < DigitColumns.COLUMNS; c++) {
+					chunks[c * stride] = DigitColumns.CHUNK_BASE - 1;
+				}
+			}
+			final long[] expected = new long[count];
+			final long[] actual = new long[count];
+			DigitColumns.scalarRemainders(chunks, stride, 0, count, expected);
+			Mod97Vector.remainders(chunks, stride, count, actual);
+			assertArrayEquals("count " + count, expected, actual);
+		}
+	}
+}